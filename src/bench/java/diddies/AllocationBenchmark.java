@@ -0,0 +1,57 @@
+package diddies;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A standalone benchmark that measures how much memory a steady-state tick of
+ * the Simulation allocates, using the per-thread allocation counter of the JVM.
+ * After warming up, a tick should allocate nothing at all, with either
+ * GravitySolver. Anything else is garbage the collector has to clean up while
+ * the simulation is running, which shows up as stutter.
+ *
+ * Run it with "gradle allocationBenchmark". Optional arguments are the number
+ * of Particles and the number of ticks to measure. It needs a JVM that
+ * provides com.sun.management.ThreadMXBean, which HotSpot does.
+ *
+ * @author Ryan Kenney
+ */
+public class AllocationBenchmark {
+
+    // Methods
+    /**
+     * Run the benchmark
+     *
+     * @param args The number of Particles, followed by the number of ticks
+     */
+    public static void main(String[] args) {
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+	int ticks = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+
+	com.sun.management.ThreadMXBean threads
+		= (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	long thread = Thread.currentThread().getId();
+
+	GravitySolver[] solvers = {new BruteForceGravity(), new BarnesHutGravity()};
+	System.out.printf("%8s %20s %16s %16s%n", "n", "solver", "bytes/tick", "ms/tick");
+	for (GravitySolver solver : solvers) {
+	    Simulation simulation = Scenes.simulation(n, solver);
+
+	    // Warm up, so the JIT is done and the scratch space has grown
+	    for (int i = 0; i < ticks; i++) {
+		simulation.step();
+	    }
+
+	    long bytes = threads.getThreadAllocatedBytes(thread);
+	    long start = System.nanoTime();
+	    for (int i = 0; i < ticks; i++) {
+		simulation.step();
+	    }
+	    long elapsed = System.nanoTime() - start;
+	    bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+	    System.out.printf("%8d %20s %16.1f %16.3f%n", n, solver.getClass().getSimpleName(),
+		    (double) bytes / ticks, elapsed / 1e6 / ticks);
+	}
+	System.exit(0);
+    }
+}
@@ -0,0 +1,134 @@
+package diddies;
+
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.util.Random;
+
+/**
+ * A standalone benchmark comparing the analytic overlap and containment tests
+ * in CircleGeometry to the java.awt.geom.Area intersection that
+ * Particle.intersects() and Particle.contains() used to do. It also counts how
+ * often the two disagree, which should only happen for circles that are within
+ * a hair of touching, since Area approximates the circles with curves.
+ *
+ * Run it with "gradle circleBenchmark". The optional argument is the number
+ * of pairs to test.
+ *
+ * @author Ryan Kenney
+ */
+public class CircleBenchmark {
+
+    // Attributes
+    private final static double SPREAD = 60;
+
+    // Methods
+    /**
+     * The old Particle.contains()
+     *
+     * @param x The X component of the circle's position
+     * @param y The Y component of the circle's position
+     * @param d The diameter of the circle
+     * @param px The X component of the point
+     * @param py The Y component of the point
+     * @return True if the point is inside the circle
+     */
+    private static boolean areaContains(double x, double y, double d, double px, double py) {
+	Area area = new Area(new Ellipse2D.Double(x, y, d, d));
+	return area.contains(px, py);
+    }
+
+    /**
+     * The old Particle.intersects()
+     *
+     * @param x1 The X component of circle 1's position
+     * @param y1 The Y component of circle 1's position
+     * @param d1 The diameter of circle 1
+     * @param x2 The X component of circle 2's position
+     * @param y2 The Y component of circle 2's position
+     * @param d2 The diameter of circle 2
+     * @return True if the circles intersect
+     */
+    private static boolean areaIntersects(double x1, double y1, double d1, double x2, double y2, double d2) {
+	Area area1 = new Area(new Ellipse2D.Double(x1, y1, d1, d1));
+	Area area2 = new Area(new Ellipse2D.Double(x2, y2, d2, d2));
+	area1.intersect(area2);
+	return !area1.isEmpty();
+    }
+
+    /**
+     * Run the benchmark
+     *
+     * @param args The number of pairs to test
+     */
+    public static void main(String[] args) {
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+	Random random = new Random(Scenes.SEED);
+	double[] x1 = new double[n], y1 = new double[n], d1 = new double[n];
+	double[] x2 = new double[n], y2 = new double[n], d2 = new double[n];
+	for (int i = 0; i < n; i++) {
+	    x1[i] = random.nextDouble() * SPREAD;
+	    y1[i] = random.nextDouble() * SPREAD;
+	    d1[i] = 2 * (1 + random.nextInt(20));
+	    x2[i] = random.nextDouble() * SPREAD;
+	    y2[i] = random.nextDouble() * SPREAD;
+	    d2[i] = 2 * (1 + random.nextInt(20));
+	}
+
+	// Run both a few times so the JIT has had its say, and keep the last
+	for (int round = 0; round < 5; round++) {
+	    int mismatches = 0, hits = 0;
+	    long start = System.nanoTime();
+	    for (int i = 0; i < n; i++) {
+		if (areaIntersects(x1[i], y1[i], d1[i], x2[i], y2[i], d2[i])) {
+		    hits++;
+		}
+	    }
+	    long areaOverlap = System.nanoTime() - start;
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < n; i++) {
+		if (CircleGeometry.overlaps(x1[i] + d1[i] / 2, y1[i] + d1[i] / 2, d1[i] / 2,
+			x2[i] + d2[i] / 2, y2[i] + d2[i] / 2, d2[i] / 2)) {
+		    hits--;
+		}
+	    }
+	    long analyticOverlap = System.nanoTime() - start;
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < n; i++) {
+		if (areaContains(x1[i], y1[i], d1[i], x2[i], y2[i])) {
+		    hits++;
+		}
+	    }
+	    long areaContains = System.nanoTime() - start;
+
+	    start = System.nanoTime();
+	    for (int i = 0; i < n; i++) {
+		if (CircleGeometry.contains(x1[i] + d1[i] / 2, y1[i] + d1[i] / 2, d1[i] / 2, x2[i], y2[i])) {
+		    hits--;
+		}
+	    }
+	    long analyticContains = System.nanoTime() - start;
+
+	    // Count the disagreements separately, outside of the timing
+	    if (round == 4) {
+		for (int i = 0; i < n; i++) {
+		    boolean a = areaIntersects(x1[i], y1[i], d1[i], x2[i], y2[i], d2[i]);
+		    boolean b = CircleGeometry.overlaps(x1[i] + d1[i] / 2, y1[i] + d1[i] / 2, d1[i] / 2,
+			    x2[i] + d2[i] / 2, y2[i] + d2[i] / 2, d2[i] / 2);
+		    if (a != b) {
+			mismatches++;
+		    }
+		}
+
+		System.out.printf("%10s %14s %14s %10s%n", "test", "Area (ns)", "analytic (ns)", "speedup");
+		System.out.printf("%10s %14.1f %14.1f %10.1f%n", "overlap", (double) areaOverlap / n,
+			(double) analyticOverlap / n, (double) areaOverlap / analyticOverlap);
+		System.out.printf("%10s %14.1f %14.1f %10.1f%n", "contains", (double) areaContains / n,
+			(double) analyticContains / n, (double) areaContains / analyticContains);
+		System.out.printf("%d of %d overlap results disagree (net hit difference %d)%n",
+			mismatches, n, hits);
+	    }
+	}
+    }
+}
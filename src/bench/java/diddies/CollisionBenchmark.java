@@ -0,0 +1,114 @@
+package diddies;
+
+import java.util.Random;
+
+/**
+ * A standalone benchmark for the broad phase of collision detection. For each
+ * particle count it fills a Space big enough to keep the density the same,
+ * then times finding every overlapping pair with the SpatialGrid and, while it
+ * is still bearable, by testing every pair. The grid should scale close to
+ * linearly, and both should find the same number of overlaps.
+ *
+ * Run it with "gradle collisionBenchmark". Optional arguments are the particle
+ * counts to try.
+ *
+ * @author Ryan Kenney
+ */
+public class CollisionBenchmark {
+
+    // Attributes
+    private final static double AREA_PER_PARTICLE = 200;
+    private final static int MAX_BRUTE_FORCE = 20000;
+    private final static int REPEATS = 5;
+
+    // Methods
+    /**
+     * Run the benchmark
+     *
+     * @param args The particle counts
+     */
+    public static void main(String[] args) {
+	int[] counts = {1000, 3000, 10000, 30000, 100000};
+	if (args.length > 0) {
+	    counts = new int[args.length];
+	    for (int i = 0; i < args.length; i++) {
+		counts[i] = Integer.parseInt(args[i]);
+	    }
+	}
+
+	// Warm up
+	for (int i = 0; i < 20; i++) {
+	    run(2000, true);
+	}
+
+	System.out.printf("%8s %14s %14s %12s %10s%n", "n", "grid (ms)", "pairs (ms)", "candidates", "overlaps");
+	for (int n : counts) {
+	    run(n, false);
+	}
+    }
+
+    /**
+     * Time both approaches for <i>n</i> Particles
+     *
+     * @param n The number of Particles
+     * @param quiet True to skip printing the results
+     */
+    private static void run(int n, boolean quiet) {
+	double height = Math.sqrt(n * AREA_PER_PARTICLE * 3 / 4);
+	double width = height * 4 / 3;
+	Random random = new Random(Scenes.SEED);
+	final ParticleStore particles = new ParticleStore(n);
+	for (int i = 0; i < n; i++) {
+	    particles.add(random.nextDouble() * width, random.nextDouble() * height, 0, 0,
+		    1, 2 * (1 + random.nextInt(5)));
+	}
+
+	// The grid
+	final int[] counters = new int[2];
+	SpatialGrid grid = new SpatialGrid();
+	SpatialGrid.PairVisitor count = new SpatialGrid.PairVisitor() {
+	    @Override
+	    public void visit(int i, int j) {
+		counters[0]++;
+		if (particles.overlaps(i, j)) {
+		    counters[1]++;
+		}
+	    }
+	};
+	long best = Long.MAX_VALUE;
+	for (int r = 0; r < REPEATS; r++) {
+	    counters[0] = 0;
+	    counters[1] = 0;
+	    long start = System.nanoTime();
+	    grid.rebuild(particles, width, height);
+	    grid.forEachCandidatePair(count);
+	    best = Math.min(best, System.nanoTime() - start);
+	}
+	int gridOverlaps = counters[1];
+
+	// Every pair
+	long brute = -1;
+	int bruteOverlaps = -1;
+	if (n <= MAX_BRUTE_FORCE) {
+	    long start = System.nanoTime();
+	    bruteOverlaps = 0;
+	    for (int i = 0; i < n; i++) {
+		for (int j = i + 1; j < n; j++) {
+		    if (particles.overlaps(i, j)) {
+			bruteOverlaps++;
+		    }
+		}
+	    }
+	    brute = System.nanoTime() - start;
+	    if (bruteOverlaps != gridOverlaps) {
+		throw new IllegalStateException("grid found " + gridOverlaps
+			+ " overlaps, but there are " + bruteOverlaps);
+	    }
+	}
+
+	if (!quiet) {
+	    System.out.printf("%8d %14.3f %14s %12d %10d%n", n, best / 1e6,
+		    (brute < 0) ? "-" : String.format("%.3f", brute / 1e6), counters[0], gridOverlaps);
+	}
+    }
+}
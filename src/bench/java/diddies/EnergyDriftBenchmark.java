@@ -0,0 +1,149 @@
+package diddies;
+
+import java.util.Random;
+
+/**
+ * A standalone benchmark comparing how well each Integrator conserves energy
+ * as the timestep grows. The scene is a heavy Particle with very light ones in
+ * circular orbits of different radii around it. The orbits are slow enough
+ * that the velocity limit never kicks in, and the orbiters are too light to
+ * fling each other out of them. It is integrated with gravity alone (no walls
+ * or collisions), so any change in the total energy is error from the
+ * Integrator.
+ *
+ * For each Integrator and timestep it reports the largest relative energy
+ * error seen over the run, the error at the end, and the CPU time it took per
+ * unit of simulated time. Euler with a timestep of 1 is the original scheme.
+ *
+ * Run it with "gradle energyDriftBenchmark". Optional arguments are the
+ * simulated time followed by the timesteps to try.
+ *
+ * @author Ryan Kenney
+ */
+public class EnergyDriftBenchmark {
+
+    // Attributes
+    private final static double G = Simulation.GRAVITATIONAL_CONSTANT;
+    private final static int ORBITERS = 32;
+    private final static double CENTRAL_MASS = 10000;
+    private final static double ORBITER_MASS = 0.01;
+    private final static int CENTRAL_DIAMETER = 20;
+    private final static double CENTER = 400;
+    private final static double MIN_RADIUS = 60;
+    private final static double MAX_RADIUS = 250;
+    private final static BlockRunner SERIAL = new BlockRunner(1);
+
+    // Methods
+    /**
+     * Create the central Particle and its orbiters, with no net momentum
+     *
+     * @return The Particles
+     */
+    private static ParticleStore create() {
+	Random random = new Random(Scenes.SEED);
+	ParticleStore particles = new ParticleStore(ORBITERS + 1);
+	particles.add(CENTER - CENTRAL_DIAMETER / 2, CENTER - CENTRAL_DIAMETER / 2, 0, 0, CENTRAL_MASS,
+		CENTRAL_DIAMETER);
+	double px = 0, py = 0;
+	for (int i = 0; i < ORBITERS; i++) {
+	    double r = MIN_RADIUS + i * (MAX_RADIUS - MIN_RADIUS) / (ORBITERS - 1);
+	    double angle = random.nextDouble() * 2 * Math.PI;
+	    double speed = Math.sqrt(G * CENTRAL_MASS / r);
+	    double vx = -Math.sin(angle) * speed, vy = Math.cos(angle) * speed;
+	    particles.add(CENTER + r * Math.cos(angle) - 1, CENTER + r * Math.sin(angle) - 1, vx, vy, ORBITER_MASS, 2);
+	    px += ORBITER_MASS * vx;
+	    py += ORBITER_MASS * vy;
+	}
+	particles.setVelocity(0, -px / CENTRAL_MASS, -py / CENTRAL_MASS);
+	return particles;
+    }
+
+    /**
+     * Work out the total kinetic and potential energy of <i>particles</i>
+     *
+     * @param particles The Particles
+     * @return The total energy
+     */
+    private static double energy(ParticleStore particles) {
+	int n = particles.size();
+	double kinetic = 0, potential = 0;
+	for (int i = 0; i < n; i++) {
+	    double vx = particles.getVelocityX(i), vy = particles.getVelocityY(i);
+	    kinetic += 0.5 * particles.getMass(i) * (vx * vx + vy * vy);
+	    for (int j = i + 1; j < n; j++) {
+		double dx = particles.getCenterX(j) - particles.getCenterX(i);
+		double dy = particles.getCenterY(j) - particles.getCenterY(i);
+		potential -= G * particles.getMass(i) * particles.getMass(j) / Math.sqrt(dx * dx + dy * dy);
+	    }
+	}
+	return kinetic + potential;
+    }
+
+    /**
+     * Run the benchmark
+     *
+     * @param args The simulated time, followed by the timesteps
+     */
+    public static void main(String[] args) {
+	double time = (args.length > 0) ? Double.parseDouble(args[0]) : 10000;
+	double[] timesteps = {0.5, 1, 2, 4, 8};
+	if (args.length > 1) {
+	    timesteps = new double[args.length - 1];
+	    for (int i = 1; i < args.length; i++) {
+		timesteps[i - 1] = Double.parseDouble(args[i]);
+	    }
+	}
+
+	final GravitySolver gravity = new BruteForceGravity();
+	Integrator.Forces forces = new Integrator.Forces() {
+	    @Override
+	    public void accelerate(ParticleStore particles, double[] accelX, double[] accelY) {
+		gravity.accelerate(particles, G, SERIAL, accelX, accelY);
+	    }
+	};
+	Integrator[] integrators = {new EulerIntegrator(), new LeapfrogIntegrator(),
+	    new VelocityVerletIntegrator()};
+
+	// Warm up, so the JIT has had its say
+	for (Integrator integrator : integrators) {
+	    run(integrator, forces, 1, time / 10);
+	}
+
+	System.out.printf("%26s %8s %10s %14s %14s %14s%n", "integrator", "dt", "steps",
+		"max |dE/E|", "end |dE/E|", "us/time unit");
+	for (Integrator integrator : integrators) {
+	    for (double dt : timesteps) {
+		double[] result = run(integrator, forces, dt, time);
+		System.out.printf("%26s %8.2f %10d %14.3e %14.3e %14.3f%n",
+			integrator.getClass().getSimpleName(), dt, (long) Math.ceil(time / dt),
+			result[0], result[1], result[2]);
+	    }
+	}
+    }
+
+    /**
+     * Integrate the scene for <i>time</i> with timesteps of <i>dt</i>
+     *
+     * @param integrator The Integrator to use
+     * @param forces The forces to use
+     * @param dt The timestep
+     * @param time The simulated time
+     * @return The largest relative energy error, the final one, and the
+     * microseconds of CPU per unit of simulated time
+     */
+    private static double[] run(Integrator integrator, Integrator.Forces forces, double dt, double time) {
+	ParticleStore particles = create();
+	double initial = energy(particles);
+	double maxError = 0;
+	long steps = (long) Math.ceil(time / dt);
+	long elapsed = 0;
+	for (long s = 0; s < steps; s++) {
+	    long start = System.nanoTime();
+	    integrator.step(particles, dt, forces, SERIAL);
+	    elapsed += System.nanoTime() - start;
+	    maxError = Math.max(maxError, Math.abs((energy(particles) - initial) / initial));
+	}
+	double error = Math.abs((energy(particles) - initial) / initial);
+	return new double[]{maxError, error, elapsed / 1e3 / (steps * dt)};
+    }
+}
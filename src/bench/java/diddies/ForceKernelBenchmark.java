@@ -0,0 +1,182 @@
+package diddies;
+
+import java.util.Arrays;
+
+/**
+ * A standalone benchmark of the direct gravity sum's inner loop, three ways:
+ * the original loop, which found each pair's direction with Math.atan2 and
+ * took it apart again with Math.cos and Math.sin (twice, the second time at
+ * angle + PI for the other Particle), the trig-free ScalarForceKernel, and the
+ * VectorForceKernel. For each particle count it times one full sum with each
+ * and reports the largest relative difference from the scalar kernel.
+ *
+ * Run it with "gradle forceKernelBenchmark", or with
+ * "gradle -Pvector=JDK forceKernelBenchmark" to include the vectorized
+ * kernel. Optional arguments are the particle counts to try.
+ *
+ * @author Ryan Kenney
+ */
+public class ForceKernelBenchmark {
+
+    // Attributes
+    private final static int REPEATS = 5;
+
+    // Methods
+    /**
+     * Fill <i>x</i>, <i>y</i> and <i>mass</i> with the centers and masses of
+     * a scene of Particles
+     *
+     * @param x The X components of the centers
+     * @param y The Y components of the centers
+     * @param mass The masses
+     */
+    private static void create(double[] x, double[] y, double[] mass) {
+	ParticleStore particles = Scenes.store(x.length);
+	for (int i = 0; i < x.length; i++) {
+	    x[i] = particles.getCenterX(i);
+	    y[i] = particles.getCenterY(i);
+	    mass[i] = particles.getMass(i);
+	}
+    }
+
+    /**
+     * Work out the largest difference of <i>ax</i>, <i>ay</i> from
+     * <i>bx</i>, <i>by</i>, relative to the largest magnitude of the latter
+     *
+     * @param ax The X components to compare
+     * @param ay The Y components to compare
+     * @param bx The X components to compare against
+     * @param by The Y components to compare against
+     * @return The relative difference
+     */
+    private static double difference(double[] ax, double[] ay, double[] bx, double[] by) {
+	double maxError = 0, maxNorm = 0;
+	for (int i = 0; i < ax.length; i++) {
+	    maxError = Math.max(maxError, Math.hypot(ax[i] - bx[i], ay[i] - by[i]));
+	    maxNorm = Math.max(maxNorm, Math.hypot(bx[i], by[i]));
+	}
+	return maxError / maxNorm;
+    }
+
+    /**
+     * Run the benchmark
+     *
+     * @param args The particle counts
+     */
+    public static void main(String[] args) {
+	int[] counts = {500, 1000, 2000, 5000, 10000};
+	if (args.length > 0) {
+	    counts = new int[args.length];
+	    for (int i = 0; i < args.length; i++) {
+		counts[i] = Integer.parseInt(args[i]);
+	    }
+	}
+
+	ForceKernel scalar = ForceKernels.scalar();
+	ForceKernel vector = ForceKernels.vector();
+	if (vector == null) {
+	    System.out.println("vectorized kernel not available, run with -Pvector=JDK on JDK 16 or later");
+	}
+
+	// Warm up the loops so the JIT has had its say
+	for (int i = 0; i < 20; i++) {
+	    run(null, 500);
+	    run(scalar, 500);
+	    if (vector != null) {
+		run(vector, 500);
+	    }
+	}
+
+	System.out.printf("%8s %12s %12s %10s %12s %10s %12s%n", "n", "trig (ms)", "scalar (ms)", "speedup",
+		"vector (ms)", "speedup", "difference");
+	for (int n : counts) {
+	    double[] x = new double[n], y = new double[n], mass = new double[n];
+	    create(x, y, mass);
+	    double[] trigX = new double[n], trigY = new double[n];
+	    double[] scalarX = new double[n], scalarY = new double[n];
+	    double[] vectorX = new double[n], vectorY = new double[n];
+
+	    double trigMs = time(null, x, y, mass, trigX, trigY) / 1e6;
+	    double scalarMs = time(scalar, x, y, mass, scalarX, scalarY) / 1e6;
+	    if (vector != null) {
+		double vectorMs = time(vector, x, y, mass, vectorX, vectorY) / 1e6;
+		System.out.printf("%8d %12.3f %12.3f %10.2f %12.3f %10.2f %12.2e%n", n, trigMs, scalarMs,
+			trigMs / scalarMs, vectorMs, trigMs / vectorMs, difference(vectorX, vectorY, scalarX, scalarY));
+	    } else {
+		System.out.printf("%8d %12.3f %12.3f %10.2f %12s %10s %12.2e%n", n, trigMs, scalarMs,
+			trigMs / scalarMs, "-", "-", difference(trigX, trigY, scalarX, scalarY));
+	    }
+	}
+    }
+
+    /**
+     * Sum the attraction on <i>n</i> Particles once, for warming up
+     *
+     * @param kernel The ForceKernel, or null for the original loop
+     * @param n The number of Particles
+     */
+    private static void run(ForceKernel kernel, int n) {
+	double[] x = new double[n], y = new double[n], mass = new double[n];
+	create(x, y, mass);
+	time(kernel, x, y, mass, new double[n], new double[n]);
+    }
+
+    /**
+     * Time the fastest of a few full sums with <i>kernel</i>
+     *
+     * @param kernel The ForceKernel, or null for the original loop
+     * @param x The X components of the centers
+     * @param y The Y components of the centers
+     * @param mass The masses
+     * @param sumX Where to write the X components of the sums
+     * @param sumY Where to write the Y components of the sums
+     * @return The elapsed time, in nanoseconds
+     */
+    private static long time(ForceKernel kernel, double[] x, double[] y, double[] mass, double[] sumX,
+	    double[] sumY) {
+	long best = Long.MAX_VALUE;
+	for (int r = 0; r < REPEATS; r++) {
+	    long start = System.nanoTime();
+	    if (kernel == null) {
+		trig(x, y, mass, sumX, sumY);
+	    } else {
+		kernel.sumRows(x, y, mass, x.length, 0, x.length, sumX, sumY);
+	    }
+	    best = Math.min(best, System.nanoTime() - start);
+	}
+	return best;
+    }
+
+    /**
+     * Sum the attraction the way the original gravity pass did, visiting
+     * every pair once and finding its direction with trigonometry. Each
+     * Particle's share of the force is divided by its own mass, as the
+     * original did, so the sums come out the same as the kernels'.
+     *
+     * @param x The X components of the centers
+     * @param y The Y components of the centers
+     * @param mass The masses
+     * @param sumX Where to write the X components of the sums
+     * @param sumY Where to write the Y components of the sums
+     */
+    private static void trig(double[] x, double[] y, double[] mass, double[] sumX, double[] sumY) {
+	int n = x.length;
+	Arrays.fill(sumX, 0);
+	Arrays.fill(sumY, 0);
+	for (int i = 0; i < n; i++) {
+	    for (int j = i + 1; j < n; j++) {
+		double dx = x[j] - x[i], dy = y[j] - y[i];
+		double distanceSq = dx * dx + dy * dy;
+		if (distanceSq == 0) {
+		    continue;
+		}
+		double rawForce = (mass[i] * mass[j]) / distanceSq;
+		double angle = Math.atan2(dy, dx);
+		sumX[i] += (rawForce * Math.cos(angle)) / mass[i];
+		sumY[i] += (rawForce * Math.sin(angle)) / mass[i];
+		sumX[j] += (rawForce * Math.cos(angle + Math.PI)) / mass[j];
+		sumY[j] += (rawForce * Math.sin(angle + Math.PI)) / mass[j];
+	    }
+	}
+    }
+}
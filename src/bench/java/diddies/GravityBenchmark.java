@@ -0,0 +1,98 @@
+package diddies;
+
+/**
+ * A standalone benchmark comparing BruteForceGravity to BarnesHutGravity and
+ * ParticleMeshGravity. For each particle count it times one application of
+ * each solver and reports the relative RMS error of the Barnes-Hut and mesh
+ * accelerations against the direct sum, which makes the crossover points (and
+ * what they cost in accuracy) easy to see. Most of the mesh's error is the
+ * softening of close pairs, which the direct sum resolves exactly.
+ *
+ * Run it with "gradle gravityBenchmark". Optional arguments are the opening
+ * angle followed by the particle counts to try.
+ *
+ * @author Ryan Kenney
+ */
+public class GravityBenchmark {
+
+    // Attributes
+    private final static double G = 5e-3;
+    private final static BlockRunner SERIAL = new BlockRunner(1);
+
+    // Methods
+    /**
+     * Run the benchmark
+     *
+     * @param args The opening angle, followed by the particle counts
+     */
+    public static void main(String[] args) {
+	double theta = (args.length > 0) ? Double.parseDouble(args[0]) : 0.5;
+	int[] counts = {10, 100, 500, 1000, 2000, 5000, 10000};
+	if (args.length > 1) {
+	    counts = new int[args.length - 1];
+	    for (int i = 1; i < args.length; i++) {
+		counts[i - 1] = Integer.parseInt(args[i]);
+	    }
+	}
+
+	GravitySolver direct = new BruteForceGravity();
+	GravitySolver tree = new BarnesHutGravity(theta);
+	GravitySolver mesh = new ParticleMeshGravity();
+
+	// Warm up the solvers so the JIT has had its say
+	for (int i = 0; i < 20; i++) {
+	    time(direct, Scenes.resting(500));
+	    time(tree, Scenes.resting(500));
+	    time(mesh, Scenes.resting(500));
+	}
+
+	System.out.printf("theta = %.2f%n", theta);
+	System.out.printf("%8s %14s %14s %10s %12s %14s %10s %12s%n", "n", "direct (ms)", "tree (ms)", "speedup",
+		"rms error", "mesh (ms)", "speedup", "rms error");
+	for (int n : counts) {
+	    ParticleStore exact = Scenes.resting(n);
+	    ParticleStore approx = Scenes.resting(n);
+	    ParticleStore meshed = Scenes.resting(n);
+	    double directMs = time(direct, exact) / 1e6;
+	    double treeMs = time(tree, approx) / 1e6;
+	    double meshMs = time(mesh, meshed) / 1e6;
+
+	    System.out.printf("%8d %14.3f %14.3f %10.2f %12.2e %14.3f %10.2f %12.2e%n", n, directMs,
+		    treeMs, directMs / treeMs, error(exact, approx), meshMs, directMs / meshMs, error(exact, meshed));
+	}
+    }
+
+    /**
+     * Work out the relative RMS error of the velocities in <i>approx</i>
+     * against those in <i>exact</i>. Both started at rest, so the velocity is
+     * the acceleration.
+     *
+     * @param exact The Particles after the direct sum
+     * @param approx The same Particles after an approximation
+     * @return The relative RMS error
+     */
+    private static double error(ParticleStore exact, ParticleStore approx) {
+	double errorSq = 0, normSq = 0;
+	for (int i = 0; i < exact.size(); i++) {
+	    double ax = exact.getVelocityX(i), ay = exact.getVelocityY(i);
+	    double dx = ax - approx.getVelocityX(i);
+	    double dy = ay - approx.getVelocityY(i);
+	    errorSq += dx * dx + dy * dy;
+	    normSq += ax * ax + ay * ay;
+	}
+	return Math.sqrt(errorSq / normSq);
+    }
+
+    /**
+     * Time a single application of <i>solver</i>
+     *
+     * @param solver The GravitySolver to time
+     * @param particles The Particles to apply it to
+     * @return The elapsed time, in nanoseconds
+     */
+    private static long time(GravitySolver solver, ParticleStore particles) {
+	long start = System.nanoTime();
+	solver.apply(particles, G, SERIAL);
+	return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,83 @@
+package diddies;
+
+/**
+ * A standalone benchmark showing how a full tick of the Simulation scales with
+ * the number of threads. For each GravitySolver it times the same scene with
+ * 1 thread (the serial path) and then with more, and reports the speedup over
+ * the serial path. The speedup is limited by the passes that are still serial,
+ * mostly the collision broad phase and building the Barnes-Hut tree.
+ *
+ * Run it with "gradle parallelBenchmark". Optional arguments are the thread
+ * counts to try; the default is powers of two up to the number of processors.
+ *
+ * @author Ryan Kenney
+ */
+public class ParallelBenchmark {
+
+    // Attributes
+    private final static int WARMUP_TICKS = 50;
+    private final static int TICKS = 100;
+
+    // Methods
+    /**
+     * Run the benchmark
+     *
+     * @param args The thread counts
+     */
+    public static void main(String[] args) {
+	int[] threads;
+	if (args.length > 0) {
+	    threads = new int[args.length];
+	    for (int i = 0; i < args.length; i++) {
+		threads[i] = Integer.parseInt(args[i]);
+	    }
+	} else {
+	    int processors = Runtime.getRuntime().availableProcessors();
+	    int count = 1;
+	    while ((1 << count) <= processors) {
+		count++;
+	    }
+	    threads = new int[count];
+	    for (int i = 0; i < count; i++) {
+		threads[i] = 1 << i;
+	    }
+	}
+
+	System.out.printf("%d processors available%n", Runtime.getRuntime().availableProcessors());
+	System.out.printf("%20s %8s %8s %12s %10s%n", "solver", "n", "threads", "ms/tick", "speedup");
+	time(new BruteForceGravity(), 4000, threads);
+	time(new BarnesHutGravity(), 50000, threads);
+	System.exit(0);
+    }
+
+    /**
+     * Time <i>n</i> Particles with <i>solver</i> at each thread count
+     *
+     * @param solver The GravitySolver to use
+     * @param n The number of Particles
+     * @param threads The thread counts
+     */
+    private static void time(GravitySolver solver, int n, int[] threads) {
+	double serial = 0;
+	for (int t : threads) {
+	    Simulation simulation = Scenes.simulation(n, solver);
+	    simulation.setThreadCount(t);
+
+	    for (int i = 0; i < WARMUP_TICKS; i++) {
+		simulation.step();
+	    }
+	    long start = System.nanoTime();
+	    for (int i = 0; i < TICKS; i++) {
+		simulation.step();
+	    }
+	    double ms = (System.nanoTime() - start) / 1e6 / TICKS;
+	    if (t == threads[0]) {
+		serial = ms;
+	    }
+	    simulation.setThreadCount(1);
+
+	    System.out.printf("%20s %8d %8d %12.3f %10.2f%n", solver.getClass().getSimpleName(),
+		    n, t, ms, serial / ms);
+	}
+    }
+}
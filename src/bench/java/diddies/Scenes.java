@@ -0,0 +1,94 @@
+package diddies;
+
+import java.util.Random;
+
+/**
+ * The fixed-seed workloads the benchmarks run on, both the standalone ones
+ * here and the JMH ones, which are compiled against this source set. A scene
+ * is the same for a given seed and size on every run and every commit, so
+ * results can be compared across commits.
+ *
+ * @author Ryan Kenney
+ */
+final class Scenes {
+
+    // Attributes
+    final static long SEED = 42;
+    final static int WIDTH = 800;
+    final static int HEIGHT = 600;
+
+    // Constructors
+    /**
+     * Scenes only has static methods
+     */
+    private Scenes() {
+    }
+
+    // Methods
+    /**
+     * Create the GravitySolver named by a benchmark parameter
+     *
+     * @param name brute, barnes-hut or short-range
+     * @return The GravitySolver
+     */
+    static GravitySolver solver(String name) {
+	switch (name) {
+	    case "brute":
+		return new BruteForceGravity();
+	    case "barnes-hut":
+		return new BarnesHutGravity();
+	    case "short-range":
+		return new ShortRangeGravity();
+	    default:
+		throw new IllegalArgumentException("unknown solver " + name);
+	}
+    }
+
+    /**
+     * Fill a ParticleStore with <i>n</i> random Particles
+     *
+     * @param n The number of Particles
+     * @return The ParticleStore
+     */
+    static ParticleStore store(int n) {
+	ParticleStore particles = new ParticleStore(n);
+	Random random = new Random(SEED);
+	for (int i = 0; i < n; i++) {
+	    double x = random.nextDouble() * WIDTH, y = random.nextDouble() * HEIGHT;
+	    int mass = 1 + random.nextInt(100);
+	    particles.add(x, y, random.nextDouble() - 0.5, random.nextDouble() - 0.5, mass, 2);
+	}
+	return particles;
+    }
+
+    /**
+     * Fill a ParticleStore with <i>n</i> random Particles at rest, of
+     * diameters from 2 to 10
+     *
+     * @param n The number of Particles
+     * @return The ParticleStore
+     */
+    static ParticleStore resting(int n) {
+	ParticleStore particles = new ParticleStore(n);
+	Random random = new Random(SEED);
+	for (int i = 0; i < n; i++) {
+	    particles.add(random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT, 0, 0,
+		    1 + random.nextInt(100), 2 * (1 + random.nextInt(5)));
+	}
+	return particles;
+    }
+
+    /**
+     * Create a Simulation of <i>n</i> random Particles
+     *
+     * @param n The number of Particles
+     * @param solver The GravitySolver to use
+     * @return The Simulation
+     */
+    static Simulation simulation(int n, GravitySolver solver) {
+	Simulation simulation = new Simulation(new FixedBounds(WIDTH, HEIGHT), Integer.MAX_VALUE);
+	simulation.setGravitySolver(solver);
+	simulation.addParticles(store(n));
+	return simulation;
+    }
+}
@@ -0,0 +1,81 @@
+package diddies;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the collision broad phase on its own: rebuilding the SpatialGrid and
+ * visiting every candidate pair with the exact overlap test. Nothing is moved,
+ * so every call sees the same scene.
+ *
+ * @author Ryan Kenney
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionKernelBenchmark {
+
+    // Attributes
+    @Param({"1000", "10000", "100000"})
+    public int n;
+    private ParticleStore particles;
+    private SpatialGrid grid;
+    private SpatialGrid.PairVisitor count;
+    private int overlapping;
+
+    // Methods
+    /**
+     * Build the scene
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+	particles = Scenes.store(n);
+	grid = new SpatialGrid();
+	count = new SpatialGrid.PairVisitor() {
+	    @Override
+	    public void visit(int i, int j) {
+		if (particles.overlaps(i, j)) {
+		    overlapping++;
+		}
+	    }
+	};
+    }
+
+    /**
+     * Find every overlapping pair
+     *
+     * @return The number of overlapping pairs
+     */
+    @Benchmark
+    public int broadPhase() {
+	overlapping = 0;
+	grid.rebuild(particles, Scenes.WIDTH, Scenes.HEIGHT);
+	grid.forEachCandidatePair(count);
+	return overlapping;
+    }
+
+    /**
+     * Rebuild the grid without visiting any pairs
+     *
+     * @return The grid
+     */
+    @Benchmark
+    public SpatialGrid rebuild() {
+	grid.rebuild(particles, Scenes.WIDTH, Scenes.HEIGHT);
+	return grid;
+    }
+}
@@ -0,0 +1,72 @@
+package diddies;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times one GravitySolver pass on its own, without moving, bouncing or
+ * colliding the Particles. The velocities are reset before each call, so every
+ * call sees the same positions.
+ *
+ * @author Ryan Kenney
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GravityKernelBenchmark {
+
+    // Attributes
+    @Param({"1000", "10000"})
+    public int n;
+    @Param({"brute", "barnes-hut", "short-range"})
+    public String solver;
+    private GravitySolver gravity;
+    private ParticleStore initial;
+    private ParticleStore particles;
+    private BlockRunner runner;
+
+    // Methods
+    /**
+     * Build the scene
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+	gravity = Scenes.solver(solver);
+	initial = Scenes.store(n);
+	particles = new ParticleStore(n);
+	runner = new BlockRunner(1);
+    }
+
+    /**
+     * Put the Particles back where they started
+     */
+    @Setup(Level.Invocation)
+    public void reset() {
+	particles.copyFrom(initial);
+    }
+
+    /**
+     * Calculate gravity once
+     *
+     * @return The store, so the work can not be optimized away
+     */
+    @Benchmark
+    public ParticleStore apply() {
+	gravity.apply(particles, Simulation.GRAVITATIONAL_CONSTANT, runner);
+	return particles;
+    }
+}
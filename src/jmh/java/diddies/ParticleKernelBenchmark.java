@@ -0,0 +1,107 @@
+package diddies;
+
+import java.awt.geom.Point2D;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the small per-Particle operations: the circle tests, the center of
+ * mass, and the Velocity arithmetic. Run with "-prof gc" (the jmh task does by
+ * default) to see which ones allocate.
+ *
+ * The Particles are read from non-final fields, so the JIT can not fold the
+ * results into constants.
+ *
+ * @author Ryan Kenney
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParticleKernelBenchmark {
+
+    // Attributes
+    private Particle p1;
+    private Particle p2;
+    private Point2D center;
+    private Velocity v1;
+    private Velocity v2;
+
+    // Methods
+    /**
+     * Create the Particles and Velocities
+     */
+    @Setup
+    public void setUp() {
+	Random random = new Random(Scenes.SEED);
+	p1 = new Particle(new Point2D.Double(random.nextDouble() * 10, random.nextDouble() * 10), 50, 10);
+	p2 = new Particle(new Point2D.Double(random.nextDouble() * 10, random.nextDouble() * 10), 20, 8);
+	center = new Point2D.Double();
+	v1 = new Velocity(random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+	v2 = new Velocity(random.nextDouble() - 0.5, random.nextDouble() - 0.5);
+    }
+
+    /**
+     * The allocating center of mass
+     *
+     * @return The center of mass
+     */
+    @Benchmark
+    public Point2D centerMass() {
+	return p1.getCenterMass();
+    }
+
+    /**
+     * The center of mass, written into a reused Point2D
+     *
+     * @return The center of mass
+     */
+    @Benchmark
+    public Point2D centerMassInto() {
+	return p1.getCenterMass(center);
+    }
+
+    /**
+     * The Particle overlap test
+     *
+     * @return True if the Particles overlap
+     */
+    @Benchmark
+    public boolean intersects() {
+	return p1.intersects(p2);
+    }
+
+    /**
+     * Add one Velocity to another, then undo it
+     *
+     * @return The Velocity
+     */
+    @Benchmark
+    public Velocity velocityApply() {
+	v1.applyVelocity(v2);
+	v1.add(-v2.getX(), -v2.getY());
+	return v1;
+    }
+
+    /**
+     * The allocating opposite of a Velocity
+     *
+     * @return The opposite Velocity
+     */
+    @Benchmark
+    public Velocity velocityOpposite() {
+	return v1.getOpposite();
+    }
+}
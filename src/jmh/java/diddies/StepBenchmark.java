@@ -0,0 +1,70 @@
+package diddies;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times one full Simulation step at several Particle counts. The scene is
+ * rebuilt before each iteration, so every iteration starts from the same state
+ * instead of one that has been merging and spreading out for a while.
+ *
+ * Brute force gravity at 100k Particles takes tens of seconds a step, so the
+ * default only runs Barnes-Hut. Add "-p solver=brute,barnes-hut" to compare.
+ *
+ * @author Ryan Kenney
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepBenchmark {
+
+    // Attributes
+    @Param({"10", "1000", "10000", "100000"})
+    public int n;
+    @Param({"barnes-hut"})
+    public String solver;
+    @Param({"1"})
+    public int threads;
+    private Simulation simulation;
+
+    // Methods
+    /**
+     * Build the scene
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+	simulation = Scenes.simulation(n, Scenes.solver(solver));
+	simulation.setThreadCount(threads);
+    }
+
+    /**
+     * Stop the Simulation's threads
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+	simulation.shutdown();
+    }
+
+    /**
+     * Advance the Simulation by one tick
+     */
+    @Benchmark
+    public void step() {
+	simulation.step();
+    }
+}
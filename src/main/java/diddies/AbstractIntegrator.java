@@ -0,0 +1,112 @@
+package diddies;
+
+/**
+ * The drift and kick passes every Integrator is built from. Both are split into
+ * blocks with the BlockRunner, and the tasks and the acceleration buffers are
+ * reused from one step to the next, so a step does not allocate once the
+ * buffers have grown to fit.
+ *
+ * @author Ryan Kenney
+ */
+abstract class AbstractIntegrator implements Integrator {
+
+    // Attributes
+    // Scratch space, reused between steps
+    protected double[] accelX = new double[0];
+    protected double[] accelY = new double[0];
+    // The current step, for the blocks
+    private ParticleStore particles;
+    private BlockRunner runner;
+    private double h;
+    private final BlockRunner.Block drift;
+    private final BlockRunner.Block kick;
+
+    // Constructors
+    /**
+     * Create the blocks
+     */
+    protected AbstractIntegrator() {
+	drift = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		final double[] x = particles.x, y = particles.y;
+		final double[] vx = particles.vx, vy = particles.vy;
+		for (int i = start; i < end; i++) {
+		    x[i] += vx[i] * h;
+		    y[i] += vy[i] * h;
+		}
+	    }
+	};
+	kick = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		for (int i = start; i < end; i++) {
+		    particles.addVelocity(i, accelX[i] * h, accelY[i] * h);
+		}
+	    }
+	};
+    }
+
+    // Methods
+    /**
+     * Work out the acceleration of every Particle into accelX and accelY
+     *
+     * @param forces The forces to use
+     */
+    protected void accelerate(Forces forces) {
+	forces.accelerate(particles, accelX, accelY);
+    }
+
+    /**
+     * Get ready to step <i>particles</i>, growing the buffers to fit
+     *
+     * @param particles The Particles to move
+     * @param runner The BlockRunner to split the work with
+     */
+    protected void begin(ParticleStore particles, BlockRunner runner) {
+	int n = particles.size();
+	if (accelX.length < n) {
+	    int capacity = Math.max(n, accelX.length * 2);
+	    accelX = new double[capacity];
+	    accelY = new double[capacity];
+	}
+	this.particles = particles;
+	this.runner = runner;
+    }
+
+    /**
+     * Nothing is kept between steps, so there is nothing to forget
+     */
+    @Override
+    public void invalidate() {
+    }
+
+    /**
+     * Move every Particle by its velocity for <i>h</i>
+     *
+     * @param h The time to move for
+     */
+    protected void drift(double h) {
+	this.h = h;
+	runner.run(particles.size(), drift);
+    }
+
+    /**
+     * Let go of the Particles once the step is done
+     */
+    protected void end() {
+	particles = null;
+	runner = null;
+    }
+
+    /**
+     * Add the acceleration in accelX and accelY to every velocity for
+     * <i>h</i>
+     *
+     * @param h The time to accelerate for
+     */
+    protected void kick(double h) {
+	this.h = h;
+	runner.run(particles.size(), kick);
+    }
+}
@@ -0,0 +1,285 @@
+package diddies;
+
+import java.awt.AWTException;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ActiveCanvas draws a Scene on a thread of its own, straight into a
+ * BufferStrategy, rather than asking Swing to repaint and waiting for the
+ * event dispatch thread to get around to it. Each frame is drawn into the back
+ * buffer and shown by flipping pages when the graphics card can, or by a
+ * single copy when it can not, so the frame is never seen half drawn.
+ *
+ * The frames are paced to a cap, by default the refresh rate of the display
+ * (or 60 if it is not known) so that no frame is drawn that could never be
+ * seen. The simplespace.fps system property sets a different cap, and 0 draws
+ * frames as fast as they can be drawn. A frame that runs late does not make
+ * the next one early.
+ *
+ * The metrics are written only by the canvas's thread and can be read from
+ * any thread. The canvas is also the Bounds of whatever it draws, since its
+ * size is the area that is seen.
+ *
+ * @author Ryan Kenney
+ */
+public class ActiveCanvas extends Canvas implements Bounds {
+
+    // Attributes
+    private final static long serialVersionUID = 1L;
+    public final static String FPS_PROPERTY = "simplespace.fps";
+    private final static int DEFAULT_FPS = 60;
+    private final static long NANOS_PER_SECOND = 1000000000L;
+    private final static long IDLE_NANOS = 10000000L;
+    // Settings
+    private final Scene scene;
+    private volatile int fps;
+    private volatile int refreshRate = DEFAULT_FPS;
+    private final Thread thread;
+    private volatile boolean running;
+    private BufferStrategy strategy;
+    // Metrics
+    private volatile long frames;
+    private volatile long lastFrameNanos;
+    private volatile long maxFrameNanos;
+    private volatile double framesPerSecond;
+
+    // Constructors
+    /**
+     * Create an ActiveCanvas that draws <i>scene</i>. The cap comes from the
+     * simplespace.fps system property, and is the refresh rate of the display
+     * if it is not set. Nothing is drawn until start() is called.
+     *
+     * @param scene What to draw each frame
+     */
+    public ActiveCanvas(Scene scene) {
+	this(scene, Integer.getInteger(FPS_PROPERTY, -1));
+    }
+
+    /**
+     * Create an ActiveCanvas that draws <i>scene</i> at most <i>fps</i> times
+     * a second. Nothing is drawn until start() is called.
+     *
+     * @param scene What to draw each frame
+     * @param fps The most frames per second, 0 for no cap, or -1 for the
+     * refresh rate of the display
+     */
+    public ActiveCanvas(Scene scene, int fps) {
+	super();
+	this.scene = scene;
+	setFramesPerSecondCap(fps);
+	setIgnoreRepaint(true);
+	thread = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		loop();
+	    }
+	}, "render");
+	thread.setDaemon(true);
+    }
+
+    // Methods
+    /**
+     * Make a BufferStrategy with two buffers, flipping pages if the graphics
+     * card can, and look up the refresh rate of the display the canvas is on
+     */
+    private void createStrategy() {
+	GraphicsConfiguration configuration = getGraphicsConfiguration();
+	if (configuration != null) {
+	    DisplayMode mode = configuration.getDevice().getDisplayMode();
+	    if (mode != null && mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN) {
+		refreshRate = mode.getRefreshRate();
+	    }
+	}
+
+	try {
+	    createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true),
+		    BufferCapabilities.FlipContents.UNDEFINED));
+	} catch (AWTException e) {
+	    // No page flipping here, let AWT pick the best it has
+	    createBufferStrategy(2);
+	}
+	strategy = getBufferStrategy();
+    }
+
+    /**
+     * Draw one frame into the back buffer and show it, drawing it again if
+     * the buffers were lost along the way
+     */
+    private void drawFrame() {
+	do {
+	    do {
+		Graphics g = strategy.getDrawGraphics();
+		try {
+		    scene.draw((Graphics2D) g, getWidth(), getHeight());
+		} finally {
+		    g.dispose();
+		}
+	    } while (strategy.contentsRestored());
+	    strategy.show();
+	} while (strategy.contentsLost());
+	Toolkit.getDefaultToolkit().sync();
+    }
+
+    /**
+     * Get the number of frames drawn so far
+     *
+     * @return The number of frames
+     */
+    public long getFrames() {
+	return frames;
+    }
+
+    /**
+     * Get the number of frames drawn in the last full second
+     *
+     * @return The achieved frames per second
+     */
+    public double getFramesPerSecond() {
+	return framesPerSecond;
+    }
+
+    /**
+     * Get the most frames drawn per second
+     *
+     * @return The cap, 0 if there is none
+     */
+    public int getFramesPerSecondCap() {
+	int cap = fps;
+	return (cap == -1) ? refreshRate : cap;
+    }
+
+    /**
+     * Get how long the most recent frame took to draw and show
+     *
+     * @return The duration, in nanoseconds
+     */
+    public long getLastFrameNanos() {
+	return lastFrameNanos;
+    }
+
+    /**
+     * Get how long the slowest frame so far took to draw and show
+     *
+     * @return The duration, in nanoseconds
+     */
+    public long getMaxFrameNanos() {
+	return maxFrameNanos;
+    }
+
+    /**
+     * Draw frames until stop() is called
+     */
+    private void loop() {
+	long next = System.nanoTime();
+	long windowStart = next;
+	long windowFrames = 0;
+
+	while (running) {
+	    // Wait for the window to show up, or to come back
+	    if (!isDisplayable() || getWidth() <= 0 || getHeight() <= 0) {
+		strategy = null;
+		LockSupport.parkNanos(IDLE_NANOS);
+		next = System.nanoTime();
+		continue;
+	    }
+
+	    long start = System.nanoTime();
+	    try {
+		if (strategy == null) {
+		    createStrategy();
+		}
+		drawFrame();
+	    } catch (IllegalStateException e) {
+		// The canvas went away in the middle of the frame
+		strategy = null;
+		continue;
+	    }
+	    long now = System.nanoTime();
+	    long duration = now - start;
+
+	    lastFrameNanos = duration;
+	    if (duration > maxFrameNanos) {
+		maxFrameNanos = duration;
+	    }
+	    frames++;
+	    windowFrames++;
+	    if (now - windowStart >= NANOS_PER_SECOND) {
+		framesPerSecond = windowFrames * (double) NANOS_PER_SECOND / (now - windowStart);
+		windowStart = now;
+		windowFrames = 0;
+	    }
+
+	    // Wait until the next frame is due, without catching up on late ones
+	    int cap = getFramesPerSecondCap();
+	    if (cap > 0) {
+		next = Math.max(next + NANOS_PER_SECOND / cap, now);
+		long remaining = next - System.nanoTime();
+		while (remaining > 0 && running) {
+		    LockSupport.parkNanos(remaining);
+		    remaining = next - System.nanoTime();
+		}
+	    } else {
+		next = now;
+		Thread.yield();
+	    }
+	}
+    }
+
+    /**
+     * Change the most frames drawn per second. This takes effect after the
+     * next frame.
+     *
+     * @param fps The most frames per second, 0 for no cap, or -1 for the
+     * refresh rate of the display
+     */
+    public final void setFramesPerSecondCap(int fps) {
+	if (fps < -1) {
+	    throw new IllegalArgumentException("fps must be at least -1: " + fps);
+	}
+	this.fps = fps;
+    }
+
+    /**
+     * Start drawing frames
+     */
+    public void start() {
+	running = true;
+	thread.start();
+    }
+
+    /**
+     * Stop drawing frames and wait for the frame in progress, if any, to
+     * finish
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+	running = false;
+	LockSupport.unpark(thread);
+	thread.join();
+    }
+
+    /**
+     * A Scene is whatever an ActiveCanvas draws each frame
+     */
+    public interface Scene {
+
+	/**
+	 * Draw the whole frame. This is called on the canvas's thread.
+	 *
+	 * @param g The Graphics of the back buffer
+	 * @param width The width of the canvas
+	 * @param height The height of the canvas
+	 */
+	public void draw(Graphics2D g, int width, int height);
+    }
+}
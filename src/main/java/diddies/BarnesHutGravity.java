@@ -0,0 +1,437 @@
+package diddies;
+
+import java.util.Arrays;
+
+/**
+ * A GravitySolver that approximates the attraction between Particles with a
+ * Barnes-Hut quadtree. Each tick the centers of mass are sorted into a tree of
+ * quadrants, and every quadrant remembers the total mass and center of mass of
+ * the Particles inside of it. A Particle that is far enough away from a
+ * quadrant treats the whole quadrant as one big Particle, which brings the cost
+ * of a tick down to O(n log n).
+ *
+ * What counts as "far enough" is decided by the opening angle theta. A quadrant
+ * of width s at a distance d is used as a whole when s/d is less than theta.
+ * A theta of 0 opens every quadrant and degenerates into the exact sum, while
+ * larger values are faster and less accurate. 0.5 is the usual compromise.
+ * A quadrant that holds the Particle itself is always opened, whatever theta
+ * is, since its center of mass includes the Particle's own mass.
+ *
+ * The tree is kept in flat arrays indexed by node number rather than as node
+ * objects, and the arrays are reused from one tick to the next, so once they
+ * have grown to fit the simulation a tick does not allocate anything.
+ *
+ * Particles with the exact same center of mass can not be split into separate
+ * quadrants, and neither can any that are still together at the deepest
+ * level, so a leaf holds a chain of Particles rather than just one. They
+ * attract everything else as usual and exert no force on each other; merging
+ * them is up to MergeStage.
+ *
+ * Building the tree is serial. Once it is built it is only read, so the walks
+ * for each Particle are split into blocks with the BlockRunner, each block with
+ * its own stack. Every Particle's sum is worked out the same way regardless of
+ * which block it lands in, so the result does not depend on the threads.
+ *
+ * @author Ryan Kenney
+ */
+public class BarnesHutGravity implements GravitySolver {
+
+    // Attributes
+    private final static double DEFAULT_THETA = 0.5;
+    private final static int MAX_DEPTH = 64;
+    private final static int EMPTY = -1;
+    private final static int ROOT = 0;
+    private double theta;
+    private double thetaSq;
+    // The tree, by attribute. The children of node k are children[4k..4k+3].
+    private double[] nodeX = new double[0];
+    private double[] nodeY = new double[0];
+    private double[] nodeSize = new double[0];
+    private double[] nodeMass = new double[0];
+    private double[] comX = new double[0];
+    private double[] comY = new double[0];
+    private int[] body = new int[0];
+    // The rest of each leaf's chain of Particles, by Particle
+    private int[] next = new int[0];
+    private int[] children = new int[0];
+    private int nodeCount;
+    // Walking the tree, one stack per block
+    private int[][] stacks = new int[0][];
+    private ParticleStore particles;
+    private double gravitationalConstant;
+    private double[] outX;
+    private double[] outY;
+    private final BlockRunner.Block walk;
+    // Scratch space for apply(), reused between ticks
+    private double[] accelX = new double[0];
+    private double[] accelY = new double[0];
+
+    // Constructors
+    /**
+     * Create a BarnesHutGravity with the default opening angle of 0.5
+     */
+    public BarnesHutGravity() {
+	this(DEFAULT_THETA);
+    }
+
+    /**
+     * Create a BarnesHutGravity with an opening angle of <i>theta</i>
+     *
+     * @param theta The opening angle, which must not be negative
+     */
+    public BarnesHutGravity(double theta) {
+	setTheta(theta);
+	walk = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		for (int i = start; i < end; i++) {
+		    if (particles.isMarked(i)) {
+			outX[i] = 0;
+			outY[i] = 0;
+		    } else {
+			accumulate(i, stacks[block]);
+		    }
+		}
+	    }
+	};
+    }
+
+    // Methods
+    /**
+     * Work out the acceleration of Particle <i>p</i> from the whole tree.
+     *
+     * @param p The index of the Particle being attracted
+     * @param stack The stack to walk the tree with
+     */
+    private void accumulate(int p, int[] stack) {
+	double x = particles.getCenterX(p);
+	double y = particles.getCenterY(p);
+	double sumX = 0, sumY = 0;
+
+	int top = 0;
+	stack[top++] = ROOT;
+	while (top > 0) {
+	    int node = stack[--top];
+	    if (nodeMass[node] == 0) {
+		continue;
+	    }
+
+	    if (body[node] != EMPTY) {
+		// A leaf, add up its Particles one by one
+		for (int q = body[node]; q != EMPTY; q = next[q]) {
+		    if (q == p) {
+			continue;
+		    }
+		    double dx = particles.getCenterX(q) - x;
+		    double dy = particles.getCenterY(q) - y;
+		    double distanceSq = dx * dx + dy * dy;
+		    if (distanceSq == 0) {
+			continue;
+		    }
+		    double scale = particles.getMass(q) / (distanceSq * Math.sqrt(distanceSq));
+		    sumX += dx * scale;
+		    sumY += dy * scale;
+		}
+		continue;
+	    }
+
+	    double dx = comX[node] - x;
+	    double dy = comY[node] - y;
+	    double distanceSq = dx * dx + dy * dy;
+	    double size = nodeSize[node];
+	    boolean inside = x >= nodeX[node] && x <= nodeX[node] + size
+		    && y >= nodeY[node] && y <= nodeY[node] + size;
+	    if (!inside && (size * size) < thetaSq * distanceSq) {
+		// Far enough away, treat it as a whole
+		if (distanceSq == 0) {
+		    continue;
+		}
+		double scale = nodeMass[node] / (distanceSq * Math.sqrt(distanceSq));
+		sumX += dx * scale;
+		sumY += dy * scale;
+	    } else {
+		for (int k = 4 * node; k < 4 * node + 4; k++) {
+		    if (children[k] != EMPTY) {
+			stack[top++] = children[k];
+		    }
+		}
+	    }
+	}
+
+	outX[p] = gravitationalConstant * sumX;
+	outY[p] = gravitationalConstant * sumY;
+    }
+
+    /**
+     * Build the quadtree for <i>particles</i> and work out the approximate
+     * acceleration of each of them from every other Particle.
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G
+     * @param runner The BlockRunner to split the walks with
+     * @param accelX Where to write the X components
+     * @param accelY Where to write the Y components
+     */
+    @Override
+    public void accelerate(ParticleStore particles, double gravitationalConstant, BlockRunner runner,
+	    double[] accelX, double[] accelY) {
+	int n = particles.size();
+	if (n < 2) {
+	    Arrays.fill(accelX, 0, n, 0);
+	    Arrays.fill(accelY, 0, n, 0);
+	    return;
+	}
+	build(particles);
+
+	// The walk leaves at most three siblings behind per level
+	if (stacks.length != runner.getMaxBlocks()) {
+	    stacks = new int[runner.getMaxBlocks()][4 * (MAX_DEPTH + 2)];
+	}
+
+	// Walk the tree once per Particle
+	this.particles = particles;
+	this.gravitationalConstant = gravitationalConstant;
+	outX = accelX;
+	outY = accelY;
+	runner.run(n, walk);
+	this.particles = null;
+	outX = null;
+	outY = null;
+    }
+
+    /**
+     * Build the quadtree for <i>particles</i> and apply the approximate
+     * attraction of every other Particle to each of them.
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G
+     * @param runner The BlockRunner to split the walks with
+     */
+    @Override
+    public void apply(ParticleStore particles, double gravitationalConstant, BlockRunner runner) {
+	int n = particles.size();
+	if (accelX.length < n) {
+	    accelX = new double[Math.max(n, accelX.length * 2)];
+	    accelY = new double[accelX.length];
+	}
+	accelerate(particles, gravitationalConstant, runner, accelX, accelY);
+	for (int i = 0; i < n; i++) {
+	    if (!particles.isMarked(i)) {
+		particles.addVelocity(i, accelX[i], accelY[i]);
+	    }
+	}
+    }
+
+    /**
+     * Sort <i>particles</i> into a fresh quadtree and total up the mass of each
+     * quadrant.
+     *
+     * @param particles The Particles to sort
+     */
+    private void build(ParticleStore particles) {
+	int n = particles.size();
+
+	// Find a square that holds every center of mass
+	double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+	double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+	for (int i = 0; i < n; i++) {
+	    minX = Math.min(minX, particles.getCenterX(i));
+	    minY = Math.min(minY, particles.getCenterY(i));
+	    maxX = Math.max(maxX, particles.getCenterX(i));
+	    maxY = Math.max(maxY, particles.getCenterY(i));
+	}
+	double size = Math.max(Math.max(maxX - minX, maxY - minY), 1);
+
+	if (next.length < n) {
+	    next = new int[Math.max(n, next.length * 2)];
+	}
+	nodeCount = 0;
+	createNode(minX, minY, size);
+	for (int i = 0; i < n; i++) {
+	    if (!particles.isMarked(i)) {
+		insert(particles, i, particles.getCenterX(i), particles.getCenterY(i));
+	    }
+	}
+
+	// Children always come after their parents, so walking backwards
+	// totals every quadrant after everything beneath it
+	for (int node = nodeCount - 1; node >= 0; node--) {
+	    summarize(particles, node);
+	}
+    }
+
+    /**
+     * Get (creating if necessary) the child of <i>node</i> that holds
+     * (<i>px</i>, <i>py</i>)
+     *
+     * @param node The parent quadrant
+     * @param px The X component of the point
+     * @param py The Y component of the point
+     * @return The child quadrant
+     */
+    private int childFor(int node, double px, double py) {
+	double half = nodeSize[node] / 2;
+	int quadrant = 0;
+	if (px >= nodeX[node] + half) {
+	    quadrant |= 1;
+	}
+	if (py >= nodeY[node] + half) {
+	    quadrant |= 2;
+	}
+	int slot = 4 * node + quadrant;
+	if (children[slot] == EMPTY) {
+	    double x = nodeX[node] + ((quadrant & 1) * half);
+	    double y = nodeY[node] + ((quadrant >> 1) * half);
+	    int child = createNode(x, y, half);
+	    children[slot] = child;
+	}
+	return children[slot];
+    }
+
+    /**
+     * Create an empty quadrant, growing the tree's arrays if needed
+     *
+     * @param x The X component of the top left corner
+     * @param y The Y component of the top left corner
+     * @param size The width (and height) of the quadrant
+     * @return The new quadrant
+     */
+    private int createNode(double x, double y, double size) {
+	if (nodeCount == nodeX.length) {
+	    int capacity = Math.max(64, nodeX.length * 2);
+	    nodeX = Arrays.copyOf(nodeX, capacity);
+	    nodeY = Arrays.copyOf(nodeY, capacity);
+	    nodeSize = Arrays.copyOf(nodeSize, capacity);
+	    nodeMass = Arrays.copyOf(nodeMass, capacity);
+	    comX = Arrays.copyOf(comX, capacity);
+	    comY = Arrays.copyOf(comY, capacity);
+	    body = Arrays.copyOf(body, capacity);
+	    children = Arrays.copyOf(children, 4 * capacity);
+	}
+
+	int node = nodeCount++;
+	nodeX[node] = x;
+	nodeY[node] = y;
+	nodeSize[node] = size;
+	nodeMass[node] = 0;
+	comX[node] = 0;
+	comY[node] = 0;
+	body[node] = EMPTY;
+	Arrays.fill(children, 4 * node, 4 * node + 4, EMPTY);
+	return node;
+    }
+
+    /**
+     * Get the opening angle
+     *
+     * @return The opening angle
+     */
+    public double getTheta() {
+	return theta;
+    }
+
+    /**
+     * Put <i>p</i> into the tree, splitting the leaf it lands in if that leaf
+     * already holds a Particle. Two Particles with the exact same center of
+     * mass can not be split apart, so <i>p</i> joins the leaf's chain instead,
+     * as it does once the tree is MAX_DEPTH deep.
+     *
+     * @param particles The store that holds the Particles
+     * @param p The index of the Particle to insert
+     * @param x The X component of p's center of mass
+     * @param y The Y component of p's center of mass
+     */
+    private void insert(ParticleStore particles, int p, double x, double y) {
+	int node = ROOT;
+	for (int depth = 0;; depth++) {
+	    boolean leaf = children[4 * node] == EMPTY && children[4 * node + 1] == EMPTY
+		    && children[4 * node + 2] == EMPTY && children[4 * node + 3] == EMPTY;
+	    if (leaf && body[node] == EMPTY) {
+		// Empty leaf
+		body[node] = p;
+		next[p] = EMPTY;
+		comX[node] = x;
+		comY[node] = y;
+		return;
+	    }
+
+	    if (leaf) {
+		// Occupied leaf
+		int occupant = body[node];
+		if ((comX[node] == x && comY[node] == y) || depth >= MAX_DEPTH) {
+		    next[p] = occupant;
+		    body[node] = p;
+		    return;
+		}
+
+		// Push the current occupants, which share a center of mass,
+		// down a level
+		body[node] = EMPTY;
+		int child = childFor(node, comX[node], comY[node]);
+		body[child] = occupant;
+		comX[child] = comX[node];
+		comY[child] = comY[node];
+	    }
+
+	    node = childFor(node, x, y);
+	}
+    }
+
+    /**
+     * Set the opening angle
+     *
+     * @param theta The opening angle, which must not be negative
+     */
+    public final void setTheta(double theta) {
+	if (theta < 0 || Double.isNaN(theta)) {
+	    throw new IllegalArgumentException("theta must be non-negative: " + theta);
+	}
+	this.theta = theta;
+	this.thetaSq = theta * theta;
+    }
+
+    /**
+     * Total up the mass and center of mass of <i>node</i>. Its children must
+     * already have been totaled.
+     *
+     * @param particles The store that holds the Particles
+     * @param node The quadrant to total
+     */
+    private void summarize(ParticleStore particles, int node) {
+	int first = body[node];
+	if (first != EMPTY && next[first] == EMPTY) {
+	    nodeMass[node] = particles.getMass(first);
+	    return;
+	}
+	if (first != EMPTY) {
+	    double mass = 0, sumX = 0, sumY = 0;
+	    for (int q = first; q != EMPTY; q = next[q]) {
+		double m = particles.getMass(q);
+		mass += m;
+		sumX += particles.getCenterX(q) * m;
+		sumY += particles.getCenterY(q) * m;
+	    }
+	    nodeMass[node] = mass;
+	    if (mass > 0) {
+		comX[node] = sumX / mass;
+		comY[node] = sumY / mass;
+	    }
+	    return;
+	}
+
+	double mass = 0, sumX = 0, sumY = 0;
+	for (int k = 4 * node; k < 4 * node + 4; k++) {
+	    int child = children[k];
+	    if (child != EMPTY) {
+		mass += nodeMass[child];
+		sumX += comX[child] * nodeMass[child];
+		sumY += comY[child] * nodeMass[child];
+	    }
+	}
+	nodeMass[node] = mass;
+	if (mass > 0) {
+	    comX[node] = sumX / mass;
+	    comY[node] = sumY / mass;
+	}
+    }
+}
@@ -0,0 +1,224 @@
+package diddies;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * BlockRunner splits a loop over the Particles into contiguous blocks and runs
+ * the blocks on a ForkJoinPool. Blocks are always handed out in index order,
+ * and each one knows its block number, so work that keeps a buffer per block
+ * can combine the buffers in block order afterwards and get the same answer
+ * no matter which thread ran which block.
+ *
+ * A BlockRunner with a single thread has no pool and simply runs the loop as
+ * one block on the calling thread, which is exactly the serial path. The tasks
+ * are created once and reused, so running blocks does not allocate.
+ *
+ * Work that has a faster serial path than its per-block one can give slightly
+ * different answers depending on the number of threads. A deterministic
+ * BlockRunner asks such work to take the per-block path even on one thread, so
+ * the answer is the same, bit for bit, for any number of threads.
+ *
+ * @author Ryan Kenney
+ */
+public class BlockRunner {
+
+    // Attributes
+    private final static int BLOCKS_PER_THREAD = 4;
+    private final static int MIN_BLOCK_SIZE = 256;
+    private final int threads;
+    private final boolean deterministic;
+    private final ForkJoinPool pool;
+    private final BlockTask[] tasks;
+    private final RootTask root;
+
+    // Constructors
+    /**
+     * Create a BlockRunner that uses <i>threads</i> threads
+     *
+     * @param threads The number of threads, at least 1
+     */
+    public BlockRunner(int threads) {
+	this(threads, false);
+    }
+
+    /**
+     * Create a BlockRunner that uses <i>threads</i> threads
+     *
+     * @param threads The number of threads, at least 1
+     * @param deterministic True if the work run should give the same answer
+     * for any number of threads
+     */
+    public BlockRunner(int threads, boolean deterministic) {
+	if (threads < 1) {
+	    throw new IllegalArgumentException("threads must be at least 1: " + threads);
+	}
+	this.threads = threads;
+	this.deterministic = deterministic;
+	if (threads == 1) {
+	    pool = null;
+	    tasks = new BlockTask[1];
+	} else {
+	    pool = new ForkJoinPool(threads);
+	    tasks = new BlockTask[threads * BLOCKS_PER_THREAD];
+	}
+	for (int b = 0; b < tasks.length; b++) {
+	    tasks[b] = new BlockTask(b);
+	}
+	root = new RootTask();
+    }
+
+    // Methods
+    /**
+     * Get the most blocks a loop will ever be split into. Per-block buffers
+     * need this many slots.
+     *
+     * @return The maximum number of blocks
+     */
+    public int getMaxBlocks() {
+	return tasks.length;
+    }
+
+    /**
+     * Get the number of threads
+     *
+     * @return The number of threads
+     */
+    public int getThreads() {
+	return threads;
+    }
+
+    /**
+     * Check if the work run should give the same answer for any number of
+     * threads, rather than taking a faster serial path on one
+     *
+     * @return True if it should, false otherwise
+     */
+    public boolean isDeterministic() {
+	return deterministic;
+    }
+
+    /**
+     * Check if this BlockRunner runs anything in parallel
+     *
+     * @return True if there is more than one thread, false otherwise
+     */
+    public boolean isParallel() {
+	return pool != null;
+    }
+
+    /**
+     * Run <i>body</i> over the indices 0 to <i>n</i> - 1 and wait for it to
+     * finish. Small loops are run as a single block on the calling thread,
+     * since they would spend more time being handed out than being run.
+     *
+     * @param n The number of indices
+     * @param body The work to do for each block
+     */
+    public void run(int n, Block body) {
+	int blocks = Math.min(tasks.length, (n + MIN_BLOCK_SIZE - 1) / MIN_BLOCK_SIZE);
+	if (pool == null || blocks <= 1) {
+	    body.run(0, 0, n);
+	    return;
+	}
+
+	for (int b = 0; b < blocks; b++) {
+	    tasks[b].reinitialize();
+	    tasks[b].body = body;
+	    tasks[b].start = (int) ((long) n * b / blocks);
+	    tasks[b].end = (int) ((long) n * (b + 1) / blocks);
+	}
+	root.reinitialize();
+	root.blocks = blocks;
+	pool.invoke(root);
+	for (int b = 0; b < blocks; b++) {
+	    tasks[b].body = null;
+	}
+    }
+
+    /**
+     * Stop the threads. The BlockRunner can not run anything in parallel
+     * afterwards.
+     */
+    public void shutdown() {
+	if (pool != null) {
+	    pool.shutdown();
+	}
+    }
+
+    /**
+     * A Block is the work done for one contiguous range of indices.
+     */
+    public interface Block {
+
+	/**
+	 * Do the work for indices <i>start</i> to <i>end</i> - 1
+	 *
+	 * @param block The number of this block, counting from 0 in index order
+	 * @param start The first index
+	 * @param end One past the last index
+	 */
+	public void run(int block, int start, int end);
+    }
+
+    /**
+     * Runs one block
+     */
+    private static class BlockTask extends RecursiveAction {
+
+	// Attributes
+	private final static long serialVersionUID = 1L;
+	private final int block;
+	private Block body;
+	private int start;
+	private int end;
+
+	// Constructors
+	/**
+	 * Create the task for block number <i>block</i>
+	 *
+	 * @param block The block number
+	 */
+	private BlockTask(int block) {
+	    this.block = block;
+	}
+
+	// Methods
+	/**
+	 * Run the block
+	 */
+	@Override
+	protected void compute() {
+	    body.run(block, start, end);
+	}
+    }
+
+    /**
+     * Forks every block and waits for them all
+     */
+    private class RootTask extends RecursiveAction {
+
+	// Attributes
+	private final static long serialVersionUID = 1L;
+	private int blocks;
+
+	// Methods
+	/**
+	 * Run the blocks
+	 */
+	@Override
+	protected void compute() {
+	    for (int b = 1; b < blocks; b++) {
+		tasks[b].fork();
+	    }
+	    tasks[0].invoke();
+	    for (int b = blocks - 1; b >= 1; b--) {
+		if (tasks[b].tryUnfork()) {
+		    tasks[b].invoke();
+		} else {
+		    tasks[b].join();
+		}
+	    }
+	}
+    }
+}
@@ -0,0 +1,26 @@
+package diddies;
+
+/**
+ * Bounds is the box the Particles of a Simulation bounce around in. The walls
+ * are at 0 and at the width and height. Space is the usual Bounds, but the
+ * Simulation only ever needs these two numbers, so it can run without a window
+ * by using FixedBounds instead.
+ *
+ * @author Ryan Kenney
+ */
+public interface Bounds {
+
+    /**
+     * Get the height of the box, in pixels
+     *
+     * @return The height
+     */
+    public int getHeight();
+
+    /**
+     * Get the width of the box, in pixels
+     *
+     * @return The width
+     */
+    public int getWidth();
+}
@@ -0,0 +1,202 @@
+package diddies;
+
+/**
+ * The original gravity calculation. Every pair of Particles is visited once and
+ * the attraction between them is applied to both, so a tick costs O(n^2). It is
+ * exact (as far as doubles go), which makes it the reference that the faster
+ * solvers are measured against.
+ *
+ * When the BlockRunner is parallel, each block instead sums the attraction of
+ * every other Particle on its own range of Particles. That does each pair
+ * twice, but every block only ever writes to its own slice of the acceleration
+ * buffer, so the blocks never contend and the result does not depend on how
+ * they were scheduled. The serial path adds up the same forces in a different
+ * order, so a deterministic BlockRunner takes the parallel path even on one
+ * thread.
+ *
+ * Each block's rows are summed by a ForceKernel. Where ForceKernels can load
+ * the vectorized kernel, it does several pairs at once, which more than makes
+ * up for doing each pair twice, so the parallel path is then taken on one
+ * thread as well. A deterministic BlockRunner always gets the scalar kernel,
+ * since the vectorized one adds up in an order that depends on the processor.
+ *
+ * Particles whose centers coincide exert no force on each other, since the
+ * force between them would be infinite. Merging them is up to MergeStage.
+ *
+ * @author Ryan Kenney
+ */
+public class BruteForceGravity implements GravitySolver {
+
+    // Attributes
+    // Scratch space, reused between ticks
+    private double[] centerX = new double[0];
+    private double[] centerY = new double[0];
+    private double[] accelX = new double[0];
+    private double[] accelY = new double[0];
+    // The kernels that sum the rows
+    private final ForceKernel kernel = ForceKernels.best();
+    private final ForceKernel scalar = ForceKernels.scalar();
+    // The current tick, for the blocks
+    private ParticleStore particles;
+    private ForceKernel rowKernel;
+    private final BlockRunner.Block rows;
+
+    // Constructors
+    /**
+     * Create a BruteForceGravity
+     */
+    public BruteForceGravity() {
+	rows = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		sumRows(block, start, end);
+	    }
+	};
+    }
+
+    // Methods
+    /**
+     * Visit every pair of Particles and work out the acceleration (G*m2)/d^2
+     * of each from the other.
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G
+     * @param runner The BlockRunner to split the work with
+     * @param accelX Where to write the X components
+     * @param accelY Where to write the Y components
+     */
+    @Override
+    public void accelerate(ParticleStore particles, double gravitationalConstant, BlockRunner runner,
+	    double[] accelX, double[] accelY) {
+	int n = particles.size();
+	sum(particles, runner);
+	for (int i = 0; i < n; i++) {
+	    boolean marked = particles.isMarked(i);
+	    accelX[i] = marked ? 0 : gravitationalConstant * this.accelX[i];
+	    accelY[i] = marked ? 0 : gravitationalConstant * this.accelY[i];
+	}
+    }
+
+    /**
+     * Visit every pair of Particles and apply (G*m1*m2)/d^2 to both of them.
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G
+     * @param runner The BlockRunner to split the work with
+     */
+    @Override
+    public void apply(ParticleStore particles, double gravitationalConstant, BlockRunner runner) {
+	int n = particles.size();
+	sum(particles, runner);
+
+	// Apply the attraction
+	for (int i = 0; i < n; i++) {
+	    particles.addVelocity(i, gravitationalConstant * accelX[i], gravitationalConstant * accelY[i]);
+	}
+    }
+
+    /**
+     * Make sure the scratch arrays can hold <i>n</i> Particles
+     *
+     * @param n The number of Particles
+     */
+    private void ensureCapacity(int n) {
+	if (centerX.length < n) {
+	    int capacity = Math.max(n, centerX.length * 2);
+	    centerX = new double[capacity];
+	    centerY = new double[capacity];
+	    accelX = new double[capacity];
+	    accelY = new double[capacity];
+	}
+    }
+
+    /**
+     * Sum the attraction on every Particle, without G, into the scratch
+     * acceleration arrays
+     *
+     * @param particles The Particles to attract to each other
+     * @param runner The BlockRunner to split the work with
+     */
+    private void sum(ParticleStore particles, BlockRunner runner) {
+	int n = particles.size();
+	ensureCapacity(n);
+
+	for (int i = 0; i < n; i++) {
+	    centerX[i] = particles.getCenterX(i);
+	    centerY[i] = particles.getCenterY(i);
+	    accelX[i] = 0;
+	    accelY[i] = 0;
+	}
+
+	if (runner.isParallel() || runner.isDeterministic() || kernel.isVectorized()) {
+	    this.particles = particles;
+	    rowKernel = runner.isDeterministic() ? scalar : kernel;
+	    runner.run(n, rows);
+	    this.particles = null;
+	    rowKernel = null;
+	} else {
+	    sumPairs(particles);
+	}
+    }
+
+    /**
+     * Visit every pair once and accumulate the attraction on both Particles.
+     * This is the serial path.
+     *
+     * @param particles The store that holds the Particles
+     */
+    private void sumPairs(ParticleStore particles) {
+	// Some shortcuts
+	final int n = particles.size();
+	final double[] cx = centerX, cy = centerY, ax = accelX, ay = accelY;
+	final double[] mass = particles.mass;
+
+	// remember (G*m1*m2)/d^2, so p1 accelerates by (G*m2)/d^2 toward p2
+	// and p2 by (G*m1)/d^2 toward p1
+	for (int i = 0; i < n; i++) {
+	    if (particles.isMarked(i)) {
+		continue;
+	    }
+	    double x1 = cx[i], y1 = cy[i], m1 = mass[i];
+	    double sumX = 0, sumY = 0;
+	    for (int j = i + 1; j < n; j++) {
+		double dx = cx[j] - x1;
+		double dy = cy[j] - y1;
+		double distanceSq = dx * dx + dy * dy;
+
+		// The next calculation divides by the distance between p1
+		// and p2, which could be 0
+		if (distanceSq == 0) {
+		    continue;
+		}
+
+		double scale = 1 / (distanceSq * Math.sqrt(distanceSq));
+		sumX += dx * scale * mass[j];
+		sumY += dy * scale * mass[j];
+		ax[j] -= dx * scale * m1;
+		ay[j] -= dy * scale * m1;
+	    }
+	    ax[i] += sumX;
+	    ay[i] += sumY;
+	}
+    }
+
+    /**
+     * Sum the attraction of every other Particle on Particles <i>start</i>
+     * to <i>end</i> - 1 with the ForceKernel. This is the parallel path, run
+     * once per block.
+     *
+     * @param block The block number
+     * @param start The first Particle
+     * @param end One past the last Particle
+     */
+    private void sumRows(int block, int start, int end) {
+	rowKernel.sumRows(centerX, centerY, particles.mass, particles.size(), start, end, accelX, accelY);
+	for (int i = start; i < end; i++) {
+	    if (particles.isMarked(i)) {
+		accelX[i] = 0;
+		accelY[i] = 0;
+	    }
+	}
+    }
+}
@@ -0,0 +1,351 @@
+package diddies;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Checkpoint is the full state of a Simulation: every Particle, the tick, the
+ * seed it was started from, and the settings that change how it evolves. It
+ * can be saved to and restored from a compact binary file, so a long run can
+ * survive a crash or a restart.
+ *
+ * The file is a fixed header followed by each attribute of every Particle in
+ * turn, all little-endian:
+ *
+ * <pre>
+ * int    magic ("SSCP")
+ * int    version
+ * int    flags (1 = gravity, 2 = continuous collisions)
+ * int    count
+ * long   tick
+ * long   seed
+ * double timestep
+ * double velocity limit
+ * double x[count], y[count], vx[count], vy[count], mass[count]
+ * int    diameter[count]
+ * </pre>
+ *
+ * Laying the attributes out the same way as the ParticleStore means each one
+ * is copied in a single bulk transfer. Writing goes through a FileChannel with
+ * one reused direct buffer, and reading maps the file, so both run at about
+ * the speed of the disk. A file is written next to its destination and moved
+ * into place once it is complete, so a crash while writing leaves the previous
+ * checkpoint intact.
+ *
+ * A Checkpoint is not safe to share between threads; Checkpointer keeps one of
+ * its own.
+ *
+ * @author Ryan Kenney
+ */
+public class Checkpoint {
+
+    // Attributes
+    public final static int VERSION = 1;
+    private final static int MAGIC = 0x53534350;
+    private final static int HEADER_BYTES = 48;
+    private final static int PARTICLE_BYTES = 5 * Double.BYTES + Integer.BYTES;
+    private final static int FLAG_GRAVITY = 1;
+    private final static int FLAG_CONTINUOUS = 2;
+    private final static int BUFFER_BYTES = 1 << 20;
+    // State
+    private final ParticleStore particles = new ParticleStore();
+    private long tick;
+    private long seed;
+    private boolean gravity = true;
+    private boolean continuous;
+    private double timestep = 1;
+    // Scratch
+    private ByteBuffer buffer;
+
+    // Constructors
+    /**
+     * Create an empty Checkpoint, to fill in with Simulation.copyCheckpoint()
+     * or read()
+     */
+    public Checkpoint() {
+    }
+
+    // Methods
+    /**
+     * Write out whatever is in <i>buffer</i>, and empty it
+     *
+     * @param channel The channel to write to
+     * @throws IOException If the channel can not be written
+     */
+    private void drain(FileChannel channel) throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+    /**
+     * Get the Particles
+     *
+     * @return The ParticleStore, which can be changed directly
+     */
+    public ParticleStore getParticles() {
+	return particles;
+    }
+
+    /**
+     * Get the seed the Simulation was started from
+     *
+     * @return The seed
+     */
+    public long getSeed() {
+	return seed;
+    }
+
+    /**
+     * Get the number of ticks that had been run
+     *
+     * @return The tick
+     */
+    public long getTick() {
+	return tick;
+    }
+
+    /**
+     * Get the amount of time each tick advanced the Simulation by
+     *
+     * @return The timestep
+     */
+    public double getTimestep() {
+	return timestep;
+    }
+
+    /**
+     * Map <i>bytes</i> bytes of <i>channel</i> starting at <i>position</i>
+     *
+     * @param channel The channel to map
+     * @param position The first byte
+     * @param bytes The number of bytes
+     * @return The mapped bytes, little-endian
+     * @throws IOException If the bytes can not be mapped
+     */
+    private static ByteBuffer map(FileChannel channel, long position, long bytes) throws IOException {
+	if (bytes > Integer.MAX_VALUE) {
+	    throw new IOException("checkpoint section of " + bytes + " bytes is too large to map");
+	}
+	MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes);
+	return mapped.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Write <i>n</i> values of <i>values</i> to <i>channel</i>
+     *
+     * @param channel The channel to write to
+     * @param values The values to write
+     * @param n The number of values
+     * @throws IOException If the channel can not be written
+     */
+    private void putDoubles(FileChannel channel, double[] values, int n) throws IOException {
+	int i = 0;
+	while (i < n) {
+	    if (buffer.remaining() < Double.BYTES) {
+		drain(channel);
+	    }
+	    int count = Math.min(n - i, buffer.remaining() / Double.BYTES);
+	    buffer.asDoubleBuffer().put(values, i, count);
+	    buffer.position(buffer.position() + count * Double.BYTES);
+	    i += count;
+	}
+    }
+
+    /**
+     * Write <i>n</i> values of <i>values</i> to <i>channel</i>
+     *
+     * @param channel The channel to write to
+     * @param values The values to write
+     * @param n The number of values
+     * @throws IOException If the channel can not be written
+     */
+    private void putInts(FileChannel channel, int[] values, int n) throws IOException {
+	int i = 0;
+	while (i < n) {
+	    if (buffer.remaining() < Integer.BYTES) {
+		drain(channel);
+	    }
+	    int count = Math.min(n - i, buffer.remaining() / Integer.BYTES);
+	    buffer.asIntBuffer().put(values, i, count);
+	    buffer.position(buffer.position() + count * Integer.BYTES);
+	    i += count;
+	}
+    }
+
+    /**
+     * Replace this Checkpoint with the one saved in <i>file</i>
+     *
+     * @param file The file to read
+     * @throws IOException If the file can not be read, or is not a checkpoint
+     * this version understands
+     */
+    public void read(File file) throws IOException {
+	try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+	    long length = channel.size();
+	    if (length < HEADER_BYTES) {
+		throw new IOException(file + ": too short to be a checkpoint");
+	    }
+	    ByteBuffer header = map(channel, 0, HEADER_BYTES);
+	    if (header.getInt() != MAGIC) {
+		throw new IOException(file + ": not a checkpoint");
+	    }
+	    int version = header.getInt();
+	    if (version < 1 || version > VERSION) {
+		throw new IOException(file + ": checkpoint version " + version + " is not supported");
+	    }
+	    int flags = header.getInt();
+	    int n = header.getInt();
+	    if (n < 0 || length != HEADER_BYTES + (long) n * PARTICLE_BYTES) {
+		throw new IOException(file + ": checkpoint of " + n + " particles is " + length
+			+ " bytes, expected " + (HEADER_BYTES + (long) n * PARTICLE_BYTES));
+	    }
+	    long newTick = header.getLong();
+	    long newSeed = header.getLong();
+	    double newTimestep = header.getDouble();
+	    double newLimit = header.getDouble();
+	    if (!(newTimestep > 0) || !(newLimit > 0)) {
+		throw new IOException(file + ": checkpoint has an invalid timestep or velocity limit");
+	    }
+
+	    particles.clear();
+	    particles.setVelocityLimit(newLimit);
+	    int first = particles.extend(n);
+	    long position = HEADER_BYTES;
+	    long doubles = (long) n * Double.BYTES;
+	    map(channel, position, doubles).asDoubleBuffer().get(particles.x, first, n);
+	    map(channel, position += doubles, doubles).asDoubleBuffer().get(particles.y, first, n);
+	    map(channel, position += doubles, doubles).asDoubleBuffer().get(particles.vx, first, n);
+	    map(channel, position += doubles, doubles).asDoubleBuffer().get(particles.vy, first, n);
+	    map(channel, position += doubles, doubles).asDoubleBuffer().get(particles.mass, first, n);
+	    map(channel, position += doubles, (long) n * Integer.BYTES).asIntBuffer()
+		    .get(particles.diameter, first, n);
+
+	    tick = newTick;
+	    seed = newSeed;
+	    gravity = (flags & FLAG_GRAVITY) != 0;
+	    continuous = (flags & FLAG_CONTINUOUS) != 0;
+	    timestep = newTimestep;
+	}
+    }
+
+    /**
+     * Set whether continuous collision detection was turned on
+     *
+     * @param continuous True if it was on, false otherwise
+     */
+    public void setContinuousCollisions(boolean continuous) {
+	this.continuous = continuous;
+    }
+
+    /**
+     * Set the seed the Simulation was started from
+     *
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+	this.seed = seed;
+    }
+
+    /**
+     * Set the number of ticks that had been run
+     *
+     * @param tick The tick
+     */
+    public void setTick(long tick) {
+	this.tick = tick;
+    }
+
+    /**
+     * Set the amount of time each tick advanced the Simulation by
+     *
+     * @param timestep The timestep, greater than 0
+     */
+    public void setTimestep(double timestep) {
+	if (!(timestep > 0)) {
+	    throw new IllegalArgumentException("timestep must be greater than 0: " + timestep);
+	}
+	this.timestep = timestep;
+    }
+
+    /**
+     * Set whether gravity was turned on
+     *
+     * @param gravity True if gravity was on, false otherwise
+     */
+    public void setUsingGravity(boolean gravity) {
+	this.gravity = gravity;
+    }
+
+    /**
+     * Check if continuous collision detection was turned on
+     *
+     * @return True if it was on, false otherwise
+     */
+    public boolean usingContinuousCollisions() {
+	return continuous;
+    }
+
+    /**
+     * Check if gravity was turned on
+     *
+     * @return True if gravity was on, false otherwise
+     */
+    public boolean usingGravity() {
+	return gravity;
+    }
+
+    /**
+     * Save this Checkpoint to <i>file</i>, replacing it. The file is only
+     * replaced once the new one has been written in full and forced to disk.
+     *
+     * @param file The file to write
+     * @throws IOException If the file can not be written
+     */
+    public void write(File file) throws IOException {
+	if (buffer == null) {
+	    buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	buffer.clear();
+
+	Path target = file.toPath();
+	Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+	int n = particles.size();
+	try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+		StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+	    buffer.putInt(MAGIC)
+		    .putInt(VERSION)
+		    .putInt((gravity ? FLAG_GRAVITY : 0) | (continuous ? FLAG_CONTINUOUS : 0))
+		    .putInt(n)
+		    .putLong(tick)
+		    .putLong(seed)
+		    .putDouble(timestep)
+		    .putDouble(particles.getVelocityLimit());
+	    putDoubles(channel, particles.x, n);
+	    putDoubles(channel, particles.y, n);
+	    putDoubles(channel, particles.vx, n);
+	    putDoubles(channel, particles.vy, n);
+	    putDoubles(channel, particles.mass, n);
+	    putInts(channel, particles.diameter, n);
+	    drain(channel);
+	    channel.force(true);
+	}
+
+	try {
+	    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	} catch (AtomicMoveNotSupportedException e) {
+	    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+    }
+}
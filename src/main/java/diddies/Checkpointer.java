@@ -0,0 +1,143 @@
+package diddies;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checkpointer saves a Simulation to a Checkpoint file at a fixed interval, on
+ * a thread of its own. The Simulation is only held up while its state is
+ * copied, which is a handful of array copies within one tick; the file is
+ * written afterwards, while the Simulation carries on.
+ *
+ * The copy and the file are reused from one checkpoint to the next, so a
+ * running Checkpointer does not allocate. A checkpoint that fails to write is
+ * reported on standard error and remembered, and the next one is tried as
+ * usual.
+ *
+ * @author Ryan Kenney
+ */
+public class Checkpointer {
+
+    // Attributes
+    private final Simulation simulation;
+    private final File file;
+    private final long interval;
+    private final TimeUnit unit;
+    private final Checkpoint state;
+    private final ScheduledExecutorService executor;
+    // Metrics
+    private volatile long checkpoints;
+    private volatile long lastWriteNanos;
+    private volatile IOException lastError;
+
+    // Constructors
+    /**
+     * Create a Checkpointer. It does nothing until start() is called.
+     *
+     * @param simulation The Simulation to save
+     * @param file The file to save it to
+     * @param interval The time between checkpoints
+     * @param unit The unit of <i>interval</i>
+     */
+    public Checkpointer(Simulation simulation, File file, long interval, TimeUnit unit) {
+	if (interval < 1) {
+	    throw new IllegalArgumentException("interval must be at least 1: " + interval);
+	}
+	this.simulation = simulation;
+	this.file = file;
+	this.interval = interval;
+	this.unit = unit;
+	state = new Checkpoint();
+	executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable r) {
+		Thread thread = new Thread(r, "checkpoint");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+    }
+
+    // Methods
+    /**
+     * Save the Simulation now, on the calling thread
+     *
+     * @throws IOException If the file can not be written
+     */
+    public synchronized void checkpoint() throws IOException {
+	long start = System.nanoTime();
+	simulation.copyCheckpoint(state);
+	state.write(file);
+	lastWriteNanos = System.nanoTime() - start;
+	checkpoints++;
+    }
+
+    /**
+     * Get the number of checkpoints saved so far
+     *
+     * @return The number of checkpoints
+     */
+    public long getCheckpoints() {
+	return checkpoints;
+    }
+
+    /**
+     * Get the file the Simulation is saved to
+     *
+     * @return The file
+     */
+    public File getFile() {
+	return file;
+    }
+
+    /**
+     * Get the error from the most recent checkpoint that failed, if any
+     *
+     * @return The error, or null if none has failed
+     */
+    public IOException getLastError() {
+	return lastError;
+    }
+
+    /**
+     * Get how long the most recent checkpoint took, copy and write together
+     *
+     * @return The duration, in nanoseconds
+     */
+    public long getLastWriteNanos() {
+	return lastWriteNanos;
+    }
+
+    /**
+     * Start saving the Simulation every interval, beginning one interval from
+     * now
+     */
+    public void start() {
+	executor.scheduleWithFixedDelay(new Runnable() {
+	    @Override
+	    public void run() {
+		try {
+		    checkpoint();
+		} catch (IOException e) {
+		    lastError = e;
+		    System.err.println("checkpoint failed: " + e.getMessage());
+		}
+	    }
+	}, interval, interval, unit);
+    }
+
+    /**
+     * Stop saving the Simulation and wait for the checkpoint in progress, if
+     * any, to finish
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+	executor.shutdown();
+	executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,148 @@
+package diddies;
+
+/**
+ * CircleGeometry answers the geometric questions the simulation asks about
+ * Particles, which are all circles: do two of them overlap, does one contain a
+ * point, if two overlap, how deeply and in which direction, and if two are
+ * moving, when they first touch. Everything is worked out from the centers and
+ * radii with squared distances, so none of it allocates or takes a square root
+ * unless the answer needs one.
+ *
+ * @author Ryan Kenney
+ */
+public final class CircleGeometry {
+
+    // Constructors
+    /**
+     * CircleGeometry only has static methods
+     */
+    private CircleGeometry() {
+    }
+
+    // Methods
+    /**
+     * Find the unit vector pointing from the center of circle 1 to the center
+     * of circle 2, which is the direction circle 2 should be pushed to
+     * separate them. If the centers are the same there is no such direction,
+     * so (1, 0) is used.
+     *
+     * @param x1 The X component of the center of circle 1
+     * @param y1 The Y component of the center of circle 1
+     * @param x2 The X component of the center of circle 2
+     * @param y2 The Y component of the center of circle 2
+     * @param normal Where to put the normal, {x, y}
+     * @return <i>normal</i>
+     */
+    public static double[] contactNormal(double x1, double y1, double x2, double y2, double[] normal) {
+	double dx = x2 - x1;
+	double dy = y2 - y1;
+	double distanceSq = dx * dx + dy * dy;
+	if (distanceSq == 0) {
+	    normal[0] = 1;
+	    normal[1] = 0;
+	} else {
+	    double distance = Math.sqrt(distanceSq);
+	    normal[0] = dx / distance;
+	    normal[1] = dy / distance;
+	}
+	return normal;
+    }
+
+    /**
+     * Check if the point (<i>px</i>, <i>py</i>) is inside of a circle. Points
+     * on the edge are not inside.
+     *
+     * @param cx The X component of the center of the circle
+     * @param cy The Y component of the center of the circle
+     * @param radius The radius of the circle
+     * @param px The X component of the point
+     * @param py The Y component of the point
+     * @return True if the point is inside the circle, false otherwise
+     */
+    public static boolean contains(double cx, double cy, double radius, double px, double py) {
+	double dx = px - cx;
+	double dy = py - cy;
+	return dx * dx + dy * dy < radius * radius;
+    }
+
+    /**
+     * Check if two circles overlap. Circles that only touch do not overlap.
+     *
+     * @param x1 The X component of the center of circle 1
+     * @param y1 The Y component of the center of circle 1
+     * @param r1 The radius of circle 1
+     * @param x2 The X component of the center of circle 2
+     * @param y2 The Y component of the center of circle 2
+     * @param r2 The radius of circle 2
+     * @return True if the circles overlap, false otherwise
+     */
+    public static boolean overlaps(double x1, double y1, double r1, double x2, double y2, double r2) {
+	double dx = x2 - x1;
+	double dy = y2 - y1;
+	double reach = r1 + r2;
+	return dx * dx + dy * dy < reach * reach;
+    }
+
+    /**
+     * Find how far two circles overlap along the line between their centers,
+     * which is how far apart they would have to be pushed to only touch. This
+     * is negative when the circles do not overlap.
+     *
+     * @param x1 The X component of the center of circle 1
+     * @param y1 The Y component of the center of circle 1
+     * @param r1 The radius of circle 1
+     * @param x2 The X component of the center of circle 2
+     * @param y2 The Y component of the center of circle 2
+     * @param r2 The radius of circle 2
+     * @return The penetration depth
+     */
+    public static double penetrationDepth(double x1, double y1, double r1, double x2, double y2, double r2) {
+	double dx = x2 - x1;
+	double dy = y2 - y1;
+	return (r1 + r2) - Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Find when two moving circles first touch. Each circle starts at its
+     * center and moves in a straight line by its displacement, and the answer
+     * is the fraction of that move, from 0 to 1, at which the gap between them
+     * closes. This catches circles that pass straight through each other
+     * within the move, which checking for overlap before and after misses.
+     *
+     * @param x1 The X component of the starting center of circle 1
+     * @param y1 The Y component of the starting center of circle 1
+     * @param dx1 The X component of the displacement of circle 1
+     * @param dy1 The Y component of the displacement of circle 1
+     * @param r1 The radius of circle 1
+     * @param x2 The X component of the starting center of circle 2
+     * @param y2 The Y component of the starting center of circle 2
+     * @param dx2 The X component of the displacement of circle 2
+     * @param dy2 The Y component of the displacement of circle 2
+     * @param r2 The radius of circle 2
+     * @return The time of impact in [0, 1], 0 if they already overlap, or -1
+     * if they do not touch during the move
+     */
+    public static double timeOfImpact(double x1, double y1, double dx1, double dy1, double r1,
+	    double x2, double y2, double dx2, double dy2, double r2) {
+	// Solve |p + v*t| = r1 + r2 for the relative position p and motion v
+	double px = x2 - x1, py = y2 - y1;
+	double vx = dx2 - dx1, vy = dy2 - dy1;
+	double reach = r1 + r2;
+	double c = px * px + py * py - reach * reach;
+	if (c < 0) {
+	    return 0;
+	}
+	double b = px * vx + py * vy;
+	if (b >= 0) {
+	    // Moving apart, or not moving relative to each other
+	    return -1;
+	}
+	double a = vx * vx + vy * vy;
+	double discriminant = b * b - a * c;
+	if (discriminant < 0) {
+	    return -1;
+	}
+	double t = (-b - Math.sqrt(discriminant)) / a;
+	return (t <= 1) ? t : -1;
+    }
+}
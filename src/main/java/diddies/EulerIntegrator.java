@@ -0,0 +1,31 @@
+package diddies;
+
+/**
+ * The original scheme: move every Particle by its velocity, then add the
+ * acceleration at the new positions. That is semi-implicit Euler, which is
+ * only first order, so its energy error grows in proportion to the timestep.
+ * With a timestep of 1 it gives exactly the same result as the simulation did
+ * before Integrators existed.
+ *
+ * @author Ryan Kenney
+ */
+public class EulerIntegrator extends AbstractIntegrator {
+
+    // Methods
+    /**
+     * Drift for <i>dt</i>, then kick for <i>dt</i>
+     *
+     * @param particles The Particles to move
+     * @param dt The timestep
+     * @param forces Works out the acceleration of every Particle
+     * @param runner The BlockRunner to split the work with
+     */
+    @Override
+    public void step(ParticleStore particles, double dt, Forces forces, BlockRunner runner) {
+	begin(particles, runner);
+	drift(dt);
+	accelerate(forces);
+	kick(dt);
+	end();
+    }
+}
@@ -0,0 +1,388 @@
+package diddies;
+
+import java.util.EnumSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * EventBus carries SimulationEvents from the physics to whoever is listening,
+ * without the physics ever waiting for them. Events are published into a
+ * bounded ring buffer with no locks: each slot has a sequence number, and a
+ * publisher claims the next slot with one compare-and-set, writes the event
+ * into the ring's arrays and releases the slot by bumping its sequence. Any
+ * number of threads may publish at once, as the wall passes do from every
+ * block, and nothing is allocated to publish an event.
+ *
+ * A thread of the bus's own drains the ring and hands each event to the
+ * Listeners, so a slow Listener only slows the other Listeners. If the ring
+ * is full, the event is not waited for but counted, and once the ring has
+ * been drained the Listeners get one aggregate event for each Type with the
+ * number of events that were dropped.
+ *
+ * Publishers should check isPublishing() first, which is a single volatile
+ * read, and skip working out an event nobody has subscribed to. The thread is
+ * only started by the first subscription, so a bus nobody listens to costs
+ * nothing.
+ *
+ * @author Ryan Kenney
+ */
+public class EventBus {
+
+    // Attributes
+    public final static int DEFAULT_CAPACITY = 4096;
+    private final static long IDLE_NANOS = 10000000L;
+    private final static SimulationEvent.Type[] TYPES = SimulationEvent.Type.values();
+    // The ring. sequences[s] is the position a publisher may claim slot s
+    // for, or one past the position the reader may read it at.
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+    private final int[] types;
+    private final long[] ticks;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] masses;
+    private final double[] speeds;
+    private volatile long tick;
+    // Listeners
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile int subscribed;
+    private volatile Thread dispatcher;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+    // Metrics
+    private final LongAdder published = new LongAdder();
+    private final AtomicLongArray dropped = new AtomicLongArray(TYPES.length);
+    private final LongAdder totalDropped = new LongAdder();
+    private volatile long delivered;
+
+    // Constructors
+    /**
+     * Create an EventBus that holds up to 4096 undelivered events
+     */
+    public EventBus() {
+	this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an EventBus that holds up to <i>capacity</i> undelivered events
+     *
+     * @param capacity The size of the ring, a power of two
+     */
+    public EventBus(int capacity) {
+	if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+	    throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+	}
+	mask = capacity - 1;
+	sequences = new AtomicLongArray(capacity);
+	for (int s = 0; s < capacity; s++) {
+	    sequences.set(s, s);
+	}
+	types = new int[capacity];
+	ticks = new long[capacity];
+	xs = new double[capacity];
+	ys = new double[capacity];
+	masses = new double[capacity];
+	speeds = new double[capacity];
+    }
+
+    // Methods
+    /**
+     * Deliver every event still in the ring, and stop the thread. Events
+     * published afterwards are ignored.
+     */
+    public void close() {
+	Thread thread;
+	synchronized (this) {
+	    closed = true;
+	    subscribed = 0;
+	    thread = dispatcher;
+	}
+	if (thread != null) {
+	    LockSupport.unpark(thread);
+	    try {
+		thread.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    /**
+     * Hand every event in the ring to the Listeners, then an aggregate event
+     * for each Type that had events dropped. Only the bus's thread calls
+     * this.
+     *
+     * @return True if anything was delivered, false otherwise
+     */
+    private boolean deliver() {
+	boolean any = false;
+	while (true) {
+	    int s = (int) head & mask;
+	    if (sequences.get(s) != head + 1) {
+		break;
+	    }
+	    SimulationEvent event = new SimulationEvent(TYPES[types[s]], ticks[s], xs[s], ys[s], masses[s],
+		    speeds[s], 1);
+	    sequences.lazySet(s, head + mask + 1);
+	    head++;
+	    dispatch(event);
+	    any = true;
+	}
+	for (SimulationEvent.Type type : TYPES) {
+	    long count = dropped.getAndSet(type.ordinal(), 0);
+	    if (count > 0) {
+		dispatch(new SimulationEvent(type, tick, Double.NaN, Double.NaN, 0, 0, count));
+		any = true;
+	    }
+	}
+	return any;
+    }
+
+    /**
+     * Hand <i>event</i> to every Listener subscribed to its Type. A Listener
+     * that throws is reported, and does not stop the others.
+     *
+     * @param event The SimulationEvent
+     */
+    private void dispatch(SimulationEvent event) {
+	int bit = event.getType().getMask();
+	for (Subscription subscription : subscriptions) {
+	    if ((subscription.mask & bit) != 0) {
+		try {
+		    subscription.listener.handle(event);
+		} catch (RuntimeException e) {
+		    System.err.println("event listener failed: " + e);
+		}
+	    }
+	}
+	delivered += event.getCount();
+    }
+
+    /**
+     * Wake the bus's thread up to deliver what has been published so far,
+     * rather than letting it wait for its next look. The Simulation calls
+     * this at the end of every tick, and it costs a volatile read when the
+     * thread is busy already.
+     */
+    public void flush() {
+	if (waiting) {
+	    Thread thread = dispatcher;
+	    if (thread != null) {
+		LockSupport.unpark(thread);
+	    }
+	}
+    }
+
+    /**
+     * Get the number of events handed to the Listeners so far, counting each
+     * aggregate as the events it stands for
+     *
+     * @return The number of events
+     */
+    public long getDelivered() {
+	return delivered;
+    }
+
+    /**
+     * Get the number of events dropped so far because the ring was full
+     *
+     * @return The number of events
+     */
+    public long getDropped() {
+	return totalDropped.sum();
+    }
+
+    /**
+     * Get the number of events published so far, whether or not they were
+     * dropped
+     *
+     * @return The number of events
+     */
+    public long getPublished() {
+	return published.sum();
+    }
+
+    /**
+     * Check if anyone is subscribed to <i>type</i>, so that there is any point
+     * publishing it
+     *
+     * @param type The Type
+     * @return True if a Listener would get it, false otherwise
+     */
+    public boolean isPublishing(SimulationEvent.Type type) {
+	return (subscribed & type.getMask()) != 0;
+    }
+
+    /**
+     * Publish an event. This never blocks and never allocates: if the ring is
+     * full, the event is counted as dropped instead. Any thread may call
+     * this.
+     *
+     * @param type What happened
+     * @param x The X component of where it happened
+     * @param y The Y component of where it happened
+     * @param mass The mass involved
+     * @param speed How fast it happened
+     */
+    public void publish(SimulationEvent.Type type, double x, double y, double mass, double speed) {
+	if (!isPublishing(type)) {
+	    return;
+	}
+	published.increment();
+	long position = tail.get();
+	while (true) {
+	    int s = (int) position & mask;
+	    long difference = sequences.get(s) - position;
+	    if (difference == 0) {
+		if (tail.compareAndSet(position, position + 1)) {
+		    types[s] = type.ordinal();
+		    ticks[s] = tick;
+		    xs[s] = x;
+		    ys[s] = y;
+		    masses[s] = mass;
+		    speeds[s] = speed;
+		    sequences.lazySet(s, position + 1);
+		    return;
+		}
+		position = tail.get();
+	    } else if (difference < 0) {
+		// The reader has not freed this slot yet, so the ring is full
+		dropped.incrementAndGet(type.ordinal());
+		totalDropped.increment();
+		return;
+	    } else {
+		// Another publisher took it first
+		position = tail.get();
+	    }
+	}
+    }
+
+    /**
+     * Deliver events until closed
+     */
+    private void run() {
+	while (true) {
+	    boolean stopping = closed;
+	    if (deliver()) {
+		continue;
+	    }
+	    if (stopping) {
+		return;
+	    }
+	    waiting = true;
+	    if (!deliver() && !closed) {
+		LockSupport.parkNanos(this, IDLE_NANOS);
+	    }
+	    waiting = false;
+	}
+    }
+
+    /**
+     * Change the tick that events published from now on are stamped with.
+     * The Simulation calls this at the start of every tick.
+     *
+     * @param tick The tick
+     */
+    void setTick(long tick) {
+	this.tick = tick;
+    }
+
+    /**
+     * Start the thread that delivers the events, unless it has been started
+     * already
+     */
+    private synchronized void start() {
+	if (dispatcher != null || closed) {
+	    return;
+	}
+	dispatcher = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		EventBus.this.run();
+	    }
+	}, "event-bus");
+	dispatcher.setDaemon(true);
+	dispatcher.start();
+    }
+
+    /**
+     * Hand every event of the given Types to <i>listener</i>, on the bus's
+     * thread, from now on
+     *
+     * @param listener The Listener
+     * @param types The Types it wants
+     */
+    public synchronized void subscribe(Listener listener, EnumSet<SimulationEvent.Type> types) {
+	int bits = 0;
+	for (SimulationEvent.Type type : types) {
+	    bits |= type.getMask();
+	}
+	if (closed) {
+	    return;
+	}
+	subscriptions.add(new Subscription(listener, bits));
+	subscribed |= bits;
+	start();
+    }
+
+    /**
+     * Stop handing events to <i>listener</i>. Events it was subscribed to
+     * that are already in the ring may still reach it.
+     *
+     * @param listener The Listener
+     */
+    public synchronized void unsubscribe(Listener listener) {
+	int bits = 0;
+	for (Subscription subscription : subscriptions) {
+	    if (subscription.listener == listener) {
+		subscriptions.remove(subscription);
+	    } else {
+		bits |= subscription.mask;
+	    }
+	}
+	if (!closed) {
+	    subscribed = bits;
+	}
+    }
+
+    /**
+     * A Listener is told about SimulationEvents, on the bus's thread
+     */
+    public interface Listener {
+
+	/**
+	 * Handle one event. This should not take long, since every other
+	 * event waits for it; events that can not wait are dropped.
+	 *
+	 * @param event The SimulationEvent
+	 */
+	public void handle(SimulationEvent event);
+    }
+
+    /**
+     * A Subscription is a Listener and the Types it wants, as a mask
+     */
+    private static class Subscription {
+
+	// Attributes
+	private final Listener listener;
+	private final int mask;
+
+	// Constructors
+	/**
+	 * Create a Subscription
+	 *
+	 * @param listener The Listener
+	 * @param mask The bits of the Types it wants
+	 */
+	private Subscription(Listener listener, int mask) {
+	    this.listener = listener;
+	    this.mask = mask;
+	}
+    }
+}
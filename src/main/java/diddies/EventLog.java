@@ -0,0 +1,194 @@
+package diddies;
+
+import java.io.PrintStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EventLog writes messages about things that happen in the Simulation, such as
+ * Particles merging, without the Simulation ever waiting for the console.
+ * log() only offers the message to a bounded queue, and a thread of the log's
+ * own prints them. At most a fixed number of lines are printed per second;
+ * anything over that, or anything that finds the queue full, is counted
+ * rather than printed, and the count is printed once a second instead. A
+ * burst of thousands of merges then costs a line rather than a stall.
+ *
+ * The thread is only started by the first message, so a log that is never
+ * used costs nothing.
+ *
+ * @author Ryan Kenney
+ */
+public class EventLog {
+
+    // Attributes
+    public final static int DEFAULT_LINES_PER_SECOND = 20;
+    private final static int QUEUE_SIZE = 1024;
+    private final static long NANOS_PER_SECOND = 1000000000L;
+    private final static long POLL_MILLIS = 100;
+    private final PrintStream out;
+    private final int linesPerSecond;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private Thread writer;
+    private volatile boolean closed;
+    // Metrics
+    private final AtomicLong logged = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long suppressed;
+
+    // Constructors
+    /**
+     * Create an EventLog that prints to standard output, at most 20 lines a
+     * second
+     */
+    public EventLog() {
+	this(System.out, DEFAULT_LINES_PER_SECOND);
+    }
+
+    /**
+     * Create an EventLog
+     *
+     * @param out Where to print the messages
+     * @param linesPerSecond The most lines to print per second, at least 1
+     */
+    public EventLog(PrintStream out, int linesPerSecond) {
+	if (linesPerSecond < 1) {
+	    throw new IllegalArgumentException("linesPerSecond must be at least 1: " + linesPerSecond);
+	}
+	this.out = out;
+	this.linesPerSecond = linesPerSecond;
+    }
+
+    // Methods
+    /**
+     * Print every message still queued, and stop the thread. Messages logged
+     * afterwards are dropped.
+     */
+    public void close() {
+	Thread thread;
+	synchronized (this) {
+	    closed = true;
+	    thread = writer;
+	}
+	if (thread != null) {
+	    try {
+		thread.join();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    /**
+     * Get the number of messages that found the queue full
+     *
+     * @return The number of dropped messages
+     */
+    public long getDropped() {
+	return dropped.get();
+    }
+
+    /**
+     * Get the number of messages logged, whether or not they were printed
+     *
+     * @return The number of messages
+     */
+    public long getLogged() {
+	return logged.get();
+    }
+
+    /**
+     * Get the number of messages not printed because of the rate limit
+     *
+     * @return The number of suppressed messages
+     */
+    public long getSuppressed() {
+	return suppressed;
+    }
+
+    /**
+     * Log <i>message</i>. This never blocks.
+     *
+     * @param message The message
+     */
+    public void log(String message) {
+	if (closed) {
+	    dropped.incrementAndGet();
+	    return;
+	}
+	logged.incrementAndGet();
+	if (writer == null) {
+	    start();
+	}
+	if (!queue.offer(message)) {
+	    dropped.incrementAndGet();
+	}
+    }
+
+    /**
+     * Start the thread that prints the messages, unless it has been started
+     * already
+     */
+    private synchronized void start() {
+	if (writer != null || closed) {
+	    return;
+	}
+	writer = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		write();
+	    }
+	}, "events");
+	writer.setDaemon(true);
+	writer.start();
+    }
+
+    /**
+     * Print queued messages, at most linesPerSecond of them in any second,
+     * until closed
+     */
+    private void write() {
+	long windowStart = System.nanoTime();
+	int lines = 0;
+	long quiet = 0;
+	long droppedBefore = 0;
+	while (true) {
+	    String message;
+	    try {
+		message = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+	    } catch (InterruptedException e) {
+		message = null;
+		closed = true;
+	    }
+
+	    long now = System.nanoTime();
+	    if (now - windowStart >= NANOS_PER_SECOND) {
+		long missed = dropped.get() - droppedBefore;
+		if (quiet + missed > 0) {
+		    out.println("(" + (quiet + missed) + " more events not shown)");
+		}
+		droppedBefore += missed;
+		windowStart = now;
+		lines = 0;
+		quiet = 0;
+	    }
+
+	    if (message != null) {
+		if (lines < linesPerSecond) {
+		    out.println(message);
+		    lines++;
+		} else {
+		    quiet++;
+		    suppressed++;
+		}
+	    } else if (closed && queue.isEmpty()) {
+		if (quiet > 0) {
+		    out.println("(" + quiet + " more events not shown)");
+		}
+		out.flush();
+		return;
+	    }
+	}
+    }
+}
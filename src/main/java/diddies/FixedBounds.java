@@ -0,0 +1,46 @@
+package diddies;
+
+/**
+ * Bounds of a fixed size, for running a Simulation without a Space.
+ *
+ * @author Ryan Kenney
+ */
+public class FixedBounds implements Bounds {
+
+    // Attributes
+    private final int width;
+    private final int height;
+
+    // Constructors
+    /**
+     * Create Bounds of <i>width</i> by <i>height</i>
+     *
+     * @param width The width, in pixels
+     * @param height The height, in pixels
+     */
+    public FixedBounds(int width, int height) {
+	this.width = width;
+	this.height = height;
+    }
+
+    // Methods
+    /**
+     * Get the height of the box, in pixels
+     *
+     * @return The height
+     */
+    @Override
+    public int getHeight() {
+	return height;
+    }
+
+    /**
+     * Get the width of the box, in pixels
+     *
+     * @return The width
+     */
+    @Override
+    public int getWidth() {
+	return width;
+    }
+}
@@ -0,0 +1,40 @@
+package diddies;
+
+/**
+ * A ForceKernel is the innermost loop of the direct gravity sum: the
+ * attraction of every Particle on each Particle of a range, worked out from
+ * flat arrays of centers and masses. It is kept apart from the solvers so
+ * that the loop can be swapped for one that uses the SIMD instructions of the
+ * processor where the JVM can, and ForceKernels picks the best one there is.
+ *
+ * @author Ryan Kenney
+ */
+public interface ForceKernel {
+
+    /**
+     * Check if the kernel works on several Particles at once. A vectorized
+     * kernel adds up in a different order than the scalar one, so its result
+     * can differ in the last bits and depends on the processor.
+     *
+     * @return True if it is vectorized, false otherwise
+     */
+    public boolean isVectorized();
+
+    /**
+     * Sum the attraction of Particles 0 to <i>n</i> - 1, without G, on each of
+     * Particles <i>start</i> to <i>end</i> - 1: m2 * (dx, dy) / d^3 from each
+     * other Particle. Particles whose centers coincide, including each
+     * Particle and itself, exert no force on each other.
+     *
+     * @param x The X components of the centers
+     * @param y The Y components of the centers
+     * @param mass The masses
+     * @param n The number of Particles
+     * @param start The first Particle to sum for
+     * @param end One past the last Particle to sum for
+     * @param sumX Where to write the X components of the sums
+     * @param sumY Where to write the Y components of the sums
+     */
+    public void sumRows(double[] x, double[] y, double[] mass, int n, int start, int end, double[] sumX,
+	    double[] sumY);
+}
@@ -0,0 +1,72 @@
+package diddies;
+
+/**
+ * ForceKernels finds the best ForceKernel the JVM can run. The vectorized
+ * kernel is built from its own source set, since it needs the
+ * jdk.incubator.vector module of JDK 16 or later, so it is looked up by name:
+ * if its class is not on the classpath, was built for a newer JVM, or the
+ * module was not added with --add-modules jdk.incubator.vector, the scalar
+ * kernel is used instead. Setting the simplespace.vector system property to
+ * false uses the scalar kernel regardless.
+ *
+ * @author Ryan Kenney
+ */
+public final class ForceKernels {
+
+    // Attributes
+    public final static String VECTOR_PROPERTY = "simplespace.vector";
+    private final static String VECTOR_CLASS = "diddies.VectorForceKernel";
+    private final static ForceKernel SCALAR = new ScalarForceKernel();
+    private final static ForceKernel VECTOR = load();
+    private final static ForceKernel BEST = (VECTOR != null
+	    && Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))) ? VECTOR : SCALAR;
+
+    // Constructors
+    /**
+     * ForceKernels only has static methods
+     */
+    private ForceKernels() {
+    }
+
+    // Methods
+    /**
+     * Get the fastest ForceKernel available
+     *
+     * @return The vectorized kernel if it can be loaded, or the scalar one
+     */
+    public static ForceKernel best() {
+	return BEST;
+    }
+
+    /**
+     * Load the vectorized kernel
+     *
+     * @return The vectorized kernel, or null if it can not be loaded
+     */
+    private static ForceKernel load() {
+	try {
+	    return (ForceKernel) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+	} catch (ReflectiveOperationException | LinkageError e) {
+	    return null;
+	}
+    }
+
+    /**
+     * Get the ForceKernel that gives the same result on every machine
+     *
+     * @return The scalar kernel
+     */
+    public static ForceKernel scalar() {
+	return SCALAR;
+    }
+
+    /**
+     * Get the vectorized ForceKernel, if it can be loaded, whatever the
+     * simplespace.vector system property says
+     *
+     * @return The vectorized kernel, or null if there is none
+     */
+    public static ForceKernel vector() {
+	return VECTOR;
+    }
+}
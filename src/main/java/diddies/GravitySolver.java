@@ -0,0 +1,50 @@
+package diddies;
+
+/**
+ * A GravitySolver is the strategy the Simulation uses to calculate the mutual
+ * attraction between Particles each tick. Implementations are free to trade
+ * accuracy for speed, but every implementation is expected to leave each
+ * Particle with the same change in Velocity that summing the attraction of
+ * every other Particle would have produced, within its own error bounds.
+ *
+ * @author Ryan Kenney
+ */
+public interface GravitySolver {
+
+    /**
+     * Calculate the gravitational acceleration of every Particle in
+     * <i>particles</i>, G times the summed attraction of every other Particle,
+     * and write it to <i>accelX</i> and <i>accelY</i>. Velocities are left
+     * alone, which is what lets an Integrator decide when and by how much to
+     * apply it. Particles whose centers coincide exert no force on each
+     * other, and Particles that are marked for removal get an acceleration of
+     * 0.
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G in (G*m1*m2)/d^2
+     * @param runner The BlockRunner to split the work with
+     * @param accelX Where to write the X components, at least size() long
+     * @param accelY Where to write the Y components, at least size() long
+     */
+    public void accelerate(ParticleStore particles, double gravitationalConstant, BlockRunner runner,
+	    double[] accelX, double[] accelY);
+
+    /**
+     * Apply the gravitational attraction between all of the Particles in
+     * <i>particles</i> to their velocities. Solvers never merge Particles,
+     * not even ones with the exact same center of mass; that is left to the
+     * Simulation's MergeStage.
+     *
+     * Implementations may split the work into blocks with <i>runner</i>, but
+     * must produce the same result for the same BlockRunner settings no matter
+     * how the blocks get scheduled.
+     *
+     * This is accelerate() followed by adding the acceleration to every
+     * velocity, which is one step of the original scheme.
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G in (G*m1*m2)/d^2
+     * @param runner The BlockRunner to split the work with
+     */
+    public void apply(ParticleStore particles, double gravitationalConstant, BlockRunner runner);
+}
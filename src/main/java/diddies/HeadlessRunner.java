@@ -0,0 +1,502 @@
+package diddies;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HeadlessRunner runs a Simulation from the command line, without a window. It
+ * loads an initial state from a StateFile or a Checkpoint (or makes a random
+ * one), advances it a number of steps as fast as the machine allows, and
+ * writes the final state back out. Long runs can save a Checkpoint
+ * periodically, and pick up where they left off with --resume. Nothing here
+ * touches AWT or Swing, so it runs on machines without a display.
+ *
+ * <pre>
+ * java -cp simplespace.jar diddies.HeadlessRunner [options]
+ *   --in FILE        Read the initial state from FILE
+ *   --random N       Start with N random Particles instead
+ *   --resume FILE    Continue from the Checkpoint in FILE instead. Its
+ *                    gravity, timestep, collision detection and velocity
+ *                    limit replace those on the command line
+ *   --seed S         The seed for --random (default 42)
+ *   --out FILE       Write the final state to FILE
+ *   --capacity N     The most Particles the Simulation holds (default the
+ *                    simplespace.capacity property, or unlimited)
+ *   --steps N        The number of steps to run (default 1000)
+ *   --width W        The width of the box (default 800)
+ *   --height H       The height of the box (default 600)
+ *   --threads T      The number of threads (default 1)
+ *   --solver NAME    brute, barnes-hut, mesh or short-range (default brute)
+ *   --theta T        The opening angle for barnes-hut (default 0.5)
+ *   --mesh N         The cells across the mesh for mesh, a power of two
+ *                    (default 256)
+ *   --softening E    The softening length for mesh and short-range, in
+ *                    pixels (default 10 for mesh, 5 for short-range)
+ *   --cutoff R       The distance short-range stops attracting at, in pixels
+ *                    (default 100)
+ *   --skin S         How much further than the cutoff the short-range
+ *                    neighbor lists reach, in pixels (default 20)
+ *   --gravity on|off Turn gravity on or off (default on)
+ *   --integrator I   euler, verlet or leapfrog (default euler)
+ *   --dt DT          The timestep of each step (default 1)
+ *   --ccd on|off     Turn continuous collision detection on or off (default
+ *                    off)
+ *   --limit L|none   The velocity limit, or none for no limit (default 1)
+ *   --merge T|off    Merge Particles that overlap by T times the smaller
+ *                    diameter, or off to never merge (default 1)
+ *   --checkpoint FILE            Save a Checkpoint to FILE periodically and
+ *                                at the end
+ *   --checkpoint-interval S      The seconds between Checkpoints (default 60)
+ *   --deterministic on|off       Give the same result for any number of
+ *                                threads, and print the final state hash
+ *                                (default off)
+ *   --hash-log FILE              Write the state hash after every step to
+ *                                FILE, as "tick hash" lines
+ *   --record FILE                Record the trajectory to FILE
+ *   --record-every N             Record every Nth tick (default 1)
+ *   --keyframe-interval K        Make every Kth recorded frame a keyframe
+ *                                (default 256)
+ *   --metrics on|off             Publish the metrics over JMX during the run,
+ *                                and print the time each phase took and
+ *                                the counts at the end (default off)
+ *   --events on|off              Log absorptions to standard error (default
+ *                                off)
+ * </pre>
+ *
+ * It reports the elapsed time and the steps per second on standard error, so
+ * standard output stays free for whatever the caller pipes it into.
+ *
+ * @author Ryan Kenney
+ */
+public class HeadlessRunner {
+
+    // Attributes
+    private final static String USAGE = "usage: HeadlessRunner (--in FILE | --random N [--seed S] | --resume FILE)"
+	    + " [--out FILE] [--capacity N] [--steps N] [--width W] [--height H] [--threads T]"
+	    + " [--solver brute|barnes-hut|mesh|short-range] [--theta T]"
+	    + " [--mesh N] [--softening E] [--cutoff R] [--skin S] [--gravity on|off]"
+	    + " [--integrator euler|verlet|leapfrog] [--dt DT] [--ccd on|off] [--limit L|none]"
+	    + " [--merge T|off]"
+	    + " [--checkpoint FILE] [--checkpoint-interval S]"
+	    + " [--deterministic on|off] [--hash-log FILE]"
+	    + " [--record FILE] [--record-every N] [--keyframe-interval K]"
+	    + " [--metrics on|off] [--events on|off]";
+    private File in;
+    private File out;
+    private File resume;
+    private File checkpoint;
+    private long checkpointInterval = 60;
+    private boolean deterministic = Boolean.getBoolean(Simulation.DETERMINISTIC_PROPERTY);
+    private File hashLog;
+    private File record;
+    private int recordEvery = 1;
+    private int keyframeInterval = TrajectoryRecorder.DEFAULT_KEYFRAME_INTERVAL;
+    private boolean metrics = false;
+    private boolean events = false;
+    private int random = -1;
+    private int capacity = Integer.getInteger(Simulation.CAPACITY_PROPERTY, Integer.MAX_VALUE);
+    private long seed = 42;
+    private long steps = 1000;
+    private int width = 800;
+    private int height = 600;
+    private int threads = 1;
+    private String solver = "brute";
+    private double theta = 0.5;
+    private int mesh = ParticleMeshGravity.DEFAULT_RESOLUTION;
+    private double softening = Double.NaN;
+    private double cutoff = ShortRangeGravity.DEFAULT_CUTOFF;
+    private double skin = ShortRangeGravity.DEFAULT_SKIN;
+    private boolean gravity = true;
+    private String integrator = "euler";
+    private double dt = 1;
+    private boolean ccd = false;
+    private double limit = 1;
+    private double merge = MergeStage.DEFAULT_THRESHOLD;
+
+    // Constructors
+    /**
+     * Create a HeadlessRunner from the command line arguments
+     *
+     * @param args The command line arguments
+     * @throws IllegalArgumentException If the arguments are not valid
+     */
+    private HeadlessRunner(String[] args) {
+	for (int i = 0; i < args.length; i++) {
+	    String option = args[i];
+	    if (i + 1 >= args.length) {
+		throw new IllegalArgumentException("missing value for " + option);
+	    }
+	    String value = args[++i];
+	    switch (option) {
+		case "--in":
+		    in = new File(value);
+		    break;
+		case "--out":
+		    out = new File(value);
+		    break;
+		case "--capacity":
+		    capacity = Integer.parseInt(value);
+		    break;
+		case "--resume":
+		    resume = new File(value);
+		    break;
+		case "--checkpoint":
+		    checkpoint = new File(value);
+		    break;
+		case "--checkpoint-interval":
+		    checkpointInterval = Long.parseLong(value);
+		    break;
+		case "--deterministic":
+		    if (!value.equals("on") && !value.equals("off")) {
+			throw new IllegalArgumentException("--deterministic must be on or off: " + value);
+		    }
+		    deterministic = value.equals("on");
+		    break;
+		case "--hash-log":
+		    hashLog = new File(value);
+		    break;
+		case "--record":
+		    record = new File(value);
+		    break;
+		case "--record-every":
+		    recordEvery = Integer.parseInt(value);
+		    break;
+		case "--keyframe-interval":
+		    keyframeInterval = Integer.parseInt(value);
+		    break;
+		case "--metrics":
+		    if (!value.equals("on") && !value.equals("off")) {
+			throw new IllegalArgumentException("--metrics must be on or off: " + value);
+		    }
+		    metrics = value.equals("on");
+		    break;
+		case "--events":
+		    if (!value.equals("on") && !value.equals("off")) {
+			throw new IllegalArgumentException("--events must be on or off: " + value);
+		    }
+		    events = value.equals("on");
+		    break;
+		case "--random":
+		    random = Integer.parseInt(value);
+		    break;
+		case "--seed":
+		    seed = Long.parseLong(value);
+		    break;
+		case "--steps":
+		    steps = Long.parseLong(value);
+		    break;
+		case "--width":
+		    width = Integer.parseInt(value);
+		    break;
+		case "--height":
+		    height = Integer.parseInt(value);
+		    break;
+		case "--threads":
+		    threads = Integer.parseInt(value);
+		    break;
+		case "--solver":
+		    solver = value;
+		    break;
+		case "--mesh":
+		    mesh = Integer.parseInt(value);
+		    break;
+		case "--softening":
+		    softening = Double.parseDouble(value);
+		    break;
+		case "--cutoff":
+		    cutoff = Double.parseDouble(value);
+		    break;
+		case "--skin":
+		    skin = Double.parseDouble(value);
+		    break;
+		case "--theta":
+		    theta = Double.parseDouble(value);
+		    break;
+		case "--gravity":
+		    if (!value.equals("on") && !value.equals("off")) {
+			throw new IllegalArgumentException("--gravity must be on or off: " + value);
+		    }
+		    gravity = value.equals("on");
+		    break;
+		case "--integrator":
+		    integrator = value;
+		    break;
+		case "--dt":
+		    dt = Double.parseDouble(value);
+		    break;
+		case "--ccd":
+		    if (!value.equals("on") && !value.equals("off")) {
+			throw new IllegalArgumentException("--ccd must be on or off: " + value);
+		    }
+		    ccd = value.equals("on");
+		    break;
+		case "--limit":
+		    limit = value.equals("none") ? Double.POSITIVE_INFINITY : Double.parseDouble(value);
+		    break;
+		case "--merge":
+		    merge = value.equals("off") ? Double.POSITIVE_INFINITY : Double.parseDouble(value);
+		    break;
+		default:
+		    throw new IllegalArgumentException("unknown option " + option);
+	    }
+	}
+
+	int sources = (in != null ? 1 : 0) + (random >= 0 ? 1 : 0) + (resume != null ? 1 : 0);
+	if (sources != 1) {
+	    throw new IllegalArgumentException("exactly one of --in, --random and --resume is required");
+	}
+	if (checkpointInterval < 1 || recordEvery < 1 || keyframeInterval < 1) {
+	    throw new IllegalArgumentException("--checkpoint-interval, --record-every and --keyframe-interval"
+		    + " must be at least 1");
+	}
+	// Fail on unknown names before any work is done
+	createSolver();
+	createIntegrator();
+	if (!(dt > 0)) {
+	    throw new IllegalArgumentException("--dt must be greater than 0");
+	}
+	if (!(limit > 0)) {
+	    throw new IllegalArgumentException("--limit must be greater than 0");
+	}
+	if (!(merge >= 0)) {
+	    throw new IllegalArgumentException("--merge must not be negative");
+	}
+	if (steps < 0 || capacity < 1 || width < 1 || height < 1 || threads < 1) {
+	    throw new IllegalArgumentException("--steps, --capacity, --width, --height and --threads must be positive");
+	}
+    }
+
+    // Methods
+    /**
+     * Create the Integrator named on the command line
+     *
+     * @return The Integrator
+     * @throws IllegalArgumentException If the name is not a known integrator
+     */
+    private Integrator createIntegrator() {
+	switch (integrator) {
+	    case "euler":
+		return new EulerIntegrator();
+	    case "verlet":
+		return new VelocityVerletIntegrator();
+	    case "leapfrog":
+		return new LeapfrogIntegrator();
+	    default:
+		throw new IllegalArgumentException("unknown integrator " + integrator);
+	}
+    }
+
+    /**
+     * Create the GravitySolver named on the command line
+     *
+     * @return The GravitySolver
+     * @throws IllegalArgumentException If the name is not a known solver
+     */
+    private GravitySolver createSolver() {
+	switch (solver) {
+	    case "brute":
+		return new BruteForceGravity();
+	    case "barnes-hut":
+		return new BarnesHutGravity(theta);
+	    case "mesh":
+		return new ParticleMeshGravity(mesh,
+			Double.isNaN(softening) ? ParticleMeshGravity.DEFAULT_SOFTENING : softening);
+	    case "short-range":
+		return new ShortRangeGravity(cutoff,
+			Double.isNaN(softening) ? ShortRangeGravity.DEFAULT_SOFTENING : softening, skin);
+	    default:
+		throw new IllegalArgumentException("unknown solver " + solver);
+	}
+    }
+
+    /**
+     * Print the time each phase took and the counts of the run on standard
+     * error
+     *
+     * @param metrics The metrics of the run
+     */
+    private static void printMetrics(SimulationMetrics metrics) {
+	System.err.printf("%-12s %10s %10s %10s %10s %10s%n", "phase", "count", "mean ms", "p50 ms", "p99 ms",
+		"max ms");
+	for (Map.Entry<String, LatencyHistogram.Summary> entry : metrics.getPhaseTimings().entrySet()) {
+	    LatencyHistogram.Summary summary = entry.getValue();
+	    if (summary.getCount() > 0) {
+		System.err.printf("%-12s %10d %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), summary.getCount(),
+			summary.getMean(), summary.getMedian(), summary.getP99(), summary.getMax());
+	    }
+	}
+	System.err.printf("%d pair tests, %d collisions, %d merges%n", metrics.getPairTests(),
+		metrics.getCollisions(), metrics.getMerges());
+	if (metrics.getAllocatedBytes() >= 0) {
+	    System.err.printf("%.1f MB allocated by the simulation thread%n", metrics.getAllocatedBytes() / 1e6);
+	}
+    }
+
+    /**
+     * Run the simulation from the command line
+     *
+     * @param args The command line arguments
+     */
+    public static void main(String[] args) {
+	HeadlessRunner runner;
+	try {
+	    runner = new HeadlessRunner(args);
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e.getMessage());
+	    System.err.println(USAGE);
+	    System.exit(2);
+	    return;
+	}
+
+	try {
+	    runner.run();
+	} catch (IOException e) {
+	    System.err.println(e.getMessage());
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Load the initial state, run every step and write the final state
+     *
+     * @throws IOException If a StateFile can not be read or written
+     */
+    private void run() throws IOException {
+	Simulation simulation = new Simulation(new FixedBounds(width, height), capacity);
+	simulation.setGravitySolver(createSolver());
+	simulation.setUsingGravity(gravity);
+	simulation.setIntegrator(createIntegrator());
+	simulation.setTimestep(dt);
+	simulation.setContinuousCollisions(ccd);
+	simulation.setVelocityLimit(limit);
+	simulation.setMergeThreshold(merge);
+	simulation.setDeterministic(deterministic);
+	simulation.setThreadCount(threads);
+	if (metrics) {
+	    simulation.getMetrics().register();
+	}
+	EventLog log = null;
+	if (events) {
+	    final EventLog absorptions = new EventLog(System.err, EventLog.DEFAULT_LINES_PER_SECOND);
+	    simulation.getEventBus().subscribe(new EventBus.Listener() {
+		@Override
+		public void handle(SimulationEvent event) {
+		    absorptions.log(String.format("tick %d: absorption at (%.1f, %.1f), mass %.1f",
+			    event.getTick(), event.getX(), event.getY(), event.getMass()));
+		}
+	    }, EnumSet.of(SimulationEvent.Type.ABSORPTION));
+	    log = absorptions;
+	}
+
+	int initial;
+	if (resume != null) {
+	    Checkpoint state = new Checkpoint();
+	    state.read(resume);
+	    simulation.restore(state);
+	    initial = simulation.size();
+	} else {
+	    ParticleStore batch;
+	    if (in != null) {
+		batch = new ParticleStore();
+		batch.setVelocityLimit(limit);
+		StateFile.read(in, batch);
+	    } else {
+		batch = new ParticleStore(random);
+		Random rng = new Random(seed);
+		for (int i = 0; i < random; i++) {
+		    double x = rng.nextDouble() * width, y = rng.nextDouble() * height;
+		    int mass = 1 + rng.nextInt(100);
+		    batch.add(x, y, rng.nextDouble() - 0.5, rng.nextDouble() - 0.5, mass, 2);
+		}
+	    }
+	    simulation.setSeed(seed);
+	    initial = simulation.addParticles(batch);
+	    if (initial < batch.size()) {
+		System.err.printf("capacity is %d, dropped %d particles%n", capacity, batch.size() - initial);
+	    }
+	}
+
+	Checkpointer checkpointer = null;
+	if (checkpoint != null) {
+	    checkpointer = new Checkpointer(simulation, checkpoint, checkpointInterval, TimeUnit.SECONDS);
+	    checkpointer.start();
+	}
+
+	TrajectoryRecorder recorder = null;
+	if (record != null) {
+	    recorder = new TrajectoryRecorder(record, recordEvery, keyframeInterval, 64);
+	    simulation.setTickListener(recorder);
+	}
+
+	PrintWriter hashes = null;
+	if (hashLog != null) {
+	    hashes = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+		    new FileOutputStream(hashLog), StandardCharsets.UTF_8)));
+	}
+
+	long start = System.nanoTime();
+	try {
+	    for (long i = 0; i < steps; i++) {
+		simulation.step();
+		if (hashes != null) {
+		    hashes.printf("%d %016x%n", simulation.getTick(), simulation.getStateHash());
+		}
+	    }
+	} finally {
+	    if (hashes != null) {
+		hashes.close();
+	    }
+	}
+	long elapsed = System.nanoTime() - start;
+	simulation.shutdown();
+	if (log != null) {
+	    log.close();
+	}
+	if (hashes != null && hashes.checkError()) {
+	    throw new IOException("could not write " + hashLog);
+	}
+	if (deterministic) {
+	    System.err.printf("state hash at tick %d: %016x%n", simulation.getTick(), simulation.getStateHash());
+	}
+
+	if (recorder != null) {
+	    simulation.setTickListener(null);
+	    recorder.close();
+	    System.err.printf("recorded %d frames (%d dropped), %d bytes to %s%n", recorder.getRecordedFrames(),
+		    recorder.getDroppedFrames(), recorder.getBytes(), record);
+	}
+
+	if (checkpointer != null) {
+	    try {
+		checkpointer.stop();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	    checkpointer.checkpoint();
+	    System.err.printf("checkpoint at tick %d written to %s%n", simulation.getTick(), checkpoint);
+	}
+
+	if (out != null) {
+	    ParticleStore result = new ParticleStore();
+	    simulation.copyParticles(result);
+	    StateFile.write(out, result);
+	}
+
+	if (metrics) {
+	    printMetrics(simulation.getMetrics());
+	}
+
+	double seconds = elapsed / 1e9;
+	System.err.printf("%d steps, %d -> %d particles, %.3f s, %.1f steps/s%n", steps, initial,
+		simulation.size(), seconds, (seconds > 0) ? steps / seconds : Double.POSITIVE_INFINITY);
+    }
+}
@@ -0,0 +1,196 @@
+package diddies;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HitTestIndex answers whether a point is inside any Particle for a user
+ * interface, which asks on every mouse press and release, without waiting for
+ * the tick in progress and without looking at every Particle.
+ *
+ * The physics thread builds a grid of the Particles' centers and radii at the
+ * end of a tick, with cells at least as wide as the widest Particle, so a
+ * point can only be inside a Particle whose center is in the point's cell or
+ * a neighboring one. A hit test then checks nine cells, however many Particles
+ * there are. Only the centers and radii are kept, sorted by cell, so building
+ * the grid costs one counting sort rather than a copy of the whole store.
+ *
+ * A grid is built at the end of every tick, and handed over with a triple
+ * buffer like SnapshotExchange, so a hit test always answers as of the last
+ * tick and never waits for the one in progress. Before the first tick there
+ * is nothing to hit.
+ *
+ * There must be only one thread building and one thread testing.
+ *
+ * @author Ryan Kenney
+ */
+public class HitTestIndex {
+
+    // Attributes
+    private final static int FRESH = 4;
+    private final static int INDEX = 3;
+    private final Grid[] buffers;
+    private final AtomicInteger middle;
+    private int back;
+    private int front;
+
+    // Constructors
+    /**
+     * Create a HitTestIndex with three empty grids
+     */
+    public HitTestIndex() {
+	buffers = new Grid[]{new Grid(), new Grid(), new Grid()};
+	front = 0;
+	middle = new AtomicInteger(1);
+	back = 2;
+    }
+
+    // Methods
+    /**
+     * Check if (<i>px</i>, <i>py</i>) is inside of any of the Particles in the
+     * most recently built grid. Only the testing thread may call this.
+     *
+     * @param px The X component of the point
+     * @param py The Y component of the point
+     * @return True if the point is inside a Particle, false otherwise
+     */
+    public boolean contains(double px, double py) {
+	if ((middle.get() & FRESH) != 0) {
+	    front = middle.getAndSet(front) & INDEX;
+	}
+	return buffers[front].contains(px, py);
+    }
+
+    /**
+     * Build a grid of <i>particles</i> in a Space of <i>width</i> by
+     * <i>height</i>, replacing the last one if it has not been looked at yet.
+     * Only the building thread may call this.
+     *
+     * @param particles The Particles
+     * @param width The width of the Space
+     * @param height The height of the Space
+     */
+    public void publish(ParticleStore particles, int width, int height) {
+	buffers[back].build(particles, width, height);
+	back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * A Grid is the centers and radii of the Particles as of one tick, sorted
+     * into square cells
+     */
+    private static class Grid {
+
+	// Attributes
+	private final static int MIN_CELLS = 1024;
+	private final static int CELLS_PER_PARTICLE = 4;
+	private double cellSize = 1;
+	private int columns;
+	private int rows;
+	// The Particles in cell c are [cellStart[c]..cellStart[c + 1] - 1]
+	private int[] cellStart = new int[2];
+	private int[] cellOf = new int[0];
+	private double[] x = new double[0];
+	private double[] y = new double[0];
+	private double[] radius = new double[0];
+
+	// Methods
+	/**
+	 * Sort the centers and radii of <i>particles</i> into cells covering a
+	 * Space of <i>width</i> by <i>height</i>
+	 *
+	 * @param particles The Particles
+	 * @param width The width of the Space
+	 * @param height The height of the Space
+	 */
+	private void build(ParticleStore particles, double width, double height) {
+	    int size = particles.size();
+	    width = Math.max(width, 1);
+	    height = Math.max(height, 1);
+
+	    int maxDiameter = 1;
+	    for (int i = 0; i < size; i++) {
+		maxDiameter = Math.max(maxDiameter, particles.diameter[i]);
+	    }
+	    cellSize = maxDiameter;
+	    int maxCells = Math.max(MIN_CELLS, CELLS_PER_PARTICLE * size);
+	    if ((width / cellSize) * (height / cellSize) > maxCells) {
+		cellSize = Math.sqrt((width * height) / maxCells);
+	    }
+	    columns = Math.max(1, (int) Math.ceil(width / cellSize));
+	    rows = Math.max(1, (int) Math.ceil(height / cellSize));
+	    int cells = columns * rows;
+
+	    if (cellStart.length < cells + 1) {
+		cellStart = new int[Math.max(cells + 1, cellStart.length * 2)];
+	    }
+	    if (cellOf.length < size) {
+		int length = Math.max(size, cellOf.length * 2);
+		cellOf = new int[length];
+		x = new double[length];
+		y = new double[length];
+		radius = new double[length];
+	    }
+
+	    // Count the Particles in each cell, turn the counts into starting
+	    // points and drop each Particle into place, as SpatialGrid does
+	    Arrays.fill(cellStart, 0, cells + 1, 0);
+	    for (int i = 0; i < size; i++) {
+		cellOf[i] = cellOf(particles.getCenterX(i), particles.getCenterY(i));
+		cellStart[cellOf[i] + 1]++;
+	    }
+	    for (int cell = 0; cell < cells; cell++) {
+		cellStart[cell + 1] += cellStart[cell];
+	    }
+	    for (int i = 0; i < size; i++) {
+		int slot = cellStart[cellOf[i]]++;
+		x[slot] = particles.getCenterX(i);
+		y[slot] = particles.getCenterY(i);
+		radius[slot] = particles.diameter[i] * 0.5;
+	    }
+	    System.arraycopy(cellStart, 0, cellStart, 1, cells);
+	    cellStart[0] = 0;
+	}
+
+	/**
+	 * Get the cell (<i>px</i>, <i>py</i>) is in, or the nearest edge cell
+	 * if it is outside of the Space
+	 *
+	 * @param px The X component of the point
+	 * @param py The Y component of the point
+	 * @return The cell
+	 */
+	private int cellOf(double px, double py) {
+	    int column = Math.min(Math.max((int) (px / cellSize), 0), columns - 1);
+	    int row = Math.min(Math.max((int) (py / cellSize), 0), rows - 1);
+	    return row * columns + column;
+	}
+
+	/**
+	 * Check if (<i>px</i>, <i>py</i>) is inside of any of the Particles,
+	 * which can only be the ones in its cell and the neighboring ones
+	 *
+	 * @param px The X component of the point
+	 * @param py The Y component of the point
+	 * @return True if the point is inside a Particle, false otherwise
+	 */
+	private boolean contains(double px, double py) {
+	    if (columns == 0) {
+		return false;
+	    }
+	    int cell = cellOf(px, py);
+	    int column = cell % columns, row = cell / columns;
+	    for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, rows - 1); r++) {
+		for (int c = Math.max(column - 1, 0); c <= Math.min(column + 1, columns - 1); c++) {
+		    int neighbor = r * columns + c;
+		    for (int i = cellStart[neighbor]; i < cellStart[neighbor + 1]; i++) {
+			if (CircleGeometry.contains(x[i], y[i], radius[i], px, py)) {
+			    return true;
+			}
+		    }
+		}
+	    }
+	    return false;
+	}
+    }
+}
@@ -0,0 +1,54 @@
+package diddies;
+
+/**
+ * An Integrator is the strategy the Simulation uses to move the Particles
+ * forward in time. Each step it is handed an explicit timestep and a way to
+ * work out the forces, and decides in what order and by how much to move the
+ * Particles (a drift) and change their velocities (a kick).
+ *
+ * Velocities are in pixels per unit of time, and one unit is one tick of the
+ * original simulation, so a timestep of 1 reproduces the old behaviour. Kicks
+ * still go through ParticleStore.addVelocity(), so the velocity limit of
+ * Velocity applies no matter which Integrator is used.
+ *
+ * @author Ryan Kenney
+ */
+public interface Integrator {
+
+    /**
+     * Advance <i>particles</i> by <i>dt</i>. Walls and collisions are not the
+     * Integrator's business; the Simulation handles them afterwards.
+     *
+     * @param particles The Particles to move
+     * @param dt The timestep, greater than 0
+     * @param forces Works out the acceleration of every Particle
+     * @param runner The BlockRunner to split the work with
+     */
+    public void step(ParticleStore particles, double dt, Forces forces, BlockRunner runner);
+
+    /**
+     * Forget anything kept from the last step about the forces on the
+     * Particles. The Simulation calls this whenever something other than the
+     * Integrator moves a Particle or changes the forces, such as a collision
+     * moving Particles to where they touched or gravity being turned off.
+     */
+    public void invalidate();
+
+    /**
+     * Forces works out the acceleration of every Particle at their current
+     * positions.
+     */
+    public interface Forces {
+
+	/**
+	 * Write the acceleration of every Particle in <i>particles</i> to
+	 * <i>accelX</i> and <i>accelY</i>, just like
+	 * GravitySolver.accelerate().
+	 *
+	 * @param particles The Particles
+	 * @param accelX Where to write the X components, at least size() long
+	 * @param accelY Where to write the Y components, at least size() long
+	 */
+	public void accelerate(ParticleStore particles, double[] accelX, double[] accelY);
+    }
+}
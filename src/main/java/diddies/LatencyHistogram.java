@@ -0,0 +1,234 @@
+package diddies;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts durations in buckets whose width grows with the
+ * value, the way an HDR histogram does: every power of two is split into 16
+ * equal buckets, so any duration from a nanosecond to centuries is kept to
+ * within about 6% in under a thousand counters, and recording one is an index
+ * calculation and an increment. Percentiles are read straight off the counts,
+ * so unlike a running average they show the slow ticks as well as the usual
+ * ones.
+ *
+ * Recording and reading are safe from any threads. A reader racing a writer
+ * may see one recording counted in some totals and not yet in others, which
+ * does not matter for metrics.
+ *
+ * @author Ryan Kenney
+ */
+public class LatencyHistogram {
+
+    // Attributes
+    private final static int SUB_BUCKET_BITS = 4;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final static int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // Methods
+    /**
+     * Get the number of durations recorded
+     *
+     * @return The count
+     */
+    public long getCount() {
+	return count.get();
+    }
+
+    /**
+     * Get the longest duration recorded
+     *
+     * @return The duration, in nanoseconds
+     */
+    public long getMax() {
+	return max.get();
+    }
+
+    /**
+     * Get the average duration recorded
+     *
+     * @return The mean, in nanoseconds, or 0 if nothing was recorded
+     */
+    public double getMean() {
+	long n = count.get();
+	return (n == 0) ? 0 : sum.get() / (double) n;
+    }
+
+    /**
+     * Get the duration that <i>percentile</i> percent of the recorded ones
+     * are no longer than, to within the width of its bucket
+     *
+     * @param percentile The percentile, from 0 to 100
+     * @return The duration, in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+	long total = 0;
+	for (int b = 0; b < BUCKETS; b++) {
+	    total += counts.get(b);
+	}
+	if (total == 0) {
+	    return 0;
+	}
+	long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+	long seen = 0;
+	for (int b = 0; b < BUCKETS; b++) {
+	    seen += counts.get(b);
+	    if (seen >= rank) {
+		return Math.min(highest(b), max.get());
+	    }
+	}
+	return max.get();
+    }
+
+    /**
+     * Get the largest duration that falls in bucket <i>b</i>
+     *
+     * @param b The bucket
+     * @return The duration, in nanoseconds
+     */
+    private static long highest(int b) {
+	if (b < SUB_BUCKETS) {
+	    return b;
+	}
+	int shift = b / SUB_BUCKETS - 1;
+	long lowest = (long) (SUB_BUCKETS + b % SUB_BUCKETS) << shift;
+	return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Get the bucket that <i>value</i> falls in
+     *
+     * @param value The duration, which must not be negative
+     * @return The bucket
+     */
+    private static int index(long value) {
+	if (value < SUB_BUCKETS) {
+	    return (int) value;
+	}
+	int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+	return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Record a duration. Negative durations, which a clock that went
+     * backwards could produce, are recorded as 0.
+     *
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record(long nanos) {
+	long value = Math.max(0, nanos);
+	counts.incrementAndGet(index(value));
+	count.incrementAndGet();
+	sum.addAndGet(value);
+	long current = max.get();
+	while (value > current && !max.compareAndSet(current, value)) {
+	    current = max.get();
+	}
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public void reset() {
+	for (int b = 0; b < BUCKETS; b++) {
+	    counts.set(b, 0);
+	}
+	count.set(0);
+	sum.set(0);
+	max.set(0);
+    }
+
+    /**
+     * Get the usual figures of the histogram at once, in milliseconds, in a
+     * form JMX can publish
+     *
+     * @return The Summary
+     */
+    public Summary summarize() {
+	return new Summary(getCount(), getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(99) / 1e6,
+		getMax() / 1e6);
+    }
+
+    /**
+     * A Summary is the usual figures of a LatencyHistogram at one moment, in
+     * milliseconds
+     */
+    public static class Summary {
+
+	// Attributes
+	private final long count;
+	private final double mean;
+	private final double median;
+	private final double p99;
+	private final double max;
+
+	// Constructors
+	/**
+	 * Create a Summary
+	 *
+	 * @param count The number of durations
+	 * @param mean The average duration
+	 * @param median The 50th percentile
+	 * @param p99 The 99th percentile
+	 * @param max The longest duration
+	 */
+	@java.beans.ConstructorProperties({"count", "mean", "median", "p99", "max"})
+	public Summary(long count, double mean, double median, double p99, double max) {
+	    this.count = count;
+	    this.mean = mean;
+	    this.median = median;
+	    this.p99 = p99;
+	    this.max = max;
+	}
+
+	// Methods
+	/**
+	 * Get the number of durations
+	 *
+	 * @return The count
+	 */
+	public long getCount() {
+	    return count;
+	}
+
+	/**
+	 * Get the longest duration
+	 *
+	 * @return The duration, in milliseconds
+	 */
+	public double getMax() {
+	    return max;
+	}
+
+	/**
+	 * Get the average duration
+	 *
+	 * @return The duration, in milliseconds
+	 */
+	public double getMean() {
+	    return mean;
+	}
+
+	/**
+	 * Get the 50th percentile
+	 *
+	 * @return The duration, in milliseconds
+	 */
+	public double getMedian() {
+	    return median;
+	}
+
+	/**
+	 * Get the 99th percentile
+	 *
+	 * @return The duration, in milliseconds
+	 */
+	public double getP99() {
+	    return p99;
+	}
+    }
+}
@@ -0,0 +1,32 @@
+package diddies;
+
+/**
+ * Leapfrog in its drift-kick-drift form: move every Particle for half a
+ * timestep, kick it with the acceleration at that midpoint for a whole one,
+ * then move it for the other half. It is symplectic and second order, so the
+ * energy error stays bounded instead of drifting, and it needs only one force
+ * calculation per step.
+ *
+ * @author Ryan Kenney
+ */
+public class LeapfrogIntegrator extends AbstractIntegrator {
+
+    // Methods
+    /**
+     * Drift for <i>dt</i>/2, kick for <i>dt</i>, drift for <i>dt</i>/2
+     *
+     * @param particles The Particles to move
+     * @param dt The timestep
+     * @param forces Works out the acceleration of every Particle
+     * @param runner The BlockRunner to split the work with
+     */
+    @Override
+    public void step(ParticleStore particles, double dt, Forces forces, BlockRunner runner) {
+	begin(particles, runner);
+	drift(dt / 2);
+	accelerate(forces);
+	kick(dt);
+	drift(dt / 2);
+	end();
+    }
+}
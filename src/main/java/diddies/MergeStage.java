@@ -0,0 +1,250 @@
+package diddies;
+
+import java.util.Arrays;
+
+/**
+ * MergeStage is where Particles that have run into each other hard enough
+ * stick together. Two Particles merge when they overlap by at least the
+ * threshold times the smaller one's diameter, so the default threshold of 1
+ * merges a Particle once it is entirely inside another, and smaller thresholds
+ * merge on lighter contact. Particles whose centers coincide always overlap
+ * by more than that, so this replaces the exact-equality check the gravity
+ * solvers used to make.
+ *
+ * The overlapping pairs come from a SpatialGrid and are joined with a
+ * union-find, so a chain of merges (A into B, B into C) ends up as one group
+ * in a single pass, however the pairs were ordered. Each group is then
+ * collapsed into its heaviest member: the masses add up, the new Particle
+ * sits at the group's center of mass and moves with its total momentum, and
+ * its area is the sum of theirs. Every other member is marked for removal, so
+ * the store is compacted in one O(n) pass by removeMarked() afterwards, no
+ * matter how many Particles merged.
+ *
+ * The arrays are reused from one tick to the next, so once they have grown to
+ * fit the simulation a pass does not allocate. Each Particle absorbed is
+ * published to an EventBus, if there is one, which never holds up the pass.
+ *
+ * @author Ryan Kenney
+ */
+public class MergeStage {
+
+    // Attributes
+    public final static double DEFAULT_THRESHOLD = 1;
+    private double threshold = DEFAULT_THRESHOLD;
+    private final EventBus events;
+    // The groups, as a forest. parent[i] == i for the root of each group.
+    private int[] parent = new int[0];
+    // Totals for each group, kept at its root
+    private double[] mass = new double[0];
+    private double[] momentumX = new double[0];
+    private double[] momentumY = new double[0];
+    private double[] weightedX = new double[0];
+    private double[] weightedY = new double[0];
+    private double[] area = new double[0];
+    private boolean[] grouped = new boolean[0];
+    // The current pass, for the visitor
+    private ParticleStore particles;
+    private boolean joined;
+    private final SpatialGrid.PairVisitor join;
+
+    // Constructors
+    /**
+     * Create a MergeStage with the default threshold, that reports nothing
+     */
+    public MergeStage() {
+	this(null);
+    }
+
+    /**
+     * Create a MergeStage with the default threshold
+     *
+     * @param events Where to publish each absorption, or null for nowhere
+     */
+    public MergeStage(EventBus events) {
+	this.events = events;
+	join = new SpatialGrid.PairVisitor() {
+	    @Override
+	    public void visit(int i, int j) {
+		if (particles.isMarked(i) || particles.isMarked(j)) {
+		    return;
+		}
+		double smaller = Math.min(particles.diameter[i], particles.diameter[j]);
+		if (particles.penetrationDepth(i, j) >= threshold * smaller) {
+		    union(i, j);
+		    joined = true;
+		}
+	    }
+	};
+    }
+
+    // Methods
+    /**
+     * Make sure the arrays can hold <i>n</i> Particles
+     *
+     * @param n The number of Particles
+     */
+    private void ensureCapacity(int n) {
+	if (parent.length < n) {
+	    int capacity = Math.max(n, parent.length * 2);
+	    parent = new int[capacity];
+	    mass = new double[capacity];
+	    momentumX = new double[capacity];
+	    momentumY = new double[capacity];
+	    weightedX = new double[capacity];
+	    weightedY = new double[capacity];
+	    area = new double[capacity];
+	    grouped = new boolean[capacity];
+	}
+    }
+
+    /**
+     * Find the root of the group that holds Particle <i>i</i>, halving the
+     * path to it on the way
+     *
+     * @param i The index of the Particle
+     * @return The index of the root
+     */
+    private int find(int i) {
+	while (parent[i] != i) {
+	    parent[i] = parent[parent[i]];
+	    i = parent[i];
+	}
+	return i;
+    }
+
+    /**
+     * Get how far Particles have to overlap to merge, as a fraction of the
+     * smaller one's diameter
+     *
+     * @return The threshold
+     */
+    public double getThreshold() {
+	return threshold;
+    }
+
+    /**
+     * Merge every group of Particles in <i>particles</i> that overlap by at
+     * least the threshold. <i>grid</i> must have been rebuilt from
+     * <i>particles</i> since they last moved. The merged Particles are marked
+     * for removal, and the caller is expected to call removeMarked().
+     *
+     * @param particles The Particles to merge
+     * @param grid The SpatialGrid holding <i>particles</i>
+     * @return The number of Particles marked for removal
+     */
+    public int merge(ParticleStore particles, SpatialGrid grid) {
+	if (threshold == Double.POSITIVE_INFINITY) {
+	    return 0;
+	}
+	final int n = particles.size();
+	ensureCapacity(n);
+	for (int i = 0; i < n; i++) {
+	    parent[i] = i;
+	}
+
+	this.particles = particles;
+	joined = false;
+	grid.forEachCandidatePair(join);
+	this.particles = null;
+	if (!joined) {
+	    return 0;
+	}
+
+	// Total up each group at its root
+	final double[] m = particles.mass, vx = particles.vx, vy = particles.vy;
+	final int[] diameter = particles.diameter;
+	Arrays.fill(grouped, 0, n, false);
+	for (int i = 0; i < n; i++) {
+	    int root = find(i);
+	    if (root == i) {
+		continue;
+	    }
+	    if (!grouped[root]) {
+		grouped[root] = true;
+		start(particles, root);
+	    }
+	    mass[root] += m[i];
+	    momentumX[root] += m[i] * vx[i];
+	    momentumY[root] += m[i] * vy[i];
+	    weightedX[root] += m[i] * particles.getCenterX(i);
+	    weightedY[root] += m[i] * particles.getCenterY(i);
+	    area[root] += (double) diameter[i] * diameter[i];
+	}
+
+	// Collapse each group into its root
+	boolean publishing = events != null && events.isPublishing(SimulationEvent.Type.ABSORPTION);
+	int merged = 0;
+	for (int i = 0; i < n; i++) {
+	    int root = find(i);
+	    if (root != i) {
+		if (publishing) {
+		    double dvx = vx[i] - momentumX[root] / mass[root], dvy = vy[i] - momentumY[root] / mass[root];
+		    events.publish(SimulationEvent.Type.ABSORPTION, particles.getCenterX(i),
+			    particles.getCenterY(i), m[i], Math.sqrt(dvx * dvx + dvy * dvy));
+		}
+		particles.markRemoved(i);
+		merged++;
+	    } else if (grouped[i]) {
+		int size = Math.max(1, (int) Math.round(Math.sqrt(area[i])));
+		particles.mass[i] = mass[i];
+		particles.diameter[i] = size;
+		particles.setLocation(i, weightedX[i] / mass[i] - size / 2.0, weightedY[i] / mass[i] - size / 2.0);
+		particles.setVelocity(i, momentumX[i] / mass[i], momentumY[i] / mass[i]);
+	    }
+	}
+	return merged;
+    }
+
+    /**
+     * Set how far Particles have to overlap to merge, as a fraction of the
+     * smaller one's diameter. 1 merges a Particle once it is entirely inside
+     * another, 0 merges Particles as soon as they touch, and
+     * Double.POSITIVE_INFINITY never merges anything.
+     *
+     * @param threshold The threshold, which must not be negative
+     */
+    public void setThreshold(double threshold) {
+	if (!(threshold >= 0)) {
+	    throw new IllegalArgumentException("threshold must be non-negative: " + threshold);
+	}
+	this.threshold = threshold;
+    }
+
+    /**
+     * Start the totals of a group with its root, Particle <i>i</i>
+     *
+     * @param particles The store that holds the Particle
+     * @param i The index of the root
+     */
+    private void start(ParticleStore particles, int i) {
+	double m = particles.mass[i];
+	mass[i] = m;
+	momentumX[i] = m * particles.vx[i];
+	momentumY[i] = m * particles.vy[i];
+	weightedX[i] = m * particles.getCenterX(i);
+	weightedY[i] = m * particles.getCenterY(i);
+	area[i] = (double) particles.diameter[i] * particles.diameter[i];
+    }
+
+    /**
+     * Join the groups that hold Particles <i>i</i> and <i>j</i>. The heavier
+     * root becomes the root of both, and of two equal roots the one with the
+     * smaller index, so the survivor does not depend on the order the pairs
+     * were found in.
+     *
+     * @param i The index of the first Particle
+     * @param j The index of the second Particle
+     */
+    private void union(int i, int j) {
+	int a = find(i), b = find(j);
+	if (a == b) {
+	    return;
+	}
+	double massA = particles.mass[a], massB = particles.mass[b];
+	if (massB > massA || (massB == massA && b < a)) {
+	    parent[a] = b;
+	} else {
+	    parent[b] = a;
+	}
+    }
+}
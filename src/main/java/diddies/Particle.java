@@ -4,27 +4,31 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
-import java.awt.geom.Area;
-import java.awt.geom.Ellipse2D;
 import java.awt.geom.Point2D;
 
 /**
- * The graphical and logical encapsulation of a particle. Particle stores a
+ * The graphical and logical encapsulation of a particle. Particle has a
  * position and velocity, as well as a diameter. Diameter is used to calculate
  * the density of the particle (mass per area), which is represented visually by
  * differing colors. The higher the density, the higher the frequency of light
  * (bluer).
  *
+ * A Particle does not hold any of that state itself. It is a view of one index
+ * in a ParticleStore, which is where the physics actually happens. A Particle
+ * created with the public constructor gets a store of its own, so it can be
+ * set up before it is handed to an Updater, which copies it into the shared
+ * store. Since removing from a store reorders it, a view of a shared store is
+ * only good until the next tick.
+ *
  * @author Ryan Kenney
  */
 public class Particle {
     // Attributes
 
-    private int diameter;
-    private Point2D position;
-    private Velocity velocity;
-    private double mass;
-    private Color color;
+    // The colors by density, from least to most dense
+    final static Color[] COLORS = {Color.RED, Color.ORANGE, Color.YELLOW, Color.WHITE, Color.BLUE};
+    private final ParticleStore store;
+    private final int index;
 
     // Constructors
     /**
@@ -37,24 +41,31 @@ public class Particle {
      * @param radius The radius of the particle, in pixels
      */
     public Particle(Point2D position, double mass, int radius) {
-	this.position = position;
-	this.mass = mass;
-	velocity = new Velocity(0, 0);
-	color = getColor(mass, radius);
-	diameter = radius * 2;
+	store = new ParticleStore(1);
+	index = store.add(position.getX(), position.getY(), 0, 0, mass, radius * 2);
+    }
+
+    /**
+     * Create a view of Particle <i>index</i> in <i>store</i>
+     *
+     * @param store The ParticleStore that holds the Particle
+     * @param index The index of the Particle in <i>store</i>
+     */
+    Particle(ParticleStore store, int index) {
+	this.store = store;
+	this.index = index;
     }
 
     // Methods
     /**
-     * Absorb <i>p</p> into the Particle. The particle takes all of the mass and
-     * 1/4 of the diameter from <i>p</p>.
+     * Adds (<i>dx</i>, <i>dy</i>) to the current Velocity, without creating a
+     * Velocity to do it.
      *
-     * @param p The Particle to absorb
+     * @param dx The change in the X component
+     * @param dy The change in the Y component
      */
-    public void absorb(Particle p) {
-	this.mass += p.mass;
-	this.diameter += Math.ceil(p.diameter / 4);
-	this.color = getColor(mass, diameter / 2);
+    public void addVelocity(double dx, double dy) {
+	store.addVelocity(index, dx, dy);
     }
 
     /**
@@ -63,7 +74,7 @@ public class Particle {
      * @param v The Velocity to apply
      */
     public void applyForce(Velocity v) {
-	velocity.applyVelocity(v);
+	store.addVelocity(index, v.getX(), v.getY());
     }
 
     /**
@@ -79,9 +90,10 @@ public class Particle {
     public void applyForce(Velocity force, double sourceMass) {
 	// In a one-dimensional elastic collision, the force after a collision:
 	// v = ((v*(m-other.m))+(2*other.m*other.v))/(m+other.m)
-	double newX = ((velocity.getX() * (mass - sourceMass)) + (2 * sourceMass * force.getX())) / (mass + sourceMass);
-	double newY = ((velocity.getY() * (mass - sourceMass)) + (2 * sourceMass * force.getY())) / (mass + sourceMass);
-	velocity.applyVelocity(new Velocity(newX, newY));
+	double mass = getMass();
+	double newX = ((store.vx[index] * (mass - sourceMass)) + (2 * sourceMass * force.getX())) / (mass + sourceMass);
+	double newY = ((store.vy[index] * (mass - sourceMass)) + (2 * sourceMass * force.getY())) / (mass + sourceMass);
+	store.addVelocity(index, Velocity.clamp(newX), Velocity.clamp(newY));
     }
 
     /**
@@ -90,8 +102,7 @@ public class Particle {
      * it makes sense to call this method each unit of time.
      */
     public void applyMomentum() {
-	position.setLocation(position.getX() + velocity.getX(),
-		position.getY() + velocity.getY());
+	store.move(index);
     }
 
     /**
@@ -101,8 +112,7 @@ public class Particle {
      * @return True if <i>p</i> is contained in the Particle, false otherwise
      */
     public boolean contains(Point p) {
-	Area area = new Area(new Ellipse2D.Double(position.getX(), position.getY(), diameter, diameter));
-	return area.contains(p);
+	return store.contains(index, p.getX(), p.getY());
     }
 
     /**
@@ -114,8 +124,8 @@ public class Particle {
     public void draw(Graphics g) {
 	Graphics2D g2 = (Graphics2D) g;
 
-	g2.setColor(color);
-	g2.fillOval((int) position.getX(), (int) position.getY(), diameter, diameter);
+	g2.setColor(getColor(getMass(), getDiameter() / 2));
+	g2.fillOval((int) getX(), (int) getY(), getDiameter(), getDiameter());
     }
 
     /**
@@ -125,8 +135,37 @@ public class Particle {
      * @return The center of the PArticle
      */
     public Point2D getCenterMass() {
-	double radius = diameter / 2;
-	return new Point2D.Double(position.getX() + radius, position.getY() + radius);
+	return new Point2D.Double(getCenterX(), getCenterY());
+    }
+
+    /**
+     * Copy the center point of the Particle into <i>result</i>. This is the
+     * same as getCenterMass(), but without creating a new Point2D.
+     *
+     * @param result The Point2D to store the center in
+     * @return <i>result</i>
+     */
+    public Point2D getCenterMass(Point2D result) {
+	result.setLocation(getCenterX(), getCenterY());
+	return result;
+    }
+
+    /**
+     * Get the X component of the center of the Particle
+     *
+     * @return The X component of the center
+     */
+    public double getCenterX() {
+	return store.getCenterX(index);
+    }
+
+    /**
+     * Get the Y component of the center of the Particle
+     *
+     * @return The Y component of the center
+     */
+    public double getCenterY() {
+	return store.getCenterY(index);
     }
 
     /**
@@ -138,18 +177,30 @@ public class Particle {
      * @return The Color of the Particle by density
      */
     private static Color getColor(double mass, double radius) {
+	return COLORS[getColorIndex(mass, radius)];
+    }
+
+    /**
+     * Returns the index in COLORS of the Color for a density, for sorting
+     * Particles by Color without comparing Colors
+     *
+     * @param mass The mass of the Particle
+     * @param radius The radius of the Particle
+     * @return The index of the Particle's Color by density
+     */
+    static int getColorIndex(double mass, double radius) {
 	// density = mass per unit volume
 	double density = mass / (Math.PI * Math.pow(radius, 2));
 	if (density <= .03) {
-	    return Color.RED;
+	    return 0;
 	} else if (density <= .1) {
-	    return Color.ORANGE;
+	    return 1;
 	} else if (density <= .5) {
-	    return Color.YELLOW;
+	    return 2;
 	} else if (density <= 1) {
-	    return Color.WHITE;
+	    return 3;
 	} else {
-	    return Color.BLUE;
+	    return 4;
 	}
     }
 
@@ -159,7 +210,16 @@ public class Particle {
      * @return The Particle's diameter
      */
     public int getDiameter() {
-	return diameter;
+	return store.diameter[index];
+    }
+
+    /**
+     * Get the index of the Particle in its ParticleStore
+     *
+     * @return The Particle's index
+     */
+    int getIndex() {
+	return index;
     }
 
     /**
@@ -168,16 +228,26 @@ public class Particle {
      * @return The Particle's mass
      */
     public double getMass() {
-	return mass;
+	return store.mass[index];
     }
 
     /**
-     * Get the momentum (Velocity) of the Particle
+     * Get the momentum (Velocity) of the Particle. The Velocity is a copy, so
+     * changing it does not change the Particle; use applyForce() for that.
      *
      * @return The Particle's momentum
      */
     public Velocity getMomentum() {
-	return velocity;
+	return new Velocity(store.vx[index], store.vy[index]);
+    }
+
+    /**
+     * Get the ParticleStore that holds the Particle
+     *
+     * @return The Particle's ParticleStore
+     */
+    ParticleStore getStore() {
+	return store;
     }
 
     /**
@@ -186,7 +256,7 @@ public class Particle {
      * @return The X component of the Particle's position
      */
     public double getX() {
-	return position.getX();
+	return store.x[index];
     }
 
     /**
@@ -195,7 +265,7 @@ public class Particle {
      * @return The Y component of the Particle's position
      */
     public double getY() {
-	return position.getY();
+	return store.y[index];
     }
 
     /**
@@ -205,10 +275,8 @@ public class Particle {
      * @return True if the Particle's overlap, false otherwise
      */
     public boolean intersects(Particle p) {
-	Area area1 = new Area(new Ellipse2D.Double(position.getX(), position.getY(), diameter, diameter));
-	Area area2 = new Area(new Ellipse2D.Double(p.position.getX(), p.position.getY(), p.diameter, p.diameter));
-	area1.intersect(area2);
-	return !area1.isEmpty();
+	return CircleGeometry.overlaps(getCenterX(), getCenterY(), getDiameter() * 0.5,
+		p.getCenterX(), p.getCenterY(), p.getDiameter() * 0.5);
     }
 
     /**
@@ -218,6 +286,6 @@ public class Particle {
      * @param y The Y component to sey
      */
     public void setLocation(double x, double y) {
-	position.setLocation(x, y);
+	store.setLocation(index, x, y);
     }
 }
\ No newline at end of file
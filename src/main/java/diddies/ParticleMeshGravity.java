@@ -0,0 +1,489 @@
+package diddies;
+
+import java.util.Arrays;
+
+/**
+ * A GravitySolver that works out the attraction on a mesh rather than between
+ * Particles, for simulations far too large for even BarnesHutGravity. Each
+ * tick the mass of every Particle is spread over the four mesh cells nearest
+ * its center with cloud-in-cell weights, the mesh is convolved with the force
+ * of a unit mass, and the force in the four cells is blended back to the
+ * Particle with the same weights. The convolution is done with fast Fourier
+ * transforms, so a tick costs O(n + m log m) for m cells no matter how the
+ * Particles are spread out.
+ *
+ * The force is the softened (G*m1*m2)/d^2 of the other solvers, the gradient
+ * of a Plummer potential m/sqrt(d^2 + e^2), rather than the logarithmic
+ * potential of two dimensional Poisson. Its X and Y components are worked out
+ * exactly for every cell offset and transformed once, so no derivative of the
+ * potential has to be taken on the mesh. Since the kernel is odd and both
+ * passes use the same weights, a Particle exerts no force on itself and
+ * momentum is conserved.
+ *
+ * The mesh covers the centers of mass of the Particles, which the walls keep
+ * inside the Space. It is padded with zeros to twice its size in each
+ * direction so the transform does not wrap the far side of the mesh around
+ * onto the near side, which makes the result that of an isolated system. The
+ * cell size is rounded up to a power of two, so the kernel only has to be
+ * transformed again when the Particles spread out or gather by a factor of
+ * two.
+ *
+ * Accuracy is limited by the cell size: Particles much closer than a cell or
+ * two feel roughly the softened force rather than the exact one, so the mesh
+ * suits large, fairly even distributions. Every pass splits its rows, columns
+ * or Particles into blocks with the BlockRunner, and every value is worked out
+ * the same way whichever block it lands in, so the result does not depend on
+ * the threads.
+ *
+ * @author Ryan Kenney
+ */
+public class ParticleMeshGravity implements GravitySolver {
+
+    // Attributes
+    public final static int DEFAULT_RESOLUTION = 256;
+    public final static double DEFAULT_SOFTENING = 10;
+    private int resolution;
+    private double softening;
+    // The padded mesh, size x size, by row
+    private int size;
+    private double[] meshReal = new double[0];
+    private double[] meshImaginary = new double[0];
+    // The transformed force of a unit mass, by component
+    private double[] kernelXReal = new double[0];
+    private double[] kernelXImaginary = new double[0];
+    private double[] kernelYReal = new double[0];
+    private double[] kernelYImaginary = new double[0];
+    private double kernelCell;
+    private double kernelSoftening;
+    // Transforms of length size
+    private double[] cos = new double[0];
+    private double[] sin = new double[0];
+    private int[] reversed = new int[0];
+    // Where the mesh is this tick
+    private double originX;
+    private double originY;
+    private double cell;
+    // The current pass, for the blocks
+    private double[] passReal;
+    private double[] passImaginary;
+    private boolean inverse;
+    private double[][] scratchReal = new double[0][];
+    private double[][] scratchImaginary = new double[0][];
+    private ParticleStore particles;
+    private double scale;
+    private double[] outX;
+    private double[] outY;
+    private final BlockRunner.Block rows;
+    private final BlockRunner.Block columns;
+    private final BlockRunner.Block convolve;
+    private final BlockRunner.Block interpolate;
+    // Scratch space for apply(), reused between ticks
+    private double[] accelX = new double[0];
+    private double[] accelY = new double[0];
+
+    // Constructors
+    /**
+     * Create a ParticleMeshGravity with the default resolution of 256 cells
+     * across and the default softening of 10 pixels
+     */
+    public ParticleMeshGravity() {
+	this(DEFAULT_RESOLUTION, DEFAULT_SOFTENING);
+    }
+
+    /**
+     * Create a ParticleMeshGravity
+     *
+     * @param resolution The number of cells across the mesh, a power of two
+     * and at least 4
+     * @param softening The softening length, in pixels, which must not be
+     * negative
+     */
+    public ParticleMeshGravity(int resolution, double softening) {
+	setResolution(resolution);
+	setSoftening(softening);
+	rows = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		for (int row = start; row < end; row++) {
+		    transform(passReal, passImaginary, row * size, inverse);
+		}
+	    }
+	};
+	columns = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		double[] re = scratchReal[block], im = scratchImaginary[block];
+		for (int column = start; column < end; column++) {
+		    for (int row = 0, k = column; row < size; row++, k += size) {
+			re[row] = passReal[k];
+			im[row] = passImaginary[k];
+		    }
+		    transform(re, im, 0, inverse);
+		    for (int row = 0, k = column; row < size; row++, k += size) {
+			passReal[k] = re[row];
+			passImaginary[k] = im[row];
+		    }
+		}
+	    }
+	};
+	convolve = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		multiply(start * size, end * size);
+	    }
+	};
+	interpolate = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		for (int i = start; i < end; i++) {
+		    interpolate(i);
+		}
+	    }
+	};
+    }
+
+    // Methods
+    /**
+     * Spread the mass of every Particle over the mesh and work out the force
+     * on each of them from it
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G
+     * @param runner The BlockRunner to split the passes with
+     * @param accelX Where to write the X components
+     * @param accelY Where to write the Y components
+     */
+    @Override
+    public void accelerate(ParticleStore particles, double gravitationalConstant, BlockRunner runner,
+	    double[] accelX, double[] accelY) {
+	int n = particles.size();
+	Arrays.fill(accelX, 0, n, 0);
+	Arrays.fill(accelY, 0, n, 0);
+	if (!place(particles)) {
+	    return;
+	}
+	prepare(runner);
+	deposit(particles);
+
+	// Only the first half of the rows hold any mass, the rest is padding
+	passReal = meshReal;
+	passImaginary = meshImaginary;
+	inverse = false;
+	runner.run(size / 2, rows);
+	runner.run(size, columns);
+
+	// The X force comes back as the real part and the Y as the imaginary
+	runner.run(size, convolve);
+	inverse = true;
+	runner.run(size, columns);
+	runner.run(size / 2, rows);
+	passReal = null;
+	passImaginary = null;
+
+	this.particles = particles;
+	scale = gravitationalConstant / ((double) size * size);
+	outX = accelX;
+	outY = accelY;
+	runner.run(n, interpolate);
+	this.particles = null;
+	outX = null;
+	outY = null;
+    }
+
+    /**
+     * Spread the mass of the Particles over the mesh and apply the force from
+     * it to their velocities
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G
+     * @param runner The BlockRunner to split the passes with
+     */
+    @Override
+    public void apply(ParticleStore particles, double gravitationalConstant, BlockRunner runner) {
+	int n = particles.size();
+	if (accelX.length < n) {
+	    accelX = new double[Math.max(n, accelX.length * 2)];
+	    accelY = new double[accelX.length];
+	}
+	accelerate(particles, gravitationalConstant, runner, accelX, accelY);
+	for (int i = 0; i < n; i++) {
+	    if (!particles.isMarked(i)) {
+		particles.addVelocity(i, accelX[i], accelY[i]);
+	    }
+	}
+    }
+
+    /**
+     * Clear the mesh and spread the mass of every Particle over the four cells
+     * around its center. This is serial, since neighbouring Particles add to
+     * the same cells.
+     *
+     * @param particles The Particles
+     */
+    private void deposit(ParticleStore particles) {
+	Arrays.fill(meshReal, 0);
+	Arrays.fill(meshImaginary, 0);
+	int n = particles.size();
+	final double[] mass = particles.mass;
+	for (int i = 0; i < n; i++) {
+	    if (particles.isMarked(i)) {
+		continue;
+	    }
+	    double u = (particles.getCenterX(i) - originX) / cell;
+	    double v = (particles.getCenterY(i) - originY) / cell;
+	    int cx = (int) u, cy = (int) v;
+	    double fx = u - cx, fy = v - cy;
+	    int k = cy * size + cx;
+	    double m = mass[i];
+	    meshReal[k] += m * (1 - fx) * (1 - fy);
+	    meshReal[k + 1] += m * fx * (1 - fy);
+	    meshReal[k + size] += m * (1 - fx) * fy;
+	    meshReal[k + size + 1] += m * fx * fy;
+	}
+    }
+
+    /**
+     * Get the number of cells across the mesh
+     *
+     * @return The resolution
+     */
+    public int getResolution() {
+	return resolution;
+    }
+
+    /**
+     * Get the softening length
+     *
+     * @return The softening length, in pixels
+     */
+    public double getSoftening() {
+	return softening;
+    }
+
+    /**
+     * Blend the force in the four cells around Particle <i>i</i> into its
+     * acceleration, with the weights its mass was spread with
+     *
+     * @param i The index of the Particle
+     */
+    private void interpolate(int i) {
+	if (particles.isMarked(i)) {
+	    return;
+	}
+	double u = (particles.getCenterX(i) - originX) / cell;
+	double v = (particles.getCenterY(i) - originY) / cell;
+	int cx = (int) u, cy = (int) v;
+	double fx = u - cx, fy = v - cy;
+	int k = cy * size + cx;
+	double w00 = (1 - fx) * (1 - fy), w10 = fx * (1 - fy), w01 = (1 - fx) * fy, w11 = fx * fy;
+	outX[i] = scale * (w00 * meshReal[k] + w10 * meshReal[k + 1]
+		+ w01 * meshReal[k + size] + w11 * meshReal[k + size + 1]);
+	outY[i] = scale * (w00 * meshImaginary[k] + w10 * meshImaginary[k + 1]
+		+ w01 * meshImaginary[k + size] + w11 * meshImaginary[k + size + 1]);
+    }
+
+    /**
+     * Multiply the transformed mass in cells <i>start</i> to <i>end</i> - 1 by
+     * both components of the transformed kernel, packing the X component into
+     * the real part and the Y component into the imaginary part. Both products
+     * transform back to real values, so one inverse transform gives both.
+     *
+     * @param start The first cell
+     * @param end One past the last cell
+     */
+    private void multiply(int start, int end) {
+	final double[] re = meshReal, im = meshImaginary;
+	for (int k = start; k < end; k++) {
+	    double a = re[k], b = im[k];
+	    // X = mass * kernelX, Y = mass * kernelY, result X + iY
+	    double xr = a * kernelXReal[k] - b * kernelXImaginary[k];
+	    double xi = a * kernelXImaginary[k] + b * kernelXReal[k];
+	    double yr = a * kernelYReal[k] - b * kernelYImaginary[k];
+	    double yi = a * kernelYImaginary[k] + b * kernelYReal[k];
+	    re[k] = xr - yi;
+	    im[k] = xi + yr;
+	}
+    }
+
+    /**
+     * Decide where the mesh lies this tick. It starts at the smallest center
+     * of mass and its cells are the smallest power of two that fits every
+     * center of mass in resolution - 1 cells, leaving the last row and column
+     * free for the cloud-in-cell weights.
+     *
+     * @param particles The Particles
+     * @return False if there are no Particles to attract
+     */
+    private boolean place(ParticleStore particles) {
+	int n = particles.size();
+	double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+	double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+	int live = 0;
+	for (int i = 0; i < n; i++) {
+	    if (particles.isMarked(i)) {
+		continue;
+	    }
+	    minX = Math.min(minX, particles.getCenterX(i));
+	    minY = Math.min(minY, particles.getCenterY(i));
+	    maxX = Math.max(maxX, particles.getCenterX(i));
+	    maxY = Math.max(maxY, particles.getCenterY(i));
+	    live++;
+	}
+	if (live < 2) {
+	    return false;
+	}
+
+	double extent = Math.max(Math.max(maxX - minX, maxY - minY), 1);
+	cell = Math.scalb(1.0, Math.getExponent(extent / (resolution - 2)) + 1);
+	originX = minX;
+	originY = minY;
+	return true;
+    }
+
+    /**
+     * Size the mesh and the transform tables for the resolution, give every
+     * block a scratch column, and transform the kernel again if the cell size
+     * or softening has changed
+     *
+     * @param runner The BlockRunner the passes will be split with
+     */
+    private void prepare(BlockRunner runner) {
+	int padded = 2 * resolution;
+	if (size != padded) {
+	    size = padded;
+	    meshReal = new double[size * size];
+	    meshImaginary = new double[size * size];
+	    kernelXReal = new double[size * size];
+	    kernelXImaginary = new double[size * size];
+	    kernelYReal = new double[size * size];
+	    kernelYImaginary = new double[size * size];
+	    kernelCell = 0;
+
+	    cos = new double[size / 2];
+	    sin = new double[size / 2];
+	    for (int k = 0; k < size / 2; k++) {
+		cos[k] = Math.cos(2 * Math.PI * k / size);
+		sin[k] = Math.sin(2 * Math.PI * k / size);
+	    }
+	    reversed = new int[size];
+	    int bits = Integer.numberOfTrailingZeros(size);
+	    for (int k = 0; k < size; k++) {
+		reversed[k] = Integer.reverse(k) >>> (32 - bits);
+	    }
+	    scratchReal = new double[0][];
+	}
+	if (scratchReal.length != runner.getMaxBlocks()) {
+	    scratchReal = new double[runner.getMaxBlocks()][size];
+	    scratchImaginary = new double[runner.getMaxBlocks()][size];
+	}
+
+	if (kernelCell != cell || kernelSoftening != softening) {
+	    // The force on a unit mass at the origin from a unit mass at each
+	    // offset, which wraps around to negative offsets halfway across
+	    double softeningSq = softening * softening;
+	    for (int row = 0; row < size; row++) {
+		int dy = (row < resolution) ? row : row - size;
+		for (int column = 0; column < size; column++) {
+		    int dx = (column < resolution) ? column : column - size;
+		    int k = row * size + column;
+		    double x = dx * cell, y = dy * cell;
+		    double distanceSq = x * x + y * y + softeningSq;
+		    if ((dx == 0 && dy == 0) || row == resolution || column == resolution) {
+			kernelXReal[k] = 0;
+			kernelYReal[k] = 0;
+		    } else {
+			double strength = 1 / (distanceSq * Math.sqrt(distanceSq));
+			// A mass at minus the offset pulls toward itself
+			kernelXReal[k] = -x * strength;
+			kernelYReal[k] = -y * strength;
+		    }
+		    kernelXImaginary[k] = 0;
+		    kernelYImaginary[k] = 0;
+		}
+	    }
+	    passImaginary = kernelXImaginary;
+	    passReal = kernelXReal;
+	    inverse = false;
+	    runner.run(size, rows);
+	    runner.run(size, columns);
+	    passReal = kernelYReal;
+	    passImaginary = kernelYImaginary;
+	    runner.run(size, rows);
+	    runner.run(size, columns);
+	    passReal = null;
+	    passImaginary = null;
+	    kernelCell = cell;
+	    kernelSoftening = softening;
+	}
+    }
+
+    /**
+     * Set the number of cells across the mesh. More cells resolve the force
+     * between closer Particles, at the cost of time and memory growing with
+     * the square of the resolution. This takes effect on the next tick.
+     *
+     * @param resolution The resolution, a power of two and at least 4
+     */
+    public final void setResolution(int resolution) {
+	if (resolution < 4 || Integer.bitCount(resolution) != 1) {
+	    throw new IllegalArgumentException("resolution must be a power of two of at least 4: " + resolution);
+	}
+	this.resolution = resolution;
+    }
+
+    /**
+     * Set the softening length. Below about this distance the force stops
+     * growing as the Particles get closer, which hides how coarse the mesh is
+     * at close range. This takes effect on the next tick.
+     *
+     * @param softening The softening length, in pixels, which must not be
+     * negative
+     */
+    public final void setSoftening(double softening) {
+	if (!(softening >= 0) || Double.isInfinite(softening)) {
+	    throw new IllegalArgumentException("softening must be non-negative: " + softening);
+	}
+	this.softening = softening;
+    }
+
+    /**
+     * Transform <i>size</i> complex values in place, from <i>offset</i> on,
+     * with an iterative radix-2 fast Fourier transform. The inverse is left
+     * unscaled.
+     *
+     * @param re The real parts
+     * @param im The imaginary parts
+     * @param offset The index of the first value
+     * @param inverse True for the inverse transform
+     */
+    private void transform(double[] re, double[] im, int offset, boolean inverse) {
+	for (int k = 0; k < size; k++) {
+	    int r = reversed[k];
+	    if (k < r) {
+		double t = re[offset + k];
+		re[offset + k] = re[offset + r];
+		re[offset + r] = t;
+		t = im[offset + k];
+		im[offset + k] = im[offset + r];
+		im[offset + r] = t;
+	    }
+	}
+	double sign = inverse ? 1 : -1;
+	for (int length = 2; length <= size; length <<= 1) {
+	    int half = length >> 1;
+	    int step = size / length;
+	    for (int start = offset; start < offset + size; start += length) {
+		for (int k = 0; k < half; k++) {
+		    double wr = cos[k * step], wi = sign * sin[k * step];
+		    int a = start + k, b = a + half;
+		    double tr = re[b] * wr - im[b] * wi;
+		    double ti = re[b] * wi + im[b] * wr;
+		    re[b] = re[a] - tr;
+		    im[b] = im[a] - ti;
+		    re[a] += tr;
+		    im[a] += ti;
+		}
+	    }
+	}
+    }
+}
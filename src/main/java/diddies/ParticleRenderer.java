@@ -0,0 +1,226 @@
+package diddies;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * ParticleRenderer draws a whole ParticleStore at once, looking the same as
+ * calling Particle.draw() on each of them but without a cast, a setColor() and
+ * a fillOval() per Particle.
+ *
+ * The Particles are first sorted into one bucket per density Color with a
+ * counting sort, so the Color only changes a handful of times a frame. Each
+ * (diameter, Color) is drawn into a sprite the first time it is needed, and
+ * from then on is copied with drawImage(). The sprites are made compatible with
+ * the screen, so Java2D keeps copies of them in video memory and the copy is
+ * done by the graphics card. Particles too large to be worth caching are still
+ * drawn with fillOval().
+ *
+ * Particles no wider than the point diameter (1 by default, or the
+ * simplespace.points system property) are drawn as single pixels instead.
+ * Those are written straight into the int[] of an image the size of the
+ * panel, which is then drawn in one go underneath the rest, so tens of
+ * thousands of specks cost one drawImage().
+ *
+ * A renderer keeps its buckets and images from one frame to the next, so it
+ * must only be used from one thread.
+ *
+ * @author Ryan Kenney
+ */
+public class ParticleRenderer {
+
+    // Attributes
+    public final static String POINTS_PROPERTY = "simplespace.points";
+    private final static int MAX_SPRITE_DIAMETER = 64;
+    private int pointDiameter = Integer.getInteger(POINTS_PROPERTY, 1);
+    // Buckets
+    private byte[] colors = new byte[0];
+    private int[] order = new int[0];
+    private final int[] counts = new int[Particle.COLORS.length];
+    private final int[] starts = new int[Particle.COLORS.length + 1];
+    // Sprites, by Color and then diameter
+    private final BufferedImage[][] sprites = new BufferedImage[Particle.COLORS.length][MAX_SPRITE_DIAMETER + 1];
+    private GraphicsConfiguration configuration;
+    // Points
+    private BufferedImage points;
+    private int[] pixels;
+    private boolean pointsDrawn;
+
+    // Methods
+    /**
+     * Draw every Particle in <i>particles</i> onto an area <i>width</i> by
+     * <i>height</i> pixels
+     *
+     * @param g The Graphics to draw with
+     * @param particles The Particles to draw
+     * @param width The width of the area being drawn on
+     * @param height The height of the area being drawn on
+     */
+    public void draw(Graphics g, ParticleStore particles, int width, int height) {
+	Graphics2D g2 = (Graphics2D) g;
+	sort(particles);
+
+	// Specks, all at once
+	if (pointDiameter > 0) {
+	    drawPoints(g2, particles, width, height);
+	}
+
+	// Everything else, one Color at a time
+	GraphicsConfiguration current = g2.getDeviceConfiguration();
+	if (current != configuration) {
+	    for (BufferedImage[] row : sprites) {
+		Arrays.fill(row, null);
+	    }
+	    configuration = current;
+	}
+	final double[] x = particles.x, y = particles.y;
+	final int[] diameter = particles.diameter;
+	for (int c = 0; c < Particle.COLORS.length; c++) {
+	    if (starts[c] == starts[c + 1]) {
+		continue;
+	    }
+	    g2.setColor(Particle.COLORS[c]);
+	    for (int k = starts[c]; k < starts[c + 1]; k++) {
+		int i = order[k];
+		int d = diameter[i];
+		if (d <= pointDiameter || d <= 0) {
+		    continue;
+		}
+		if (d <= MAX_SPRITE_DIAMETER) {
+		    g2.drawImage(getSprite(c, d), (int) x[i], (int) y[i], null);
+		} else {
+		    g2.fillOval((int) x[i], (int) y[i], d, d);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Write every Particle no wider than the point diameter into the point
+     * image as a single pixel at its center, and draw the image
+     *
+     * @param g2 The Graphics to draw with
+     * @param particles The Particles, already sorted
+     * @param width The width of the area being drawn on
+     * @param height The height of the area being drawn on
+     */
+    private void drawPoints(Graphics2D g2, ParticleStore particles, int width, int height) {
+	if (width <= 0 || height <= 0) {
+	    return;
+	}
+	if (points == null || points.getWidth() != width || points.getHeight() != height) {
+	    points = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+	    pixels = ((DataBufferInt) points.getRaster().getDataBuffer()).getData();
+	    pointsDrawn = false;
+	}
+	if (pointsDrawn) {
+	    Arrays.fill(pixels, 0);
+	    pointsDrawn = false;
+	}
+
+	final double[] x = particles.x, y = particles.y;
+	final int[] diameter = particles.diameter;
+	for (int c = 0; c < Particle.COLORS.length; c++) {
+	    int argb = Particle.COLORS[c].getRGB();
+	    for (int k = starts[c]; k < starts[c + 1]; k++) {
+		int i = order[k];
+		if (diameter[i] > pointDiameter) {
+		    continue;
+		}
+		int px = (int) x[i] + diameter[i] / 2;
+		int py = (int) y[i] + diameter[i] / 2;
+		if (px >= 0 && px < width && py >= 0 && py < height) {
+		    pixels[py * width + px] = argb;
+		    pointsDrawn = true;
+		}
+	    }
+	}
+	if (pointsDrawn) {
+	    g2.drawImage(points, 0, 0, null);
+	}
+    }
+
+    /**
+     * Get how wide a Particle can be and still be drawn as a single pixel
+     *
+     * @return The point diameter, 0 if every Particle is drawn in full
+     */
+    public int getPointDiameter() {
+	return pointDiameter;
+    }
+
+    /**
+     * Get the sprite for Color <i>c</i> and diameter <i>d</i>, drawing it if
+     * this is the first time it is needed
+     *
+     * @param c The index of the Color in Particle.COLORS
+     * @param d The diameter, from 1 to MAX_SPRITE_DIAMETER
+     * @return The sprite
+     */
+    private BufferedImage getSprite(int c, int d) {
+	BufferedImage sprite = sprites[c][d];
+	if (sprite == null) {
+	    sprite = (configuration != null)
+		    ? configuration.createCompatibleImage(d, d, Transparency.BITMASK)
+		    : new BufferedImage(d, d, BufferedImage.TYPE_INT_ARGB);
+	    Graphics2D g2 = sprite.createGraphics();
+	    g2.setColor(Particle.COLORS[c]);
+	    g2.fillOval(0, 0, d, d);
+	    g2.dispose();
+	    sprites[c][d] = sprite;
+	}
+	return sprite;
+    }
+
+    /**
+     * Set how wide a Particle can be and still be drawn as a single pixel.
+     * Raising it trades detail for speed when there are a great many small
+     * Particles.
+     *
+     * @param pointDiameter The point diameter, 0 to draw every Particle in
+     * full
+     */
+    public void setPointDiameter(int pointDiameter) {
+	if (pointDiameter < 0) {
+	    throw new IllegalArgumentException("pointDiameter must not be negative: " + pointDiameter);
+	}
+	this.pointDiameter = pointDiameter;
+    }
+
+    /**
+     * Sort the indices of <i>particles</i> into one bucket per Color, keeping
+     * their order within each bucket
+     *
+     * @param particles The Particles to sort
+     */
+    private void sort(ParticleStore particles) {
+	int n = particles.size();
+	if (order.length < n) {
+	    int capacity = Math.max(n, order.length * 2);
+	    colors = new byte[capacity];
+	    order = new int[capacity];
+	}
+
+	final double[] mass = particles.mass;
+	final int[] diameter = particles.diameter;
+	Arrays.fill(counts, 0);
+	for (int i = 0; i < n; i++) {
+	    int c = Particle.getColorIndex(mass[i], diameter[i] / 2);
+	    colors[i] = (byte) c;
+	    counts[c]++;
+	}
+	starts[0] = 0;
+	for (int c = 0; c < counts.length; c++) {
+	    starts[c + 1] = starts[c] + counts[c];
+	    counts[c] = starts[c];
+	}
+	for (int i = 0; i < n; i++) {
+	    order[counts[colors[i]]++] = i;
+	}
+    }
+}
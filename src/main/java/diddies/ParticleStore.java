@@ -0,0 +1,548 @@
+package diddies;
+
+import java.util.Arrays;
+
+/**
+ * ParticleStore holds the state of many Particles in flat arrays, one array
+ * per attribute, rather than one object per Particle. Keeping the positions,
+ * velocities, masses and diameters next to each other in memory lets the
+ * physics loops walk straight through them without chasing references around
+ * the heap, which is what makes large simulations fast.
+ *
+ * A Particle is identified by its index in the store. Indices are only stable
+ * until the next removal: removing a Particle moves the last Particle into its
+ * slot, so removal is O(1) but reorders the store. Growing the store doubles
+ * its capacity, so adding is amortized O(1).
+ *
+ * Every velocity that goes through the store is limited to the range
+ * [-limit, limit] in each component. The limit is 1 by default, which is the
+ * rule Velocity follows and what keeps Particles from skipping over pixels.
+ * With continuous collision detection that guarantee is no longer needed, so
+ * the limit can be raised, or removed with Double.POSITIVE_INFINITY.
+ *
+ * The arrays are visible to the rest of the package so that the solvers can
+ * loop over them directly. Only the first size() entries of each are valid.
+ *
+ * @author Ryan Kenney
+ */
+public class ParticleStore {
+
+    // Attributes
+    private final static int DEFAULT_CAPACITY = 16;
+    private final static long HASH_SEED = 0x27D4EB2F165667C5L;
+    private double velocityLimit = 1;
+    // State, by attribute
+    double[] x;
+    double[] y;
+    double[] vx;
+    double[] vy;
+    double[] mass;
+    int[] diameter;
+    int size;
+    // Pending removals
+    private boolean[] marked;
+    private int markedCount;
+    // Structural changes
+    private int modCount;
+
+    // Constructors
+    /**
+     * Create an empty ParticleStore with the default capacity
+     */
+    public ParticleStore() {
+	this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty ParticleStore with room for <i>capacity</i> Particles
+     * before it has to grow
+     *
+     * @param capacity The initial capacity
+     */
+    public ParticleStore(int capacity) {
+	capacity = Math.max(capacity, 1);
+	x = new double[capacity];
+	y = new double[capacity];
+	vx = new double[capacity];
+	vy = new double[capacity];
+	mass = new double[capacity];
+	diameter = new int[capacity];
+	marked = new boolean[capacity];
+    }
+
+    // Methods
+    /**
+     * Add a Particle to the end of the store
+     *
+     * @param x The X component of the Particle's position
+     * @param y The Y component of the Particle's position
+     * @param vx The X component of the Particle's velocity
+     * @param vy The Y component of the Particle's velocity
+     * @param mass The mass of the Particle
+     * @param diameter The diameter of the Particle
+     * @return The index of the new Particle
+     */
+    public int add(double x, double y, double vx, double vy, double mass, int diameter) {
+	if (size == this.x.length) {
+	    grow(size + 1);
+	}
+	int i = size++;
+	this.x[i] = x;
+	this.y[i] = y;
+	this.vx[i] = Velocity.clamp(vx, velocityLimit);
+	this.vy[i] = Velocity.clamp(vy, velocityLimit);
+	this.mass[i] = mass;
+	this.diameter[i] = diameter;
+	modCount++;
+	return i;
+    }
+
+    /**
+     * Add Particles <i>from</i> to <i>from</i> + <i>count</i> - 1 of
+     * <i>source</i> to the end of the store. This grows the store at most once
+     * and copies each attribute with a single arraycopy, so it is much cheaper
+     * than adding the Particles one at a time. Marks are not copied, and
+     * velocities are held to this store's limit if <i>source</i> allows more.
+     *
+     * @param source The store to copy from
+     * @param from The index of the first Particle to copy
+     * @param count The number of Particles to copy
+     * @return The index of the first new Particle
+     */
+    public int addAll(ParticleStore source, int from, int count) {
+	if (from < 0 || count < 0 || from + count > source.size) {
+	    throw new IndexOutOfBoundsException("from " + from + ", count " + count + ", size " + source.size);
+	}
+	int first = size;
+	ensureCapacity(size + count);
+	System.arraycopy(source.x, from, x, first, count);
+	System.arraycopy(source.y, from, y, first, count);
+	System.arraycopy(source.vx, from, vx, first, count);
+	System.arraycopy(source.vy, from, vy, first, count);
+	System.arraycopy(source.mass, from, mass, first, count);
+	System.arraycopy(source.diameter, from, diameter, first, count);
+	if (source.velocityLimit > velocityLimit) {
+	    for (int i = first; i < first + count; i++) {
+		vx[i] = Velocity.clamp(vx[i], velocityLimit);
+		vy[i] = Velocity.clamp(vy[i], velocityLimit);
+	    }
+	}
+	size += count;
+	modCount++;
+	return first;
+    }
+
+    /**
+     * Add <i>dvx</i> and <i>dvy</i> to the velocity of Particle <i>i</i>. This
+     * abides by the velocity limit.
+     *
+     * @param i The index of the Particle
+     * @param dvx The change in the X component
+     * @param dvy The change in the Y component
+     */
+    public void addVelocity(int i, double dvx, double dvy) {
+	vx[i] = Velocity.clamp(vx[i] + dvx, velocityLimit);
+	vy[i] = Velocity.clamp(vy[i] + dvy, velocityLimit);
+    }
+
+    /**
+     * Remove every Particle. The arrays are kept, so filling the store again
+     * up to its old size does not grow it.
+     */
+    public void clear() {
+	Arrays.fill(marked, 0, size, false);
+	markedCount = 0;
+	size = 0;
+	modCount++;
+    }
+
+    /**
+     * Find the direction to push Particle <i>j</i> to separate it from
+     * Particle <i>i</i>. See CircleGeometry.contactNormal().
+     *
+     * @param i The index of the first Particle
+     * @param j The index of the second Particle
+     * @param normal Where to put the normal, {x, y}
+     * @return <i>normal</i>
+     */
+    public double[] contactNormal(int i, int j, double[] normal) {
+	return CircleGeometry.contactNormal(getCenterX(i), getCenterY(i), getCenterX(j), getCenterY(j), normal);
+    }
+
+    /**
+     * Check if (<i>px</i>, <i>py</i>) is inside of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @param px The X component of the point
+     * @param py The Y component of the point
+     * @return True if the point is inside the Particle, false otherwise
+     */
+    public boolean contains(int i, double px, double py) {
+	return CircleGeometry.contains(getCenterX(i), getCenterY(i), diameter[i] * 0.5, px, py);
+    }
+
+    /**
+     * Replace the contents of this store with a copy of <i>source</i>. This
+     * only allocates if this store has to grow to fit.
+     *
+     * @param source The store to copy
+     */
+    public void copyFrom(ParticleStore source) {
+	int n = source.size;
+	ensureCapacity(n);
+	System.arraycopy(source.x, 0, x, 0, n);
+	System.arraycopy(source.y, 0, y, 0, n);
+	System.arraycopy(source.vx, 0, vx, 0, n);
+	System.arraycopy(source.vy, 0, vy, 0, n);
+	System.arraycopy(source.mass, 0, mass, 0, n);
+	System.arraycopy(source.diameter, 0, diameter, 0, n);
+	System.arraycopy(source.marked, 0, marked, 0, n);
+	markedCount = source.markedCount;
+	velocityLimit = source.velocityLimit;
+	size = n;
+	modCount++;
+    }
+
+    /**
+     * Make sure the store can hold <i>capacity</i> Particles without growing
+     *
+     * @param capacity The number of Particles
+     */
+    public void ensureCapacity(int capacity) {
+	if (capacity > x.length) {
+	    grow(capacity);
+	}
+    }
+
+    /**
+     * Add <i>count</i> Particles to the end of the store without setting any
+     * of their attributes, for code in the package that fills the arrays in
+     * directly. Until it does, the new Particles hold whatever was in the
+     * arrays before.
+     *
+     * @param count The number of Particles to add
+     * @return The index of the first new Particle
+     */
+    int extend(int count) {
+	if (count < 0) {
+	    throw new IllegalArgumentException("count must not be negative: " + count);
+	}
+	int first = size;
+	ensureCapacity(size + count);
+	size += count;
+	modCount++;
+	return first;
+    }
+
+    /**
+     * Get the number of Particles the store can hold without growing
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+	return x.length;
+    }
+
+    /**
+     * Get the X component of the center of mass of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @return The X component of the center of mass
+     */
+    public double getCenterX(int i) {
+	return x[i] + diameter[i] * 0.5;
+    }
+
+    /**
+     * Get the Y component of the center of mass of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @return The Y component of the center of mass
+     */
+    public double getCenterY(int i) {
+	return y[i] + diameter[i] * 0.5;
+    }
+
+    /**
+     * Get the diameter of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @return The diameter
+     */
+    public int getDiameter(int i) {
+	return diameter[i];
+    }
+
+    /**
+     * Get the mass of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @return The mass
+     */
+    public double getMass(int i) {
+	return mass[i];
+    }
+
+    /**
+     * Get the number of structural changes made to the store so far. Adding,
+     * removing and copying Particles count; moving them or changing their
+     * velocities does not. Anything worked out from the masses and the
+     * order of the Particles is still valid as long as this has not changed.
+     *
+     * @return The modification count
+     */
+    public int getModCount() {
+	return modCount;
+    }
+
+    /**
+     * Get the largest magnitude either component of a velocity may have
+     *
+     * @return The velocity limit
+     */
+    public double getVelocityLimit() {
+	return velocityLimit;
+    }
+
+    /**
+     * Get the X component of the velocity of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @return The X component of the velocity
+     */
+    public double getVelocityX(int i) {
+	return vx[i];
+    }
+
+    /**
+     * Get the Y component of the velocity of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @return The Y component of the velocity
+     */
+    public double getVelocityY(int i) {
+	return vy[i];
+    }
+
+    /**
+     * Get the X component of the position of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @return The X component of the position
+     */
+    public double getX(int i) {
+	return x[i];
+    }
+
+    /**
+     * Get the Y component of the position of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @return The Y component of the position
+     */
+    public double getY(int i) {
+	return y[i];
+    }
+
+    /**
+     * Make room for at least <i>capacity</i> Particles. The capacity at least
+     * doubles so that a run of adds only copies the arrays O(log n) times.
+     *
+     * @param capacity The minimum capacity
+     */
+    private void grow(int capacity) {
+	int newCapacity = Math.max(capacity, x.length * 2);
+	x = Arrays.copyOf(x, newCapacity);
+	y = Arrays.copyOf(y, newCapacity);
+	vx = Arrays.copyOf(vx, newCapacity);
+	vy = Arrays.copyOf(vy, newCapacity);
+	mass = Arrays.copyOf(mass, newCapacity);
+	diameter = Arrays.copyOf(diameter, newCapacity);
+	marked = Arrays.copyOf(marked, newCapacity);
+    }
+
+    /**
+     * Check if Particle <i>i</i> has been marked for removal
+     *
+     * @param i The index of the Particle
+     * @return True if the Particle will be removed, false otherwise
+     */
+    public boolean isMarked(int i) {
+	return marked[i];
+    }
+
+    /**
+     * Mark Particle <i>i</i> for removal. Nothing is moved until
+     * removeMarked() is called, so indices stay valid until then. Marking a
+     * Particle more than once has no further effect.
+     *
+     * @param i The index of the Particle
+     */
+    public void markRemoved(int i) {
+	if (!marked[i]) {
+	    marked[i] = true;
+	    markedCount++;
+	}
+    }
+
+    /**
+     * Fold <i>value</i> into <i>hash</i>
+     *
+     * @param hash The hash so far
+     * @param value The value to add
+     * @return The new hash
+     */
+    private static long mix(long hash, long value) {
+	return Long.rotateLeft(hash + value * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Move Particle <i>i</i> by its velocity
+     *
+     * @param i The index of the Particle
+     */
+    public void move(int i) {
+	x[i] += vx[i];
+	y[i] += vy[i];
+    }
+
+    /**
+     * Check if Particles <i>i</i> and <i>j</i> overlap
+     *
+     * @param i The index of the first Particle
+     * @param j The index of the second Particle
+     * @return True if the Particles overlap, false otherwise
+     */
+    public boolean overlaps(int i, int j) {
+	return CircleGeometry.overlaps(getCenterX(i), getCenterY(i), diameter[i] * 0.5,
+		getCenterX(j), getCenterY(j), diameter[j] * 0.5);
+    }
+
+    /**
+     * Find how deeply Particles <i>i</i> and <i>j</i> overlap. See
+     * CircleGeometry.penetrationDepth().
+     *
+     * @param i The index of the first Particle
+     * @param j The index of the second Particle
+     * @return The penetration depth, which is negative if they do not overlap
+     */
+    public double penetrationDepth(int i, int j) {
+	return CircleGeometry.penetrationDepth(getCenterX(i), getCenterY(i), diameter[i] * 0.5,
+		getCenterX(j), getCenterY(j), diameter[j] * 0.5);
+    }
+
+    /**
+     * Remove Particle <i>i</i> by moving the last Particle into its place.
+     *
+     * @param i The index of the Particle
+     */
+    public void remove(int i) {
+	if (marked[i]) {
+	    markedCount--;
+	}
+	int last = --size;
+	x[i] = x[last];
+	y[i] = y[last];
+	vx[i] = vx[last];
+	vy[i] = vy[last];
+	mass[i] = mass[last];
+	diameter[i] = diameter[last];
+	marked[i] = marked[last];
+	marked[last] = false;
+	modCount++;
+    }
+
+    /**
+     * Remove every Particle marked with markRemoved(). The store is walked from
+     * the end, so the Particle swapped into each hole is never one that still
+     * has to be removed. This does not allocate, and costs nothing when no
+     * Particle was marked.
+     *
+     * @return The number of Particles removed
+     */
+    public int removeMarked() {
+	int removed = markedCount;
+	for (int i = size - 1; i >= 0 && markedCount > 0; i--) {
+	    if (marked[i]) {
+		remove(i);
+	    }
+	}
+	return removed;
+    }
+
+    /**
+     * Change the position of Particle <i>i</i>
+     *
+     * @param i The index of the Particle
+     * @param x The X component to set
+     * @param y The Y component to set
+     */
+    public void setLocation(int i, double x, double y) {
+	this.x[i] = x;
+	this.y[i] = y;
+    }
+
+    /**
+     * Change the velocity of Particle <i>i</i>. This abides by the velocity
+     * limit.
+     *
+     * @param i The index of the Particle
+     * @param vx The X component to set
+     * @param vy The Y component to set
+     */
+    public void setVelocity(int i, double vx, double vy) {
+	this.vx[i] = Velocity.clamp(vx, velocityLimit);
+	this.vy[i] = Velocity.clamp(vy, velocityLimit);
+    }
+
+    /**
+     * Change the largest magnitude either component of a velocity may have.
+     * Velocities already in the store are not changed until they next are.
+     *
+     * @param velocityLimit The limit, greater than 0, or
+     * Double.POSITIVE_INFINITY for none
+     */
+    public void setVelocityLimit(double velocityLimit) {
+	if (!(velocityLimit > 0)) {
+	    throw new IllegalArgumentException("velocityLimit must be greater than 0: " + velocityLimit);
+	}
+	this.velocityLimit = velocityLimit;
+    }
+
+    /**
+     * Get the number of Particles in the store
+     *
+     * @return The number of Particles
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Work out a 64-bit hash of every attribute of every Particle, bit for
+     * bit. Two stores have the same hash if they hold the same Particles in
+     * the same order, so comparing hashes tick by tick shows exactly when two
+     * runs start to differ.
+     *
+     * @return The hash
+     */
+    public long stateHash() {
+	long hash = mix(HASH_SEED, size);
+	for (int i = 0; i < size; i++) {
+	    hash = mix(hash, Double.doubleToLongBits(x[i]));
+	    hash = mix(hash, Double.doubleToLongBits(y[i]));
+	    hash = mix(hash, Double.doubleToLongBits(vx[i]));
+	    hash = mix(hash, Double.doubleToLongBits(vy[i]));
+	    hash = mix(hash, Double.doubleToLongBits(mass[i]));
+	    hash = mix(hash, diameter[i]);
+	}
+
+	// Spread every bit over the whole hash
+	hash ^= hash >>> 33;
+	hash *= 0xFF51AFD7ED558CCDL;
+	hash ^= hash >>> 33;
+	hash *= 0xC4CEB9FE1A85EC53L;
+	hash ^= hash >>> 33;
+	return hash;
+    }
+}
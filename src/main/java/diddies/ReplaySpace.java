@@ -0,0 +1,136 @@
+package diddies;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.io.IOException;
+import javax.swing.JPanel;
+
+/**
+ * ReplaySpace plays a recorded trajectory in place of a live Space. A Swing
+ * timer moves on one frame per repaint, and the frame is drawn the same way
+ * Space draws the Simulation.
+ *
+ * SPACE pauses and resumes, RIGHT and LEFT jump to the next and previous
+ * keyframe, and HOME goes back to the start.
+ *
+ * @author Ryan Kenney
+ */
+public class ReplaySpace extends JPanel implements KeyListener {
+    // Attributes
+
+    private static final long serialVersionUID = 1L;
+    private static final int FRAME_DELAY = 16;
+    private final TrajectoryPlayer player;
+    private final ParticleRenderer renderer = new ParticleRenderer();
+    private final javax.swing.Timer refresh;
+    private boolean paused;
+
+    // Constructors
+    /**
+     * Create a ReplaySpace playing <i>player</i> from its first frame
+     *
+     * @param player The trajectory to play
+     */
+    public ReplaySpace(TrajectoryPlayer player) {
+	super();
+	this.player = player;
+	refresh = new javax.swing.Timer(FRAME_DELAY, new ActionListener() {
+	    @Override
+	    public void actionPerformed(ActionEvent e) {
+		if (!paused) {
+		    advance();
+		}
+		repaint();
+	    }
+	});
+	refresh.start();
+    }
+
+    // Methods
+    /**
+     * Move on to the next frame, stopping at the last one
+     */
+    private void advance() {
+	try {
+	    player.next();
+	} catch (IOException e) {
+	    System.err.println("replay stopped: " + e.getMessage());
+	    paused = true;
+	}
+    }
+
+    /**
+     * Handles the playback keys
+     *
+     * @param e The KeyEvent
+     */
+    @Override
+    public void keyPressed(KeyEvent e) {
+	try {
+	    switch (e.getKeyCode()) {
+		case KeyEvent.VK_SPACE:
+		    paused = !paused;
+		    break;
+		case KeyEvent.VK_RIGHT:
+		    player.seekKeyframe(1);
+		    break;
+		case KeyEvent.VK_LEFT:
+		    player.seekKeyframe(-1);
+		    break;
+		case KeyEvent.VK_HOME:
+		    player.seekFrame(0);
+		    break;
+	    }
+	} catch (IOException ex) {
+	    System.err.println("seek failed: " + ex.getMessage());
+	}
+	repaint();
+    }
+
+    /**
+     * Unused
+     *
+     * @param e The KeyEvent
+     */
+    @Override
+    public void keyReleased(KeyEvent e) {
+    }
+
+    /**
+     * Unused
+     *
+     * @param e The KeyEvent
+     */
+    @Override
+    public void keyTyped(KeyEvent e) {
+    }
+
+    /**
+     * Draws the background, the current frame, and where it is in the
+     * recording. The background covers the whole panel, so nothing underneath
+     * it is painted first.
+     *
+     * @param g The Graphics object to use
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+	Graphics2D g2 = (Graphics2D) g;
+
+	// Draw background
+	g2.setColor(Color.BLACK);
+	g2.fillRect(0, 0, getWidth(), getHeight());
+
+	// Draw particles
+	renderer.draw(g, player.getParticles(), getWidth(), getHeight());
+
+	// Draw position
+	g2.setColor(Color.GRAY);
+	g2.drawString("tick " + player.getTick() + "   frame " + (player.getFrame() + 1) + " / "
+		+ player.getFrameCount() + (paused ? "   paused" : ""), 10, getHeight() - 10);
+    }
+}
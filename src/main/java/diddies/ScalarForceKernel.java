@@ -0,0 +1,59 @@
+package diddies;
+
+/**
+ * The ForceKernel that runs on any JVM. It takes each pair's direction
+ * straight from dx and dy scaled by 1/d^3, with one square root and no
+ * trigonometry, and adds the pairs up one at a time in order, so its result
+ * is the same on every machine.
+ *
+ * @author Ryan Kenney
+ */
+public class ScalarForceKernel implements ForceKernel {
+
+    // Methods
+    /**
+     * Check if the kernel works on several Particles at once
+     *
+     * @return False, always
+     */
+    @Override
+    public boolean isVectorized() {
+	return false;
+    }
+
+    /**
+     * Sum the attraction of Particles 0 to <i>n</i> - 1, without G, on each of
+     * Particles <i>start</i> to <i>end</i> - 1, one pair at a time
+     *
+     * @param x The X components of the centers
+     * @param y The Y components of the centers
+     * @param mass The masses
+     * @param n The number of Particles
+     * @param start The first Particle to sum for
+     * @param end One past the last Particle to sum for
+     * @param sumX Where to write the X components of the sums
+     * @param sumY Where to write the Y components of the sums
+     */
+    @Override
+    public void sumRows(double[] x, double[] y, double[] mass, int n, int start, int end, double[] sumX,
+	    double[] sumY) {
+	for (int i = start; i < end; i++) {
+	    double x1 = x[i], y1 = y[i];
+	    double totalX = 0, totalY = 0;
+	    for (int j = 0; j < n; j++) {
+		double dx = x[j] - x1;
+		double dy = y[j] - y1;
+		double distanceSq = dx * dx + dy * dy;
+		if (distanceSq == 0) {
+		    continue;
+		}
+
+		double scale = mass[j] / (distanceSq * Math.sqrt(distanceSq));
+		totalX += dx * scale;
+		totalY += dy * scale;
+	    }
+	    sumX[i] = totalX;
+	    sumY[i] = totalY;
+	}
+    }
+}
@@ -7,6 +7,8 @@ import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -43,6 +45,12 @@ public class SettingsMenu extends JPanel implements ChangeListener, ActionListen
     private final static String gravString = "Gravity: ";
     private final static String gravAction = "gravity";
     private JButton gravButton;
+    // Capacity
+    private JLabel capLabel;
+    private final static String capString = "Capacity: ";
+    private JSpinner capSpinner;
+    private final static int minCap = 1;
+    private final static int capStep = 10;
 
     // Constructors
     /**
@@ -127,11 +135,20 @@ public class SettingsMenu extends JPanel implements ChangeListener, ActionListen
 	gravButton.addActionListener(this);
 	gravButton.setFocusable(false);
 	this.add(gravButton);
+
+	// Capacity
+	capLabel = new JLabel(capString);
+	this.add(capLabel);
+	capSpinner = new JSpinner(new SpinnerNumberModel(data.getCapacity(), minCap, Integer.MAX_VALUE, capStep));
+	capSpinner.addChangeListener(this);
+	capSpinner.setFocusable(false);
+	((JSpinner.DefaultEditor) capSpinner.getEditor()).getTextField().setFocusable(false);
+	this.add(capSpinner);
     }
 
     /**
-     * Called when a slider had its value changed. This is used to set things
-     * like the mass and radius values.
+     * Called when a slider or spinner had its value changed. This is used to
+     * set things like the mass, radius and capacity values.
      *
      * @param e The ChangeEvent
      */
@@ -143,6 +160,8 @@ public class SettingsMenu extends JPanel implements ChangeListener, ActionListen
 	} else if (e.getSource() == massSlider) {
 	    mass = (massSlider.getValue() == 0) ? 1 : massSlider.getValue();
 	    massLabel.setText(massString + mass);
+	} else if (e.getSource() == capSpinner) {
+	    data.setCapacity((Integer) capSpinner.getValue());
 	}
     }
 }
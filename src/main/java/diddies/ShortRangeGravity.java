@@ -0,0 +1,467 @@
+package diddies;
+
+import java.util.Arrays;
+
+/**
+ * A GravitySolver for scenes where only nearby Particles matter, such as
+ * clusters that are far apart. Each Particle is only attracted to the
+ * Particles within the cutoff radius of it, and the force is Plummer
+ * softened, (G*m1*m2*d)/(d^2 + e^2)^(3/2) along the line between them, so it
+ * stops growing below the softening length instead of blowing up as two
+ * Particles close in. Particles further apart than the cutoff do not attract each other
+ * at all, which is the approximation this solver makes.
+ *
+ * The pairs close enough to matter are kept in a Verlet neighbor list: every
+ * pair within the cutoff plus a skin, found with a SpatialGrid. The list stays
+ * good until some Particle has moved more than half the skin since it was
+ * built, since until then no pair outside of it can have come within the
+ * cutoff, so it is only rebuilt every few ticks and a tick costs O(pairs)
+ * rather than O(n^2). A wider skin means fewer rebuilds but more pairs in the
+ * list. Adding or removing Particles also rebuilds it, since the indices
+ * change.
+ *
+ * Like BruteForceGravity, the serial path visits each pair once and applies
+ * the force to both Particles, and the parallel path sums each Particle's row
+ * of neighbors in its own block, which is also the path a deterministic
+ * BlockRunner takes. The list is built serially, in the grid's order, so it
+ * is the same whatever the threads.
+ *
+ * @author Ryan Kenney
+ */
+public class ShortRangeGravity implements GravitySolver {
+
+    // Attributes
+    public final static double DEFAULT_CUTOFF = 100;
+    public final static double DEFAULT_SOFTENING = 5;
+    public final static double DEFAULT_SKIN = 20;
+    private double cutoff;
+    private double softening;
+    private double skin;
+    // The neighbor list, as pairs with the smaller index first...
+    private final SpatialGrid grid = new SpatialGrid();
+    private final SpatialGrid.PairVisitor collect;
+    private int[] first = new int[0];
+    private int[] second = new int[0];
+    private int pairs;
+    // ...and as rows of neighbors for the parallel path. The neighbors of
+    // Particle i are neighbors[rowStart[i]..rowStart[i + 1] - 1].
+    private int[] rowStart = new int[0];
+    private int[] neighbors = new int[0];
+    private boolean rowsBuilt;
+    // Where the Particles were when the list was built
+    private ParticleStore built;
+    private int builtModCount;
+    private int builtSize;
+    private double builtReach;
+    private double[] builtX = new double[0];
+    private double[] builtY = new double[0];
+    private long rebuilds;
+    // Scratch space, reused between ticks
+    private double[] centerX = new double[0];
+    private double[] centerY = new double[0];
+    private double[] sumX = new double[0];
+    private double[] sumY = new double[0];
+    // The current tick, for the blocks and the visitor
+    private ParticleStore particles;
+    private double reachSq;
+    private final BlockRunner.Block rows;
+
+    // Constructors
+    /**
+     * Create a ShortRangeGravity with the default cutoff of 100 pixels,
+     * softening of 5 pixels and skin of 20 pixels
+     */
+    public ShortRangeGravity() {
+	this(DEFAULT_CUTOFF, DEFAULT_SOFTENING, DEFAULT_SKIN);
+    }
+
+    /**
+     * Create a ShortRangeGravity
+     *
+     * @param cutoff The distance beyond which Particles do not attract, in
+     * pixels, which must be positive
+     * @param softening The softening length, in pixels, which must not be
+     * negative
+     * @param skin How much further than the cutoff the neighbor list reaches,
+     * in pixels, which must not be negative
+     */
+    public ShortRangeGravity(double cutoff, double softening, double skin) {
+	setCutoff(cutoff);
+	setSoftening(softening);
+	setSkin(skin);
+	collect = new SpatialGrid.PairVisitor() {
+	    @Override
+	    public void visit(int i, int j) {
+		double dx = centerX[j] - centerX[i], dy = centerY[j] - centerY[i];
+		if (dx * dx + dy * dy < reachSq) {
+		    addPair(i, j);
+		}
+	    }
+	};
+	rows = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		sumRows(start, end);
+	    }
+	};
+    }
+
+    // Methods
+    /**
+     * Work out the softened acceleration of every Particle from the
+     * Particles within the cutoff of it, rebuilding the neighbor list first
+     * if it has gone stale.
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G
+     * @param runner The BlockRunner to split the work with
+     * @param accelX Where to write the X components
+     * @param accelY Where to write the Y components
+     */
+    @Override
+    public void accelerate(ParticleStore particles, double gravitationalConstant, BlockRunner runner,
+	    double[] accelX, double[] accelY) {
+	int n = particles.size();
+	sum(particles, runner);
+	for (int i = 0; i < n; i++) {
+	    boolean marked = particles.isMarked(i);
+	    accelX[i] = marked ? 0 : gravitationalConstant * sumX[i];
+	    accelY[i] = marked ? 0 : gravitationalConstant * sumY[i];
+	}
+    }
+
+    /**
+     * Add the pair (<i>i</i>, <i>j</i>) to the neighbor list
+     *
+     * @param i The index of the first Particle
+     * @param j The index of the second Particle
+     */
+    private void addPair(int i, int j) {
+	if (pairs == first.length) {
+	    int capacity = Math.max(64, first.length * 2);
+	    first = Arrays.copyOf(first, capacity);
+	    second = Arrays.copyOf(second, capacity);
+	}
+	first[pairs] = i;
+	second[pairs] = j;
+	pairs++;
+    }
+
+    /**
+     * Apply the softened attraction between the Particles within the cutoff
+     * of each other to their velocities
+     *
+     * @param particles The Particles to attract to each other
+     * @param gravitationalConstant The constant G
+     * @param runner The BlockRunner to split the work with
+     */
+    @Override
+    public void apply(ParticleStore particles, double gravitationalConstant, BlockRunner runner) {
+	int n = particles.size();
+	sum(particles, runner);
+	for (int i = 0; i < n; i++) {
+	    if (!particles.isMarked(i)) {
+		particles.addVelocity(i, gravitationalConstant * sumX[i], gravitationalConstant * sumY[i]);
+	    }
+	}
+    }
+
+    /**
+     * Rebuild the neighbor list from where the Particles are now
+     *
+     * @param n The number of Particles
+     */
+    private void build(int n) {
+	double reach = cutoff + skin;
+	reachSq = reach * reach;
+
+	// The grid only needs to cover the centers. Any that are off the near
+	// edges are put in the edge cells, which only brings pairs closer.
+	double width = 1, height = 1;
+	for (int i = 0; i < n; i++) {
+	    width = Math.max(width, centerX[i] + 1);
+	    height = Math.max(height, centerY[i] + 1);
+	}
+	grid.rebuild(particles, width, height, reach);
+	pairs = 0;
+	grid.forEachCandidatePair(collect);
+	rowsBuilt = false;
+
+	if (builtX.length < n) {
+	    builtX = new double[centerX.length];
+	    builtY = new double[centerX.length];
+	}
+	System.arraycopy(centerX, 0, builtX, 0, n);
+	System.arraycopy(centerY, 0, builtY, 0, n);
+	built = particles;
+	builtModCount = particles.getModCount();
+	builtSize = n;
+	builtReach = reach;
+	rebuilds++;
+    }
+
+    /**
+     * Turn the pairs into rows of neighbors, in the order the pairs were
+     * found, for the parallel path
+     *
+     * @param n The number of Particles
+     */
+    private void buildRows(int n) {
+	if (rowStart.length < n + 1) {
+	    rowStart = new int[Math.max(n + 1, rowStart.length * 2)];
+	}
+	if (neighbors.length < 2 * pairs) {
+	    neighbors = new int[Math.max(2 * pairs, neighbors.length * 2)];
+	}
+
+	// Count each Particle's neighbors, turn the counts into starting
+	// points, then drop each pair into both rows
+	Arrays.fill(rowStart, 0, n + 1, 0);
+	for (int p = 0; p < pairs; p++) {
+	    rowStart[first[p] + 1]++;
+	    rowStart[second[p] + 1]++;
+	}
+	for (int i = 0; i < n; i++) {
+	    rowStart[i + 1] += rowStart[i];
+	}
+	for (int p = 0; p < pairs; p++) {
+	    neighbors[rowStart[first[p]]++] = second[p];
+	    neighbors[rowStart[second[p]]++] = first[p];
+	}
+	System.arraycopy(rowStart, 0, rowStart, 1, n);
+	rowStart[0] = 0;
+	rowsBuilt = true;
+    }
+
+    /**
+     * Make sure the scratch arrays can hold <i>n</i> Particles
+     *
+     * @param n The number of Particles
+     */
+    private void ensureCapacity(int n) {
+	if (centerX.length < n) {
+	    int capacity = Math.max(n, centerX.length * 2);
+	    centerX = new double[capacity];
+	    centerY = new double[capacity];
+	    sumX = new double[capacity];
+	    sumY = new double[capacity];
+	}
+    }
+
+    /**
+     * Get the distance beyond which Particles do not attract
+     *
+     * @return The cutoff, in pixels
+     */
+    public double getCutoff() {
+	return cutoff;
+    }
+
+    /**
+     * Get the number of pairs in the neighbor list
+     *
+     * @return The number of pairs
+     */
+    public int getNeighborPairs() {
+	return pairs;
+    }
+
+    /**
+     * Get the number of times the neighbor list has been built
+     *
+     * @return The number of rebuilds
+     */
+    public long getRebuilds() {
+	return rebuilds;
+    }
+
+    /**
+     * Get how much further than the cutoff the neighbor list reaches
+     *
+     * @return The skin, in pixels
+     */
+    public double getSkin() {
+	return skin;
+    }
+
+    /**
+     * Get the softening length
+     *
+     * @return The softening length, in pixels
+     */
+    public double getSoftening() {
+	return softening;
+    }
+
+    /**
+     * Check if the neighbor list has to be built again: the Particles were
+     * added, removed or replaced, the cutoff or skin changed, or some
+     * Particle has moved more than half the skin since it was built
+     *
+     * @param particles The Particles
+     * @param n The number of Particles
+     * @return True if the list is stale, false otherwise
+     */
+    private boolean isStale(ParticleStore particles, int n) {
+	if (particles != built || particles.getModCount() != builtModCount || n != builtSize
+		|| cutoff + skin != builtReach) {
+	    return true;
+	}
+	double limitSq = skin * skin / 4;
+	for (int i = 0; i < n; i++) {
+	    double dx = centerX[i] - builtX[i], dy = centerY[i] - builtY[i];
+	    if (dx * dx + dy * dy > limitSq) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Set the distance beyond which Particles do not attract. A larger cutoff
+     * is closer to the attraction of every Particle, at the cost of more
+     * pairs. This takes effect on the next tick.
+     *
+     * @param cutoff The cutoff, in pixels, which must be positive
+     */
+    public final void setCutoff(double cutoff) {
+	if (!(cutoff > 0) || Double.isInfinite(cutoff)) {
+	    throw new IllegalArgumentException("cutoff must be positive: " + cutoff);
+	}
+	this.cutoff = cutoff;
+    }
+
+    /**
+     * Set how much further than the cutoff the neighbor list reaches. This
+     * takes effect on the next tick.
+     *
+     * @param skin The skin, in pixels, which must not be negative
+     */
+    public final void setSkin(double skin) {
+	if (!(skin >= 0) || Double.isInfinite(skin)) {
+	    throw new IllegalArgumentException("skin must be non-negative: " + skin);
+	}
+	this.skin = skin;
+    }
+
+    /**
+     * Set the softening length. Below about this distance the force stops
+     * growing as the Particles get closer. This takes effect on the next
+     * tick.
+     *
+     * @param softening The softening length, in pixels, which must not be
+     * negative
+     */
+    public final void setSoftening(double softening) {
+	if (!(softening >= 0) || Double.isInfinite(softening)) {
+	    throw new IllegalArgumentException("softening must be non-negative: " + softening);
+	}
+	this.softening = softening;
+    }
+
+    /**
+     * Sum the attraction on every Particle, without G, into the scratch
+     * arrays, rebuilding the neighbor list first if it has gone stale
+     *
+     * @param particles The Particles to attract to each other
+     * @param runner The BlockRunner to split the work with
+     */
+    private void sum(ParticleStore particles, BlockRunner runner) {
+	int n = particles.size();
+	ensureCapacity(n);
+	for (int i = 0; i < n; i++) {
+	    centerX[i] = particles.getCenterX(i);
+	    centerY[i] = particles.getCenterY(i);
+	    sumX[i] = 0;
+	    sumY[i] = 0;
+	}
+
+	this.particles = particles;
+	if (isStale(particles, n)) {
+	    build(n);
+	}
+	if (runner.isParallel() || runner.isDeterministic()) {
+	    if (!rowsBuilt) {
+		buildRows(n);
+	    }
+	    runner.run(n, rows);
+	} else {
+	    sumPairs();
+	}
+	this.particles = null;
+    }
+
+    /**
+     * Visit every pair in the neighbor list once and accumulate the
+     * attraction on both Particles, if they are within the cutoff. This is
+     * the serial path.
+     */
+    private void sumPairs() {
+	// Some shortcuts
+	final double[] cx = centerX, cy = centerY, ax = sumX, ay = sumY;
+	final double[] mass = particles.mass;
+	final double cutoffSq = cutoff * cutoff, softeningSq = softening * softening;
+
+	for (int p = 0; p < pairs; p++) {
+	    int i = first[p], j = second[p];
+	    if (particles.isMarked(i) || particles.isMarked(j)) {
+		continue;
+	    }
+	    double dx = cx[j] - cx[i];
+	    double dy = cy[j] - cy[i];
+	    double distanceSq = dx * dx + dy * dy;
+	    if (distanceSq >= cutoffSq || distanceSq == 0) {
+		continue;
+	    }
+
+	    double softenedSq = distanceSq + softeningSq;
+	    double scale = 1 / (softenedSq * Math.sqrt(softenedSq));
+	    ax[i] += dx * scale * mass[j];
+	    ay[i] += dy * scale * mass[j];
+	    ax[j] -= dx * scale * mass[i];
+	    ay[j] -= dy * scale * mass[i];
+	}
+    }
+
+    /**
+     * Sum the attraction of the neighbors within the cutoff on Particles
+     * <i>start</i> to <i>end</i> - 1. This is the parallel path, run once per
+     * block.
+     *
+     * @param start The first Particle
+     * @param end One past the last Particle
+     */
+    private void sumRows(int start, int end) {
+	// Some shortcuts
+	final double[] cx = centerX, cy = centerY;
+	final double[] mass = particles.mass;
+	final double cutoffSq = cutoff * cutoff, softeningSq = softening * softening;
+
+	for (int i = start; i < end; i++) {
+	    if (particles.isMarked(i)) {
+		continue;
+	    }
+	    double x1 = cx[i], y1 = cy[i];
+	    double totalX = 0, totalY = 0;
+	    for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+		int j = neighbors[k];
+		if (particles.isMarked(j)) {
+		    continue;
+		}
+		double dx = cx[j] - x1;
+		double dy = cy[j] - y1;
+		double distanceSq = dx * dx + dy * dy;
+		if (distanceSq >= cutoffSq || distanceSq == 0) {
+		    continue;
+		}
+
+		double softenedSq = distanceSq + softeningSq;
+		double scale = mass[j] / (softenedSq * Math.sqrt(softenedSq));
+		totalX += dx * scale;
+		totalY += dy * scale;
+	    }
+	    sumX[i] = totalX;
+	    sumY[i] = totalY;
+	}
+    }
+}
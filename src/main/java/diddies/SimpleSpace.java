@@ -1,6 +1,8 @@
 package diddies;
 
 import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
 import javax.swing.JFrame;
 
 /**
@@ -20,21 +22,42 @@ public class SimpleSpace extends JFrame {
      * Creates a SimpleSpace with default settings
      */
     public SimpleSpace() {
-	initComponents();
+	initComponents(null);
+    }
+
+    /**
+     * Creates a SimpleSpace that plays back a recorded trajectory instead of
+     * running a Simulation
+     *
+     * @param replay The trajectory to play
+     */
+    public SimpleSpace(TrajectoryPlayer replay) {
+	initComponents(replay);
     }
 
     // Methods
     /**
      * Set up the working environment and any containers or components
+     *
+     * @param replay The trajectory to play, or null to run a Simulation
      */
     @SuppressWarnings("unchecked")
-    private void initComponents() {
+    private void initComponents(TrajectoryPlayer replay) {
 	// Set size/behaviour preferences
 	setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
 	setSize(WINDOW_WIDTH, WINDOW_HEIGHT);
 	setPreferredSize(new Dimension(WINDOW_WIDTH, WINDOW_HEIGHT));
 	setResizable(false);
 
+	// Play the recording, if there is one
+	if (replay != null) {
+	    ReplaySpace replaySpace = new ReplaySpace(replay);
+	    replaySpace.setBounds(0, 0, WINDOW_WIDTH, WINDOW_HEIGHT);
+	    this.addKeyListener(replaySpace);
+	    this.getContentPane().add(replaySpace);
+	    return;
+	}
+
 	// Create the Space
 	activeSpace = new Space();
 	activeSpace.setBounds(0, 0, WINDOW_WIDTH, WINDOW_HEIGHT);
@@ -43,17 +66,50 @@ public class SimpleSpace extends JFrame {
     }
 
     /**
-     * Creates the form
+     * Creates the form. "--capacity N" sets the most Particles the Space can
+     * hold, the same as the simplespace.capacity system property, and
+     * "--checkpoint FILE" resumes from and periodically saves to FILE, the
+     * same as the simplespace.checkpoint system property. "--record FILE"
+     * records the run to FILE, the same as the simplespace.record system
+     * property, and "--replay FILE" plays back a recording instead of running
+     * anything. "--active on" draws on a render thread of its own, the same as
+     * the simplespace.active system property, and "--fps N" caps its frame
+     * rate, the same as the simplespace.fps system property.
      *
      * @param args The command line arguments
      */
     public static void main(String args[]) {
+	String replay = null;
+	for (int i = 0; i + 1 < args.length; i++) {
+	    if (args[i].equals("--capacity")) {
+		System.setProperty(Simulation.CAPACITY_PROPERTY, args[++i]);
+	    } else if (args[i].equals("--checkpoint")) {
+		System.setProperty(Space.CHECKPOINT_PROPERTY, args[++i]);
+	    } else if (args[i].equals("--record")) {
+		System.setProperty(Space.RECORD_PROPERTY, args[++i]);
+	    } else if (args[i].equals("--active")) {
+		System.setProperty(Space.ACTIVE_PROPERTY, String.valueOf(args[++i].equals("on")));
+	    } else if (args[i].equals("--fps")) {
+		System.setProperty(ActiveCanvas.FPS_PROPERTY, args[++i]);
+	    } else if (args[i].equals("--replay")) {
+		replay = args[++i];
+	    }
+	}
+
+	final TrajectoryPlayer player;
+	try {
+	    player = (replay == null) ? null : new TrajectoryPlayer(new File(replay));
+	} catch (IOException e) {
+	    System.err.println(e.getMessage());
+	    System.exit(1);
+	    return;
+	}
 
 	// Create and display the form
 	java.awt.EventQueue.invokeLater(new Runnable() {
 	    @Override
 	    public void run() {
-		new SimpleSpace().setVisible(true);
+		new SimpleSpace(player).setVisible(true);
 	    }
 	});
     }
@@ -0,0 +1,1088 @@
+package diddies;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Simulation is the physics of SimpleSpace with nothing else attached. It owns
+ * the ParticleStore and, each time step() is called, has its Integrator move
+ * the Particles and apply gravity for one timestep, checks collisions, and
+ * manages the store of Particles.
+ * It only needs to know the size of the box the Particles live in, which it
+ * gets from a Bounds, so it does not depend on AWT or Swing and runs just as
+ * well on a machine without a display. Updater drives it from a Timer for the
+ * windowed application, and HeadlessRunner drives it from the command line.
+ *
+ * With continuous collision detection turned on, each tick sweeps every
+ * Particle along the line it moved and finds the moment it first touched
+ * another Particle or a wall, rather than only checking where it ended up. Fast
+ * Particles then bounce off of each other instead of passing through, so the
+ * velocity limit can be raised or removed and the timestep made larger.
+ *
+ * Particles that overlap by more than the merge threshold are merged by a
+ * MergeStage after they have moved, before any of them bounce.
+ *
+ * In deterministic mode a run gives the same result, bit for bit, every time
+ * and for any number of threads: every pass adds its forces up and resolves
+ * merges in a fixed order, and the timestep is fixed. getStateHash()
+ * condenses the state into one number to compare runs tick by tick.
+ *
+ * Every tick is timed phase by phase and counted in a SimulationMetrics.
+ * Collisions, absorptions, wall bounces and added Particles are published to
+ * an EventBus, but only the Types someone has subscribed to, and listeners
+ * hear about them on the bus's thread rather than the physics thread.
+ *
+ * Every method is safe to call from any thread. A tick holds the store's
+ * monitor for its whole duration, and each tick's result is published to a
+ * SnapshotExchange for anything that wants to look at it without waiting.
+ * The methods a user interface calls on every mouse event never wait for a
+ * tick: queueParticle() hands the Particle to a lock-free queue that the next
+ * tick drains before it moves anything, contains() checks the Particles as of
+ * the last tick, in a HitTestIndex the tick builds, and isFull() reads a
+ * count kept up to date by the tick.
+ *
+ * @author Ryan Kenney
+ */
+public class Simulation {
+
+    // Attributes, by type
+    // Gravity
+    public final static double GRAVITATIONAL_CONSTANT = 5e-3;
+    private boolean enableGravity = true;
+    private GravitySolver gravity;
+    private final Integrator.Forces forces;
+    // Integration
+    private Integrator integrator;
+    private double timestep = 1;
+    // Particle
+    public final static String CAPACITY_PROPERTY = "simplespace.capacity";
+    private final static int PRESIZE_LIMIT = 1 << 20;
+    private final ParticleStore particles;
+    private volatile int capacity;
+    private long tick;
+    // Input, which never waits for a tick
+    private final ConcurrentLinkedQueue<Insertion> queued = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private volatile int population;
+    private final HitTestIndex hitTests = new HitTestIndex();
+    private long seed;
+    // Collisions
+    private final SpatialGrid grid;
+    private final SpatialGrid.PairVisitor collide;
+    private final SpatialGrid.PairVisitor sweep;
+    private final MergeStage merges;
+    private int merged;
+    private boolean continuous;
+    private double[] startX = new double[0];
+    private double[] startY = new double[0];
+    private boolean[] swept = new boolean[0];
+    private boolean moved;
+    // Threads
+    private final static String THREADS_PROPERTY = "simplespace.threads";
+    public final static String DETERMINISTIC_PROPERTY = "simplespace.deterministic";
+    private BlockRunner runner;
+    private boolean deterministic;
+    private final BlockRunner.Block walls;
+    private final BlockRunner.Block reflect;
+    // Snapshots
+    private final SnapshotExchange snapshots;
+    private TickListener listener;
+    // Metrics
+    private final SimulationMetrics metrics;
+    // Events
+    private final EventBus bus;
+    private long gravityNanos;
+    private long collisionsStart;
+    private long pairTests;
+    private long collisions;
+    // Etc
+    private final Bounds bounds;
+    private int width;
+    private int height;
+
+    // Constructors
+    /**
+     * Create an empty Simulation inside of <i>bounds</i>. The capacity comes
+     * from the simplespace.capacity system property, and is unlimited if it is
+     * not set.
+     *
+     * @param bounds The box the Particles bounce around in
+     */
+    public Simulation(Bounds bounds) {
+	this(bounds, Integer.getInteger(CAPACITY_PROPERTY, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Create an empty Simulation inside of <i>bounds</i> that holds at most
+     * <i>capacity</i> Particles
+     *
+     * @param bounds The box the Particles bounce around in
+     * @param capacity The most Particles the Simulation can hold, at least 1
+     */
+    public Simulation(Bounds bounds, int capacity) {
+	if (capacity < 1) {
+	    throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+	}
+	this.bounds = bounds;
+	this.capacity = capacity;
+	particles = new ParticleStore(Math.min(capacity, PRESIZE_LIMIT));
+	gravity = new BruteForceGravity();
+	integrator = new EulerIntegrator();
+	forces = new Integrator.Forces() {
+	    @Override
+	    public void accelerate(ParticleStore particles, double[] accelX, double[] accelY) {
+		long start = System.nanoTime();
+		if (enableGravity) {
+		    gravity.accelerate(particles, GRAVITATIONAL_CONSTANT, runner, accelX, accelY);
+		} else {
+		    Arrays.fill(accelX, 0, particles.size(), 0);
+		    Arrays.fill(accelY, 0, particles.size(), 0);
+		}
+		gravityNanos += System.nanoTime() - start;
+	    }
+	};
+	grid = new SpatialGrid();
+	metrics = new SimulationMetrics();
+	bus = new EventBus();
+	merges = new MergeStage(bus);
+	snapshots = new SnapshotExchange();
+	collide = new SpatialGrid.PairVisitor() {
+	    @Override
+	    public void visit(int i, int j) {
+		pairTests++;
+		if (!particles.isMarked(i) && !particles.isMarked(j) && particles.overlaps(i, j)) {
+		    collide(i, j);
+		}
+	    }
+	};
+	sweep = new SpatialGrid.PairVisitor() {
+	    @Override
+	    public void visit(int i, int j) {
+		pairTests++;
+		sweep(i, j);
+	    }
+	};
+	deterministic = Boolean.getBoolean(DETERMINISTIC_PROPERTY);
+	runner = new BlockRunner(Math.max(1, Integer.getInteger(THREADS_PROPERTY, 1)), deterministic);
+	walls = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		bounceOffWalls(start, end);
+	    }
+	};
+	reflect = new BlockRunner.Block() {
+	    @Override
+	    public void run(int block, int start, int end) {
+		reflectOffWalls(start, end);
+	    }
+	};
+    }
+
+    // Methods
+    /**
+     * Add a Particle to the Simulation, unless it is full
+     *
+     * @param x The X component of the Particle's position
+     * @param y The Y component of the Particle's position
+     * @param vx The X component of the Particle's velocity
+     * @param vy The Y component of the Particle's velocity
+     * @param mass The mass of the Particle
+     * @param diameter The diameter of the Particle
+     * @return True if the Particle was added, false if the Simulation is full
+     */
+    public boolean addParticle(double x, double y, double vx, double vy, double mass, int diameter) {
+	synchronized (particles) {
+	    boolean added = insert(x, y, vx, vy, mass, diameter);
+	    population = particles.size();
+	    bus.flush();
+	    return added;
+	}
+    }
+
+    /**
+     * Add every Particle in <i>batch</i> to the Simulation, or as many as fit.
+     * The whole batch is copied under one lock with one grow at most, so this
+     * is the way to seed a large Simulation.
+     *
+     * @param batch The Particles to add
+     * @return The number of Particles added
+     */
+    public int addParticles(ParticleStore batch) {
+	synchronized (particles) {
+	    int count = Math.min(batch.size(), capacity - particles.size());
+	    if (count <= 0) {
+		return 0;
+	    }
+	    int first = particles.size();
+	    particles.addAll(batch, 0, count);
+	    population = particles.size();
+	    if (bus.isPublishing(SimulationEvent.Type.PARTICLE_ADDED)) {
+		for (int i = first; i < first + count; i++) {
+		    bus.publish(SimulationEvent.Type.PARTICLE_ADDED, particles.getCenterX(i),
+			    particles.getCenterY(i), particles.mass[i],
+			    Math.sqrt(particles.vx[i] * particles.vx[i] + particles.vy[i] * particles.vy[i]));
+		}
+		bus.flush();
+	    }
+	    return count;
+	}
+    }
+
+    /**
+     * Bounce Particles <i>start</i> to <i>end</i> - 1 off of the walls, if
+     * they have hit them
+     *
+     * @param start The first Particle
+     * @param end One past the last Particle
+     */
+    private void bounceOffWalls(int start, int end) {
+	final double[] x = particles.x, y = particles.y;
+	final double[] vx = particles.vx, vy = particles.vy;
+	final int[] diameter = particles.diameter;
+	final double limit = particles.getVelocityLimit();
+	final boolean publishing = bus.isPublishing(SimulationEvent.Type.WALL_BOUNCE);
+	for (int i = start; i < end; i++) {
+	    if (x[i] <= 0 || (x[i] + diameter[i]) >= width) {
+		if (publishing) {
+		    publishWallBounce(i, Math.abs(vx[i]));
+		}
+		// Fix particles that get stuck
+		if (x[i] < 0) {
+		    x[i] = 1;
+		    moved = true;
+		} else if ((x[i] + diameter[i]) > width) {
+		    x[i] = (width - diameter[i]) - 1;
+		    moved = true;
+		}
+		vx[i] = Velocity.clamp(-vx[i], limit);
+	    } else if (y[i] <= 0 || (y[i] + diameter[i]) >= height) {
+		if (publishing) {
+		    publishWallBounce(i, Math.abs(vy[i]));
+		}
+		// Fix particles that get stuck
+		if (y[i] < 0) {
+		    y[i] = 1;
+		    moved = true;
+		} else if ((y[i] + diameter[i]) > height) {
+		    y[i] = (height - diameter[i]) - 1;
+		    moved = true;
+		}
+		vy[i] = Velocity.clamp(-vy[i], limit);
+	    }
+	}
+    }
+
+    /**
+     * Handle a collision between Particles <i>i</i> and <i>j</i>. The current
+     * procedure is only partially accurate, and the deficiencies can be
+     * noticed by observation: each Particle's momentum is nullified and
+     * replaced by the other's, weighted by their masses.
+     *
+     * @param i The index of the first Particle
+     * @param j The index of the second Particle
+     */
+    private void collide(int i, int j) {
+	final double[] vx = particles.vx, vy = particles.vy;
+	double m1 = particles.mass[i], m2 = particles.mass[j];
+	double vx1 = vx[i], vy1 = vy[i];
+	collisions++;
+	if (bus.isPublishing(SimulationEvent.Type.COLLISION)) {
+	    double dvx = vx1 - vx[j], dvy = vy1 - vy[j];
+	    bus.publish(SimulationEvent.Type.COLLISION, (particles.getCenterX(i) + particles.getCenterX(j)) / 2,
+		    (particles.getCenterY(i) + particles.getCenterY(j)) / 2, m1 + m2,
+		    Math.sqrt(dvx * dvx + dvy * dvy));
+	}
+	particles.setVelocity(i, (2 * m2 * vx[j]) / (m1 + m2), (2 * m2 * vy[j]) / (m1 + m2));
+	particles.setVelocity(j, (2 * m1 * vx1) / (m1 + m2), (2 * m1 * vy1) / (m1 + m2));
+    }
+
+    /**
+     * Check if (<i>px</i>, <i>py</i>) is inside of any of the Particles, as of
+     * the last tick. This never waits for the tick in progress.
+     *
+     * @param px The X component of the point
+     * @param py The Y component of the point
+     * @return True if the point is inside a Particle, false otherwise
+     */
+    public boolean contains(double px, double py) {
+	synchronized (hitTests) {
+	    return hitTests.contains(px, py);
+	}
+    }
+
+    /**
+     * Copy the full state of the Simulation into <i>destination</i>, all
+     * within one tick
+     *
+     * @param destination The Checkpoint to copy into
+     */
+    public void copyCheckpoint(Checkpoint destination) {
+	synchronized (particles) {
+	    destination.getParticles().copyFrom(particles);
+	    destination.setTick(tick);
+	    destination.setSeed(seed);
+	    destination.setUsingGravity(enableGravity);
+	    destination.setContinuousCollisions(continuous);
+	    destination.setTimestep(timestep);
+	}
+    }
+
+    /**
+     * Copy the current state of every Particle into <i>destination</i>
+     *
+     * @param destination The store to copy into
+     */
+    public void copyParticles(ParticleStore destination) {
+	synchronized (particles) {
+	    destination.copyFrom(particles);
+	}
+    }
+
+    /**
+     * Get the Bounds the Particles bounce around in
+     *
+     * @return The Bounds
+     */
+    public Bounds getBounds() {
+	return bounds;
+    }
+
+    /**
+     * Get the most Particles the Simulation can hold
+     *
+     * @return The capacity
+     */
+    public int getCapacity() {
+	synchronized (particles) {
+	    return capacity;
+	}
+    }
+
+    /**
+     * Get the EventBus that collisions, absorptions, wall bounces and added
+     * Particles are published to. Subscribing to it does not slow the ticks
+     * down.
+     *
+     * @return The EventBus
+     */
+    public EventBus getEventBus() {
+	return bus;
+    }
+
+    /**
+     * Get the strategy used to calculate gravity
+     *
+     * @return The current GravitySolver
+     */
+    public GravitySolver getGravitySolver() {
+	return gravity;
+    }
+
+    /**
+     * Get the strategy used to move the Particles
+     *
+     * @return The current Integrator
+     */
+    public Integrator getIntegrator() {
+	return integrator;
+    }
+
+    /**
+     * Get how far Particles have to overlap to merge, as a fraction of the
+     * smaller one's diameter
+     *
+     * @return The threshold, Double.POSITIVE_INFINITY if merging is off
+     */
+    public double getMergeThreshold() {
+	synchronized (particles) {
+	    return merges.getThreshold();
+	}
+    }
+
+    /**
+     * Get the metrics of the Simulation, which can be read from any thread
+     *
+     * @return The SimulationMetrics
+     */
+    public SimulationMetrics getMetrics() {
+	return metrics;
+    }
+
+    /**
+     * Get the seed the Simulation's initial state was made from
+     *
+     * @return The seed
+     */
+    public long getSeed() {
+	synchronized (particles) {
+	    return seed;
+	}
+    }
+
+    /**
+     * Get the exchange that each tick's result is published to
+     *
+     * @return The SnapshotExchange
+     */
+    public SnapshotExchange getSnapshots() {
+	return snapshots;
+    }
+
+    /**
+     * Work out a hash of the current state of every Particle. Two runs that
+     * have the same hash at the same tick are in the same state, bit for bit.
+     *
+     * @return The hash
+     */
+    public long getStateHash() {
+	synchronized (particles) {
+	    return particles.stateHash();
+	}
+    }
+
+    /**
+     * Get the number of threads the physics is split across
+     *
+     * @return The number of threads
+     */
+    public int getThreadCount() {
+	return runner.getThreads();
+    }
+
+    /**
+     * Get the amount of time each tick advances the Simulation by
+     *
+     * @return The timestep
+     */
+    public double getTimestep() {
+	synchronized (particles) {
+	    return timestep;
+	}
+    }
+
+    /**
+     * Get the number of ticks that have been run
+     *
+     * @return The number of ticks
+     */
+    public long getTick() {
+	synchronized (particles) {
+	    return tick;
+	}
+    }
+
+    /**
+     * Get the largest magnitude either component of a Particle's velocity may
+     * have
+     *
+     * @return The velocity limit
+     */
+    public double getVelocityLimit() {
+	synchronized (particles) {
+	    return particles.getVelocityLimit();
+	}
+    }
+
+    /**
+     * Add a Particle to the store and publish it, unless the Simulation is
+     * full. The caller holds the store's monitor.
+     *
+     * @param x The X component of the Particle's position
+     * @param y The Y component of the Particle's position
+     * @param vx The X component of the Particle's velocity
+     * @param vy The Y component of the Particle's velocity
+     * @param mass The mass of the Particle
+     * @param diameter The diameter of the Particle
+     * @return True if the Particle was added, false if the Simulation is full
+     */
+    private boolean insert(double x, double y, double vx, double vy, double mass, int diameter) {
+	if (particles.size() >= capacity) {
+	    return false;
+	}
+	particles.add(x, y, vx, vy, mass, diameter);
+	bus.publish(SimulationEvent.Type.PARTICLE_ADDED, x + diameter / 2.0, y + diameter / 2.0, mass,
+		Math.sqrt(vx * vx + vy * vy));
+	return true;
+    }
+
+    /**
+     * Move the Particles and apply gravity for one timestep, timing the two
+     * separately. Everything after this, up to removal, counts as collisions.
+     */
+    private void integrate() {
+	gravityNanos = 0;
+	long start = System.nanoTime();
+	integrator.step(particles, timestep, forces, runner);
+	long end = System.nanoTime();
+	metrics.record(SimulationMetrics.Phase.MOMENTUM, end - start - gravityNanos);
+	metrics.record(SimulationMetrics.Phase.GRAVITY, gravityNanos);
+	collisionsStart = end;
+    }
+
+    /**
+     * Check if deterministic mode is turned on
+     *
+     * @return True if it is on, false otherwise
+     */
+    public boolean isDeterministic() {
+	synchronized (particles) {
+	    return deterministic;
+	}
+    }
+
+    /**
+     * Check if the Simulation holds as many Particles as it can, counting the
+     * ones queued for the next tick. This never waits for a tick, so a
+     * Particle merged away during the tick in progress is still counted.
+     *
+     * @return True if no more Particles can be added, false otherwise
+     */
+    public boolean isFull() {
+	return population + queuedCount.get() >= capacity;
+    }
+
+    /**
+     * Publish that Particle <i>i</i> bounced off of a wall. The wall passes
+     * call this from every block at once.
+     *
+     * @param i The index of the Particle
+     * @param speed The speed it hit the wall at
+     */
+    private void publishWallBounce(int i, double speed) {
+	bus.publish(SimulationEvent.Type.WALL_BOUNCE, particles.getCenterX(i), particles.getCenterY(i),
+		particles.mass[i], speed);
+    }
+
+    /**
+     * Queue a Particle to be added at the start of the next tick. This never
+     * waits for a tick, so it is the way to add Particles from a user
+     * interface. A Particle that finds the Simulation full when the tick
+     * drains the queue is dropped.
+     *
+     * @param x The X component of the Particle's position
+     * @param y The Y component of the Particle's position
+     * @param vx The X component of the Particle's velocity
+     * @param vy The Y component of the Particle's velocity
+     * @param mass The mass of the Particle
+     * @param diameter The diameter of the Particle
+     * @return True if the Particle was queued, false if the Simulation looks
+     * full already
+     */
+    public boolean queueParticle(double x, double y, double vx, double vy, double mass, int diameter) {
+	if (isFull()) {
+	    return false;
+	}
+	queuedCount.incrementAndGet();
+	queued.add(new Insertion(x, y, vx, vy, mass, diameter));
+	return true;
+    }
+
+    /**
+     * Reflect Particles <i>start</i> to <i>end</i> - 1 off of the walls, for
+     * continuous collision detection. A Particle that went past a wall during
+     * the tick is put where it would have been had it bounced at the moment it
+     * touched the wall, which is its position mirrored in the wall.
+     *
+     * @param start The first Particle
+     * @param end One past the last Particle
+     */
+    private void reflectOffWalls(int start, int end) {
+	final double[] x = particles.x, y = particles.y;
+	final double[] vx = particles.vx, vy = particles.vy;
+	final int[] diameter = particles.diameter;
+	final boolean publishing = bus.isPublishing(SimulationEvent.Type.WALL_BOUNCE);
+	for (int i = start; i < end; i++) {
+	    double maxX = Math.max(0, width - diameter[i]);
+	    double maxY = Math.max(0, height - diameter[i]);
+	    if (publishing && (x[i] < 0 || x[i] > maxX)) {
+		publishWallBounce(i, Math.abs(vx[i]));
+	    } else if (publishing && (y[i] < 0 || y[i] > maxY)) {
+		publishWallBounce(i, Math.abs(vy[i]));
+	    }
+	    if (x[i] < 0) {
+		x[i] = Math.min(-x[i], maxX);
+		vx[i] = Math.abs(vx[i]);
+		moved = true;
+	    } else if (x[i] > maxX) {
+		x[i] = Math.max(2 * maxX - x[i], 0);
+		vx[i] = -Math.abs(vx[i]);
+		moved = true;
+	    }
+	    if (y[i] < 0) {
+		y[i] = Math.min(-y[i], maxY);
+		vy[i] = Math.abs(vy[i]);
+		moved = true;
+	    } else if (y[i] > maxY) {
+		y[i] = Math.max(2 * maxY - y[i], 0);
+		vy[i] = -Math.abs(vy[i]);
+		moved = true;
+	    }
+	}
+    }
+
+    /**
+     * Replace the full state of the Simulation with <i>source</i>: the
+     * Particles, the tick, the seed, gravity, continuous collisions, the
+     * timestep and the velocity limit. Every Particle in the Checkpoint is
+     * kept, even if there are more than the capacity.
+     *
+     * @param source The Checkpoint to restore
+     */
+    public void restore(Checkpoint source) {
+	synchronized (particles) {
+	    particles.copyFrom(source.getParticles());
+	    population = particles.size();
+	    tick = source.getTick();
+	    seed = source.getSeed();
+	    enableGravity = source.usingGravity();
+	    continuous = source.usingContinuousCollisions();
+	    timestep = source.getTimestep();
+	}
+    }
+
+    /**
+     * Change the most Particles the Simulation can hold. Particles that are
+     * already in the Simulation are kept, even if there are more than
+     * <i>capacity</i> of them. The store is grown to fit right away (up to a
+     * limit), so adding Particles later does not have to.
+     *
+     * @param capacity The most Particles the Simulation can hold, at least 1
+     */
+    public void setCapacity(int capacity) {
+	if (capacity < 1) {
+	    throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+	}
+	synchronized (particles) {
+	    this.capacity = capacity;
+	    particles.ensureCapacity(Math.min(capacity, PRESIZE_LIMIT));
+	}
+    }
+
+    /**
+     * Turn continuous collision detection on or off. It is off by default,
+     * since it costs a second pass over the Particles and larger grid cells,
+     * and the default velocity limit keeps Particles from passing through
+     * each other without it. This takes effect on the next tick.
+     *
+     * @param continuous True to sweep Particles along their paths, false to
+     * only check where they end up
+     */
+    public void setContinuousCollisions(boolean continuous) {
+	synchronized (particles) {
+	    this.continuous = continuous;
+	}
+    }
+
+    /**
+     * Turn deterministic mode on or off. When it is on, every tick gives the
+     * same result for any number of threads, at some cost in speed on one
+     * thread. The default comes from the simplespace.deterministic system
+     * property. This takes effect on the next tick.
+     *
+     * @param deterministic True to turn deterministic mode on, false to turn
+     * it off
+     */
+    public void setDeterministic(boolean deterministic) {
+	BlockRunner old;
+	synchronized (particles) {
+	    if (this.deterministic == deterministic) {
+		return;
+	    }
+	    this.deterministic = deterministic;
+	    old = runner;
+	    runner = new BlockRunner(old.getThreads(), deterministic);
+	}
+	old.shutdown();
+    }
+
+    /**
+     * Change the strategy used to calculate gravity. This takes effect on the
+     * next tick.
+     *
+     * @param gravity The GravitySolver to use
+     */
+    public void setGravitySolver(GravitySolver gravity) {
+	synchronized (particles) {
+	    this.gravity = gravity;
+	    integrator.invalidate();
+	}
+    }
+
+    /**
+     * Change the strategy used to move the Particles. This takes effect on the
+     * next tick.
+     *
+     * @param integrator The Integrator to use
+     */
+    public void setIntegrator(Integrator integrator) {
+	synchronized (particles) {
+	    this.integrator = integrator;
+	}
+    }
+
+    /**
+     * Change how far Particles have to overlap to merge, as a fraction of the
+     * smaller one's diameter. This takes effect on the next tick.
+     *
+     * @param threshold The threshold, which must not be negative.
+     * Double.POSITIVE_INFINITY turns merging off.
+     */
+    public void setMergeThreshold(double threshold) {
+	synchronized (particles) {
+	    merges.setThreshold(threshold);
+	}
+    }
+
+    /**
+     * Record the seed the Simulation's initial state was made from, so that
+     * it is saved in Checkpoints
+     *
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+	synchronized (particles) {
+	    this.seed = seed;
+	}
+    }
+
+    /**
+     * Change what is told about every tick as it finishes, or null for
+     * nothing. This takes effect on the next tick.
+     *
+     * @param listener The TickListener
+     */
+    public void setTickListener(TickListener listener) {
+	synchronized (particles) {
+	    this.listener = listener;
+	}
+    }
+
+    /**
+     * Change the number of threads the physics is split across. 1 runs
+     * everything on the thread that calls step(). This takes effect on the
+     * next tick. The default comes from the simplespace.threads system
+     * property.
+     *
+     * @param threads The number of threads, at least 1
+     */
+    public void setThreadCount(int threads) {
+	BlockRunner old;
+	synchronized (particles) {
+	    old = runner;
+	    runner = new BlockRunner(threads, deterministic);
+	}
+	old.shutdown();
+    }
+
+    /**
+     * Change the amount of time each tick advances the Simulation by. 1 is one
+     * tick of the original simulation. This takes effect on the next tick.
+     *
+     * @param timestep The timestep, greater than 0
+     */
+    public void setTimestep(double timestep) {
+	if (!(timestep > 0)) {
+	    throw new IllegalArgumentException("timestep must be greater than 0: " + timestep);
+	}
+	synchronized (particles) {
+	    this.timestep = timestep;
+	}
+    }
+
+    /**
+     * Turn gravity on or off
+     *
+     * @param enableGravity True to turn gravity on, false to turn it off
+     */
+    public void setUsingGravity(boolean enableGravity) {
+	synchronized (particles) {
+	    this.enableGravity = enableGravity;
+	    integrator.invalidate();
+	}
+    }
+
+    /**
+     * Change the largest magnitude either component of a Particle's velocity
+     * may have. The default of 1 keeps Particles from skipping over pixels;
+     * with continuous collision detection turned on it can be raised, or
+     * removed with Double.POSITIVE_INFINITY.
+     *
+     * @param limit The limit, greater than 0
+     */
+    public void setVelocityLimit(double limit) {
+	synchronized (particles) {
+	    particles.setVelocityLimit(limit);
+	}
+    }
+
+    /**
+     * Stop any threads the Simulation started. It can still be stepped
+     * afterwards, but only on the calling thread.
+     */
+    public void shutdown() {
+	setThreadCount(1);
+	bus.close();
+	metrics.unregister();
+    }
+
+    /**
+     * Get the number of Particles in the Simulation
+     *
+     * @return The number of Particles
+     */
+    public int size() {
+	synchronized (particles) {
+	    return particles.size();
+	}
+    }
+
+    /**
+     * Advance the Simulation by one tick of the timestep. Each pass is a
+     * straight loop over the store's arrays. The integration, gravity and wall
+     * passes are split into blocks across the threads when there is more than
+     * one.
+     */
+    public void step() {
+	synchronized (particles) {
+	    final long start = System.nanoTime();
+	    bus.setTick(tick + 1);
+
+	    // Particles queued since the last tick
+	    for (Insertion insertion = queued.poll(); insertion != null; insertion = queued.poll()) {
+		queuedCount.decrementAndGet();
+		insert(insertion.x, insertion.y, insertion.vx, insertion.vy, insertion.mass, insertion.diameter);
+	    }
+
+	    final int n = particles.size();
+	    width = bounds.getWidth();
+	    height = bounds.getHeight();
+	    pairTests = 0;
+	    collisions = 0;
+	    merged = 0;
+	    moved = false;
+
+	    if (continuous) {
+		stepContinuous(n);
+	    } else {
+		// Momentum and the effects of gravity
+		integrate();
+
+		// Individual collisions with walls
+		runner.run(n, walls);
+
+		// Merges and collisions between Particles. The grid finds the
+		// pairs that are close enough to touch, and each pass checks
+		// them exactly. Merging moves and grows the survivors, so the
+		// grid is sorted again before the collisions if anything merged
+		grid.rebuild(particles, width, height);
+		merged = merges.merge(particles, grid);
+		if (merged > 0) {
+		    grid.rebuild(particles, width, height);
+		}
+		grid.forEachCandidatePair(collide);
+	    }
+	    long removal = System.nanoTime();
+	    metrics.record(SimulationMetrics.Phase.COLLISIONS, removal - collisionsStart);
+
+	    // The Integrator's forces are stale if anything else moved a Particle
+	    if (moved) {
+		integrator.invalidate();
+	    }
+
+	    // Remove destroyed particles
+	    particles.removeMarked();
+	    tick++;
+	    metrics.record(SimulationMetrics.Phase.REMOVAL, System.nanoTime() - removal);
+
+	    population = particles.size();
+
+	    // Hand a copy to whoever is watching, if they are ready for one, and
+	    // an index to hit tests
+	    snapshots.publish(particles);
+	    hitTests.publish(particles, width, height);
+	    if (listener != null) {
+		listener.ticked(tick, particles);
+	    }
+	    metrics.record(SimulationMetrics.Phase.TICK, System.nanoTime() - start);
+	    metrics.recordTick(pairTests, collisions, merged, particles.size());
+	    bus.flush();
+	}
+    }
+
+    /**
+     * Advance the Simulation by one tick with continuous collision detection.
+     * The Particles are moved as usual, then every pair is swept from where
+     * it started the tick to where it ended, and the first pair to touch
+     * bounces at the moment it touched and travels the rest of the tick with
+     * its new velocity. Each Particle bounces off of at most one other per
+     * tick this way; any further contact that tick is handled by overlap as
+     * usual. Walls are handled last, by reflection.
+     *
+     * @param n The number of Particles
+     */
+    private void stepContinuous(int n) {
+	if (startX.length < n) {
+	    int length = Math.max(n, 2 * startX.length);
+	    startX = new double[length];
+	    startY = new double[length];
+	    swept = new boolean[length];
+	}
+	System.arraycopy(particles.x, 0, startX, 0, n);
+	System.arraycopy(particles.y, 0, startY, 0, n);
+	Arrays.fill(swept, 0, n, false);
+
+	// Momentum and the effects of gravity
+	integrate();
+
+	// The grid cells have to be wide enough that any two Particles that
+	// could have met along the way are still in neighbouring cells
+	final double[] x = particles.x, y = particles.y;
+	double maxMove = 0;
+	for (int i = 0; i < n; i++) {
+	    double dx = x[i] - startX[i], dy = y[i] - startY[i];
+	    maxMove = Math.max(maxMove, dx * dx + dy * dy);
+	}
+	grid.rebuild(particles, width, height, 2 * Math.sqrt(maxMove));
+	grid.forEachCandidatePair(sweep);
+
+	// Collisions with walls
+	runner.run(n, reflect);
+
+	// Merges, where everything ended up
+	if (merges.getThreshold() != Double.POSITIVE_INFINITY) {
+	    grid.rebuild(particles, width, height);
+	    merged = merges.merge(particles, grid);
+	}
+    }
+
+    /**
+     * Sweep Particles <i>i</i> and <i>j</i> from where they started the tick
+     * to where they are now, and if they touched along the way, bounce them
+     * at the moment they did
+     *
+     * @param i The index of the first Particle
+     * @param j The index of the second Particle
+     */
+    private void sweep(int i, int j) {
+	if (particles.isMarked(i) || particles.isMarked(j)) {
+	    return;
+	}
+	if (swept[i] || swept[j]) {
+	    // Already bounced this tick, so the sweep would start from the
+	    // wrong place
+	    if (particles.overlaps(i, j)) {
+		collide(i, j);
+	    }
+	    return;
+	}
+
+	final double[] x = particles.x, y = particles.y;
+	final double[] vx = particles.vx, vy = particles.vy;
+	double r1 = particles.diameter[i] / 2.0, r2 = particles.diameter[j] / 2.0;
+	double dx1 = x[i] - startX[i], dy1 = y[i] - startY[i];
+	double dx2 = x[j] - startX[j], dy2 = y[j] - startY[j];
+	double t = CircleGeometry.timeOfImpact(startX[i] + r1, startY[i] + r1, dx1, dy1, r1,
+		startX[j] + r2, startY[j] + r2, dx2, dy2, r2);
+	if (t < 0) {
+	    return;
+	}
+
+	collide(i, j);
+	if (t > 0) {
+	    // Move to the point of contact, then on with the new velocity
+	    double rest = (1 - t) * timestep;
+	    x[i] = startX[i] + dx1 * t + vx[i] * rest;
+	    y[i] = startY[i] + dy1 * t + vy[i] * rest;
+	    x[j] = startX[j] + dx2 * t + vx[j] * rest;
+	    y[j] = startY[j] + dy2 * t + vy[j] * rest;
+	    swept[i] = true;
+	    swept[j] = true;
+	    moved = true;
+	}
+    }
+
+    /**
+     * If gravity is turned on, turn it off. If gravity is turned off, turn it
+     * on.
+     */
+    public void toggleGravity() {
+	synchronized (particles) {
+	    enableGravity = !enableGravity;
+	    integrator.invalidate();
+	}
+    }
+
+    /**
+     * Check if continuous collision detection is turned on
+     *
+     * @return True if it is on, false otherwise
+     */
+    public boolean usingContinuousCollisions() {
+	synchronized (particles) {
+	    return continuous;
+	}
+    }
+
+    /**
+     * Check if gravity is turned on
+     *
+     * @return True if gravity is on, false otherwise
+     */
+    public boolean usingGravity() {
+	synchronized (particles) {
+	    return enableGravity;
+	}
+    }
+
+    /**
+     * Something that is told about every tick of a Simulation as it finishes
+     */
+    public interface TickListener {
+
+	/**
+	 * Called at the end of every tick, on the thread running the tick and
+	 * while it holds the Simulation's lock. <i>particles</i> is only valid
+	 * until this returns, so anything that is kept has to be copied out, and
+	 * since the Simulation waits on it this must not block.
+	 *
+	 * @param tick The number of ticks run so far, including this one
+	 * @param particles The Particles at the end of the tick
+	 */
+	public void ticked(long tick, ParticleStore particles);
+    }
+
+    /**
+     * An Insertion is a Particle waiting in the queue for the next tick
+     */
+    private static class Insertion {
+
+	// Attributes
+	private final double x;
+	private final double y;
+	private final double vx;
+	private final double vy;
+	private final double mass;
+	private final int diameter;
+
+	// Constructors
+	/**
+	 * Create an Insertion
+	 *
+	 * @param x The X component of the Particle's position
+	 * @param y The Y component of the Particle's position
+	 * @param vx The X component of the Particle's velocity
+	 * @param vy The Y component of the Particle's velocity
+	 * @param mass The mass of the Particle
+	 * @param diameter The diameter of the Particle
+	 */
+	private Insertion(double x, double y, double vx, double vy, double mass, int diameter) {
+	    this.x = x;
+	    this.y = y;
+	    this.vx = vx;
+	    this.vy = vy;
+	    this.mass = mass;
+	    this.diameter = diameter;
+	}
+    }
+}
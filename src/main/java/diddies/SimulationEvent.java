@@ -0,0 +1,199 @@
+package diddies;
+
+/**
+ * A SimulationEvent is something that happened to the Particles during a
+ * tick, as delivered to an EventBus.Listener. Every event says where it
+ * happened, the mass involved and how fast, and what those mean depends on
+ * its Type.
+ *
+ * When the EventBus could not keep up, the events it had to drop are not
+ * lost without a trace: they arrive as one aggregate event per Type, with
+ * the number of events it stands for as its count and no position.
+ *
+ * @author Ryan Kenney
+ */
+public class SimulationEvent {
+
+    // Attributes
+    private final Type type;
+    private final long tick;
+    private final double x;
+    private final double y;
+    private final double mass;
+    private final double speed;
+    private final long count;
+
+    // Constructors
+    /**
+     * Create a SimulationEvent
+     *
+     * @param type What happened
+     * @param tick The tick it happened in
+     * @param x The X component of where it happened
+     * @param y The Y component of where it happened
+     * @param mass The mass involved
+     * @param speed How fast it happened
+     * @param count The number of events this stands for, 1 unless it is an
+     * aggregate
+     */
+    public SimulationEvent(Type type, long tick, double x, double y, double mass, double speed, long count) {
+	this.type = type;
+	this.tick = tick;
+	this.x = x;
+	this.y = y;
+	this.mass = mass;
+	this.speed = speed;
+	this.count = count;
+    }
+
+    // Methods
+    /**
+     * Get the number of events this stands for
+     *
+     * @return 1 for a single event, or the number of events dropped for an
+     * aggregate
+     */
+    public long getCount() {
+	return count;
+    }
+
+    /**
+     * Get the mass involved: the two Particles together for a collision, the
+     * Particle absorbed for an absorption, and the Particle for a wall bounce
+     * or an addition
+     *
+     * @return The mass, or 0 for an aggregate
+     */
+    public double getMass() {
+	return mass;
+    }
+
+    /**
+     * Get how fast it happened: the speed of the two Particles relative to
+     * each other for a collision, of the Particle absorbed relative to the
+     * Particle that absorbed it for an absorption, of the Particle into the
+     * wall for a wall bounce, and of the Particle for an addition
+     *
+     * @return The speed, or 0 for an aggregate
+     */
+    public double getSpeed() {
+	return speed;
+    }
+
+    /**
+     * Get the tick it happened in
+     *
+     * @return The tick, or for an aggregate the last tick it covers
+     */
+    public long getTick() {
+	return tick;
+    }
+
+    /**
+     * Get what happened
+     *
+     * @return The Type
+     */
+    public Type getType() {
+	return type;
+    }
+
+    /**
+     * Get the X component of where it happened, the center of the Particle
+     * (or, for a collision, between the two)
+     *
+     * @return The X component, or NaN for an aggregate
+     */
+    public double getX() {
+	return x;
+    }
+
+    /**
+     * Get the Y component of where it happened, the center of the Particle
+     * (or, for a collision, between the two)
+     *
+     * @return The Y component, or NaN for an aggregate
+     */
+    public double getY() {
+	return y;
+    }
+
+    /**
+     * Check if this stands for events that were dropped rather than for one
+     * that was delivered
+     *
+     * @return True for an aggregate, false otherwise
+     */
+    public boolean isAggregate() {
+	return Double.isNaN(x);
+    }
+
+    /**
+     * Describe the event
+     *
+     * @return A line of text
+     */
+    @Override
+    public String toString() {
+	if (isAggregate()) {
+	    return String.format("tick %d: %d %s events dropped", tick, count, type.getLabel());
+	}
+	return String.format("tick %d: %s at (%.1f, %.1f), mass %.1f, speed %.3f", tick, type.getLabel(), x, y,
+		mass, speed);
+    }
+
+    /**
+     * The kinds of SimulationEvent
+     */
+    public enum Type {
+
+	/**
+	 * Two Particles bounced off of each other
+	 */
+	COLLISION("collision"),
+	/**
+	 * A Particle merged into another
+	 */
+	ABSORPTION("absorption"),
+	/**
+	 * A Particle bounced off of a wall
+	 */
+	WALL_BOUNCE("wall bounce"),
+	/**
+	 * A Particle was added to the Simulation
+	 */
+	PARTICLE_ADDED("particle added");
+
+	// Attributes
+	private final String label;
+
+	// Constructors
+	/**
+	 * Create a Type
+	 *
+	 * @param label The name it is described by
+	 */
+	private Type(String label) {
+	    this.label = label;
+	}
+
+	// Methods
+	/**
+	 * Get the name the Type is described by
+	 *
+	 * @return The label
+	 */
+	public String getLabel() {
+	    return label;
+	}
+
+	/**
+	 * Get the bit of a subscription mask that stands for the Type
+	 *
+	 * @return The bit
+	 */
+	int getMask() {
+	    return 1 << ordinal();
+	}
+    }
+}
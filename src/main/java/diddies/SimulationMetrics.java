@@ -0,0 +1,384 @@
+package diddies;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * SimulationMetrics keeps count of what a Simulation does each tick and how
+ * long it takes: a LatencyHistogram per phase of the tick (and one for
+ * painting, which the Updater fills in), the pairs of Particles checked, the
+ * collisions and merges, the number of Particles, the steps per second and
+ * how much the simulation thread allocates.
+ *
+ * The Simulation adds up a tick's counts in plain fields and hands them over
+ * once at the end of the tick, so the counters cost a handful of adds per tick
+ * rather than one per pair. The counters are LongAdders and everything else is
+ * volatile, so the metrics can be read from any thread, including over JMX
+ * once register() has been called.
+ *
+ * @author Ryan Kenney
+ */
+public class SimulationMetrics implements SimulationMetricsMXBean {
+
+    // Attributes
+    private final static String DOMAIN = "diddies:type=Simulation";
+    private final static long NANOS_PER_SECOND = 1000000000L;
+    // Counters
+    private final LongAdder ticks = new LongAdder();
+    private final LongAdder pairTests = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private volatile long lastPairTests;
+    private volatile long lastCollisions;
+    private volatile long lastMerges;
+    private volatile int particleCount;
+    // Timings
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    // Rates, worked out by the simulation thread
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private long windowStart = System.nanoTime();
+    private long windowTicks;
+    private long windowBytes;
+    private long lastThreadBytes = -1;
+    private long lastThread = -1;
+    private final LongAdder allocatedBytes = new LongAdder();
+    private volatile boolean allocationCounted;
+    private volatile double stepsPerSecond;
+    private volatile double allocationRate;
+    // JMX
+    private ObjectName name;
+
+    // Constructors
+    /**
+     * Create a SimulationMetrics with nothing counted yet
+     */
+    public SimulationMetrics() {
+	for (Phase phase : Phase.values()) {
+	    phases.put(phase, new LatencyHistogram());
+	}
+    }
+
+    // Methods
+    /**
+     * Get the bytes the current thread has allocated in its life, if the JVM
+     * counts them
+     *
+     * @return The number of bytes, or -1 if they are not counted
+     */
+    private long currentThreadBytes() {
+	if (threads instanceof com.sun.management.ThreadMXBean) {
+	    com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+	    if (counting.isThreadAllocatedMemorySupported() && counting.isThreadAllocatedMemoryEnabled()) {
+		return counting.getThreadAllocatedBytes(Thread.currentThread().getId());
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Get the bytes allocated by the simulation thread so far
+     *
+     * @return The number of bytes, or -1 if the JVM does not count them
+     */
+    @Override
+    public long getAllocatedBytes() {
+	return allocationCounted ? allocatedBytes.sum() : -1;
+    }
+
+    /**
+     * Get the bytes allocated by the simulation thread per second, over the
+     * last full second
+     *
+     * @return The allocation rate, in bytes per second
+     */
+    @Override
+    public double getAllocationRate() {
+	return allocationRate;
+    }
+
+    /**
+     * Get the number of pairs of Particles that bounced off of each other so
+     * far
+     *
+     * @return The number of collisions
+     */
+    @Override
+    public long getCollisions() {
+	return collisions.sum();
+    }
+
+    /**
+     * Get the number of pairs of Particles that bounced off of each other in
+     * the last tick
+     *
+     * @return The number of collisions
+     */
+    @Override
+    public long getCollisionsLastTick() {
+	return lastCollisions;
+    }
+
+    /**
+     * Get the number of Particles merged away so far
+     *
+     * @return The number of merges
+     */
+    @Override
+    public long getMerges() {
+	return merges.sum();
+    }
+
+    /**
+     * Get the number of Particles merged away in the last tick
+     *
+     * @return The number of merges
+     */
+    @Override
+    public long getMergesLastTick() {
+	return lastMerges;
+    }
+
+    /**
+     * Get the number of pairs of Particles checked for contact so far
+     *
+     * @return The number of pair tests
+     */
+    @Override
+    public long getPairTests() {
+	return pairTests.sum();
+    }
+
+    /**
+     * Get the number of pairs of Particles checked for contact in the last
+     * tick
+     *
+     * @return The number of pair tests
+     */
+    @Override
+    public long getPairTestsLastTick() {
+	return lastPairTests;
+    }
+
+    /**
+     * Get the number of Particles at the end of the last tick
+     *
+     * @return The number of Particles
+     */
+    @Override
+    public int getParticleCount() {
+	return particleCount;
+    }
+
+    /**
+     * Get the histogram of how long <i>phase</i> has taken
+     *
+     * @param phase The phase
+     * @return The LatencyHistogram, in nanoseconds
+     */
+    public LatencyHistogram getPhase(Phase phase) {
+	return phases.get(phase);
+    }
+
+    /**
+     * Get how long each phase of a tick, and painting, has taken
+     *
+     * @return The Summary of each phase, by name
+     */
+    @Override
+    public Map<String, LatencyHistogram.Summary> getPhaseTimings() {
+	Map<String, LatencyHistogram.Summary> timings = new LinkedHashMap<>();
+	for (Map.Entry<Phase, LatencyHistogram> entry : phases.entrySet()) {
+	    timings.put(entry.getKey().getLabel(), entry.getValue().summarize());
+	}
+	return timings;
+    }
+
+    /**
+     * Get the number of ticks run in the last full second
+     *
+     * @return The achieved steps per second
+     */
+    @Override
+    public double getStepsPerSecond() {
+	return stepsPerSecond;
+    }
+
+    /**
+     * Get the number of ticks run so far
+     *
+     * @return The number of ticks
+     */
+    @Override
+    public long getTicks() {
+	return ticks.sum();
+    }
+
+    /**
+     * Record how long one phase took
+     *
+     * @param phase The phase
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record(Phase phase, long nanos) {
+	phases.get(phase).record(nanos);
+    }
+
+    /**
+     * Record the counts of a tick that has just finished. This must be called
+     * on the thread that ran the tick.
+     *
+     * @param tested The number of pairs checked for contact
+     * @param collided The number of pairs that bounced
+     * @param merged The number of Particles merged away
+     * @param particles The number of Particles left
+     */
+    public void recordTick(long tested, long collided, long merged, int particles) {
+	ticks.increment();
+	pairTests.add(tested);
+	collisions.add(collided);
+	merges.add(merged);
+	lastPairTests = tested;
+	lastCollisions = collided;
+	lastMerges = merged;
+	particleCount = particles;
+
+	// Only count what was allocated since the last tick on the same
+	// thread, since the scheduler's thread can change
+	long thread = Thread.currentThread().getId();
+	long bytes = currentThreadBytes();
+	if (bytes >= 0) {
+	    allocationCounted = true;
+	    if (thread == lastThread && lastThreadBytes >= 0) {
+		allocatedBytes.add(bytes - lastThreadBytes);
+		windowBytes += bytes - lastThreadBytes;
+	    }
+	}
+	lastThread = thread;
+	lastThreadBytes = bytes;
+
+	windowTicks++;
+	long now = System.nanoTime();
+	if (now - windowStart >= NANOS_PER_SECOND) {
+	    double seconds = (now - windowStart) / (double) NANOS_PER_SECOND;
+	    stepsPerSecond = windowTicks / seconds;
+	    allocationRate = windowBytes / seconds;
+	    windowStart = now;
+	    windowTicks = 0;
+	    windowBytes = 0;
+	}
+    }
+
+    /**
+     * Publish the metrics over JMX, as "diddies:type=Simulation", or with a
+     * number after it if there is already a Simulation by that name. Failing
+     * to register is reported and otherwise ignored, since the metrics are
+     * still there to read directly.
+     */
+    public synchronized void register() {
+	if (name != null) {
+	    return;
+	}
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	try {
+	    ObjectName candidate = new ObjectName(DOMAIN);
+	    for (int id = 2; server.isRegistered(candidate); id++) {
+		candidate = new ObjectName(DOMAIN + ",id=" + id);
+	    }
+	    server.registerMBean(this, candidate);
+	    name = candidate;
+	} catch (JMException e) {
+	    System.err.println("could not publish metrics: " + e.getMessage());
+	}
+    }
+
+    /**
+     * Forget everything counted and timed so far
+     */
+    @Override
+    public void reset() {
+	ticks.reset();
+	pairTests.reset();
+	collisions.reset();
+	merges.reset();
+	allocatedBytes.reset();
+	for (LatencyHistogram histogram : phases.values()) {
+	    histogram.reset();
+	}
+    }
+
+    /**
+     * Stop publishing the metrics over JMX, if they were
+     */
+    public synchronized void unregister() {
+	if (name == null) {
+	    return;
+	}
+	try {
+	    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+	} catch (JMException e) {
+	    System.err.println("could not withdraw metrics: " + e.getMessage());
+	}
+	name = null;
+    }
+
+    /**
+     * The phases of a tick that are timed, and painting
+     */
+    public enum Phase {
+
+	/**
+	 * Moving the Particles, not counting gravity
+	 */
+	MOMENTUM("momentum"),
+	/**
+	 * Working out gravity
+	 */
+	GRAVITY("gravity"),
+	/**
+	 * Walls, merges and collisions between Particles
+	 */
+	COLLISIONS("collisions"),
+	/**
+	 * Removing merged Particles from the store
+	 */
+	REMOVAL("removal"),
+	/**
+	 * The whole tick
+	 */
+	TICK("tick"),
+	/**
+	 * Drawing a frame
+	 */
+	PAINT("paint");
+
+	// Attributes
+	private final String label;
+
+	// Constructors
+	/**
+	 * Create a Phase
+	 *
+	 * @param label The name it is published under
+	 */
+	private Phase(String label) {
+	    this.label = label;
+	}
+
+	// Methods
+	/**
+	 * Get the name the Phase is published under
+	 *
+	 * @return The label
+	 */
+	public String getLabel() {
+	    return label;
+	}
+    }
+}
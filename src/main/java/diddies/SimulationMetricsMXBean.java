@@ -0,0 +1,105 @@
+package diddies;
+
+import java.util.Map;
+
+/**
+ * The management interface of SimulationMetrics, which is what JMX clients
+ * such as JConsole and VisualVM see under "diddies:type=Simulation".
+ *
+ * @author Ryan Kenney
+ */
+public interface SimulationMetricsMXBean {
+
+    /**
+     * Get the bytes allocated by the simulation thread so far
+     *
+     * @return The number of bytes, or -1 if the JVM does not count them
+     */
+    public long getAllocatedBytes();
+
+    /**
+     * Get the bytes allocated by the simulation thread per second, over the
+     * last full second
+     *
+     * @return The allocation rate, in bytes per second
+     */
+    public double getAllocationRate();
+
+    /**
+     * Get the number of pairs of Particles that bounced off of each other so
+     * far
+     *
+     * @return The number of collisions
+     */
+    public long getCollisions();
+
+    /**
+     * Get the number of pairs of Particles that bounced off of each other in
+     * the last tick
+     *
+     * @return The number of collisions
+     */
+    public long getCollisionsLastTick();
+
+    /**
+     * Get the number of Particles merged away so far
+     *
+     * @return The number of merges
+     */
+    public long getMerges();
+
+    /**
+     * Get the number of Particles merged away in the last tick
+     *
+     * @return The number of merges
+     */
+    public long getMergesLastTick();
+
+    /**
+     * Get the number of pairs of Particles checked for contact so far
+     *
+     * @return The number of pair tests
+     */
+    public long getPairTests();
+
+    /**
+     * Get the number of pairs of Particles checked for contact in the last
+     * tick
+     *
+     * @return The number of pair tests
+     */
+    public long getPairTestsLastTick();
+
+    /**
+     * Get the number of Particles at the end of the last tick
+     *
+     * @return The number of Particles
+     */
+    public int getParticleCount();
+
+    /**
+     * Get how long each phase of a tick, and painting, has taken
+     *
+     * @return The Summary of each phase, by name
+     */
+    public Map<String, LatencyHistogram.Summary> getPhaseTimings();
+
+    /**
+     * Get the number of ticks run in the last full second
+     *
+     * @return The achieved steps per second
+     */
+    public double getStepsPerSecond();
+
+    /**
+     * Get the number of ticks run so far
+     *
+     * @return The number of ticks
+     */
+    public long getTicks();
+
+    /**
+     * Forget everything counted and timed so far
+     */
+    public void reset();
+}
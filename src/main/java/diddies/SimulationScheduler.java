@@ -0,0 +1,315 @@
+package diddies;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * SimulationScheduler runs a step, such as an Updater, at a fixed rate on a
+ * thread of its own. Each time around its loop it adds the time that has
+ * passed to an accumulator and runs one step for every full timestep in it, so
+ * the simulation keeps the same rate even when the thread was late to wake up.
+ *
+ * When the steps take longer than the timestep the accumulator only grows, and
+ * catching up would make every frame longer than the last. To stop that, no
+ * more than maxSubsteps steps are run per frame and whatever is still owed
+ * afterwards is dropped. The dropped steps and the steps that took longer than
+ * a timestep are counted, so falling behind shows up long before it is visible
+ * on screen.
+ *
+ * Between frames the thread waits for the next step in one of three ways:
+ * spinning is the most punctual and keeps a core busy, parking is nearly as
+ * punctual at no cost, and sleeping is the coarsest but the gentlest.
+ *
+ * The metrics are written only by the scheduler's thread and can be read from
+ * any thread, including over JMX once register() has been called.
+ *
+ * @author Ryan Kenney
+ */
+public class SimulationScheduler implements SimulationSchedulerMXBean {
+
+    // Attributes
+    private final static String DOMAIN = "diddies:type=Scheduler";
+    private final static long NANOS_PER_SECOND = 1000000000L;
+    private final static long NANOS_PER_MILLI = 1000000L;
+    // Settings
+    private final Runnable step;
+    private final long timestep;
+    private final int maxSubsteps;
+    private final Pacing pacing;
+    private final Thread thread;
+    private volatile boolean running;
+    // Metrics
+    private volatile long steps;
+    private volatile long overruns;
+    private volatile long dropped;
+    private volatile long lastStepNanos;
+    private volatile long maxStepNanos;
+    private volatile double stepsPerSecond;
+    // JMX
+    private ObjectName name;
+
+    // Constructors
+    /**
+     * Create a SimulationScheduler. It does nothing until start() is called.
+     *
+     * @param step The step to run
+     * @param timestep The time between steps, in nanoseconds
+     * @param maxSubsteps The most steps to run back to back to catch up
+     * @param pacing How to wait between steps
+     */
+    public SimulationScheduler(Runnable step, long timestep, int maxSubsteps, Pacing pacing) {
+	if (timestep < 1) {
+	    throw new IllegalArgumentException("timestep must be at least 1ns: " + timestep);
+	}
+	if (maxSubsteps < 1) {
+	    throw new IllegalArgumentException("maxSubsteps must be at least 1: " + maxSubsteps);
+	}
+	this.step = step;
+	this.timestep = timestep;
+	this.maxSubsteps = maxSubsteps;
+	this.pacing = pacing;
+	thread = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		loop();
+	    }
+	}, "simulation");
+	thread.setDaemon(true);
+    }
+
+    // Methods
+    /**
+     * Get the number of steps dropped because the simulation could not catch
+     * up within maxSubsteps
+     *
+     * @return The number of dropped steps
+     */
+    @Override
+    public long getDroppedSteps() {
+	return dropped;
+    }
+
+    /**
+     * Get how long the most recent step took
+     *
+     * @return The duration, in nanoseconds
+     */
+    @Override
+    public long getLastStepNanos() {
+	return lastStepNanos;
+    }
+
+    /**
+     * Get how long the slowest step so far took
+     *
+     * @return The duration, in nanoseconds
+     */
+    @Override
+    public long getMaxStepNanos() {
+	return maxStepNanos;
+    }
+
+    /**
+     * Get the number of steps that took longer than a timestep
+     *
+     * @return The number of overruns
+     */
+    @Override
+    public long getOverruns() {
+	return overruns;
+    }
+
+    /**
+     * Get the number of steps run so far
+     *
+     * @return The number of steps
+     */
+    @Override
+    public long getSteps() {
+	return steps;
+    }
+
+    /**
+     * Get the number of steps run in the last full second
+     *
+     * @return The achieved steps per second
+     */
+    @Override
+    public double getStepsPerSecond() {
+	return stepsPerSecond;
+    }
+
+    /**
+     * Get the time between steps
+     *
+     * @return The timestep, in nanoseconds
+     */
+    @Override
+    public long getTimestep() {
+	return timestep;
+    }
+
+    /**
+     * Run frames until stop() is called
+     */
+    private void loop() {
+	long previous = System.nanoTime();
+	long accumulator = 0;
+	long windowStart = previous;
+	long windowSteps = 0;
+
+	while (running) {
+	    long now = System.nanoTime();
+	    accumulator += now - previous;
+	    previous = now;
+
+	    // Run a step for every full timestep owed, up to the limit
+	    int substeps = 0;
+	    while (accumulator >= timestep && substeps < maxSubsteps && running) {
+		long start = System.nanoTime();
+		step.run();
+		long duration = System.nanoTime() - start;
+
+		lastStepNanos = duration;
+		if (duration > maxStepNanos) {
+		    maxStepNanos = duration;
+		}
+		if (duration > timestep) {
+		    overruns++;
+		}
+		steps++;
+		windowSteps++;
+		accumulator -= timestep;
+		substeps++;
+	    }
+
+	    // Give up on anything still owed, rather than falling further behind
+	    if (accumulator >= timestep) {
+		dropped += accumulator / timestep;
+		accumulator %= timestep;
+	    }
+
+	    now = System.nanoTime();
+	    if (now - windowStart >= NANOS_PER_SECOND) {
+		stepsPerSecond = windowSteps * (double) NANOS_PER_SECOND / (now - windowStart);
+		windowStart = now;
+		windowSteps = 0;
+	    }
+
+	    // Wait until the next step is due
+	    pace(previous + timestep - accumulator);
+	}
+    }
+
+    /**
+     * Wait until System.nanoTime() reaches <i>deadline</i>, in the way chosen
+     * by the pacing
+     *
+     * @param deadline The time to wait for, in nanoseconds
+     */
+    private void pace(long deadline) {
+	long remaining = deadline - System.nanoTime();
+	switch (pacing) {
+	    case SPIN:
+		while (remaining > 0 && running) {
+		    remaining = deadline - System.nanoTime();
+		}
+		break;
+	    case PARK:
+		while (remaining > 0 && running) {
+		    LockSupport.parkNanos(remaining);
+		    remaining = deadline - System.nanoTime();
+		}
+		break;
+	    case SLEEP:
+		if (remaining > 0) {
+		    try {
+			Thread.sleep(remaining / NANOS_PER_MILLI, (int) (remaining % NANOS_PER_MILLI));
+		    } catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		    }
+		}
+		break;
+	}
+    }
+
+    /**
+     * Publish the metrics over JMX, as "diddies:type=Scheduler", or with a
+     * number after it if there is already a scheduler by that name. Failing
+     * to register is reported and otherwise ignored, since the metrics are
+     * still there to read directly.
+     */
+    public synchronized void register() {
+	if (name != null) {
+	    return;
+	}
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	try {
+	    ObjectName candidate = new ObjectName(DOMAIN);
+	    for (int id = 2; server.isRegistered(candidate); id++) {
+		candidate = new ObjectName(DOMAIN + ",id=" + id);
+	    }
+	    server.registerMBean(this, candidate);
+	    name = candidate;
+	} catch (JMException e) {
+	    System.err.println("could not publish scheduler metrics: " + e.getMessage());
+	}
+    }
+
+    /**
+     * Start running steps
+     */
+    public void start() {
+	running = true;
+	thread.start();
+    }
+
+    /**
+     * Stop running steps and wait for the step in progress, if any, to finish
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public void stop() throws InterruptedException {
+	running = false;
+	LockSupport.unpark(thread);
+	thread.join();
+    }
+
+    /**
+     * Stop publishing the metrics over JMX, if they were
+     */
+    public synchronized void unregister() {
+	if (name == null) {
+	    return;
+	}
+	try {
+	    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+	} catch (JMException e) {
+	    System.err.println("could not withdraw scheduler metrics: " + e.getMessage());
+	}
+	name = null;
+    }
+
+    /**
+     * How the scheduler waits between steps
+     */
+    public enum Pacing {
+
+	/**
+	 * Check the clock in a tight loop. Most punctual, keeps a core busy.
+	 */
+	SPIN,
+	/**
+	 * Park the thread until the next step. Punctual to within the OS timer
+	 * slack, usually tens of microseconds.
+	 */
+	PARK,
+	/**
+	 * Sleep until the next step. Punctual to about a millisecond.
+	 */
+	SLEEP
+    }
+}
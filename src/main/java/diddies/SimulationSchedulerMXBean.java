@@ -0,0 +1,60 @@
+package diddies;
+
+/**
+ * The management interface of SimulationScheduler, which is what JMX clients
+ * such as JConsole and VisualVM see under "diddies:type=Scheduler".
+ *
+ * @author Ryan Kenney
+ */
+public interface SimulationSchedulerMXBean {
+
+    /**
+     * Get the number of steps dropped because the simulation could not catch
+     * up within maxSubsteps
+     *
+     * @return The number of dropped steps
+     */
+    public long getDroppedSteps();
+
+    /**
+     * Get how long the most recent step took
+     *
+     * @return The duration, in nanoseconds
+     */
+    public long getLastStepNanos();
+
+    /**
+     * Get how long the slowest step so far took
+     *
+     * @return The duration, in nanoseconds
+     */
+    public long getMaxStepNanos();
+
+    /**
+     * Get the number of steps that took longer than a timestep
+     *
+     * @return The number of overruns
+     */
+    public long getOverruns();
+
+    /**
+     * Get the number of steps run so far
+     *
+     * @return The number of steps
+     */
+    public long getSteps();
+
+    /**
+     * Get the number of steps run in the last full second
+     *
+     * @return The achieved steps per second
+     */
+    public double getStepsPerSecond();
+
+    /**
+     * Get the time between steps
+     *
+     * @return The timestep, in nanoseconds
+     */
+    public long getTimestep();
+}
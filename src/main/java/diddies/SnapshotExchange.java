@@ -0,0 +1,73 @@
+package diddies;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SnapshotExchange hands copies of the simulation from the physics thread to
+ * the thread that paints it, without either of them ever waiting on the other.
+ * It is a triple buffer: the writer fills a back buffer, the reader draws from
+ * a front buffer, and the two trade with a middle buffer through one atomic
+ * swap. The middle buffer's index and a "fresh" bit are packed into a single
+ * AtomicInteger, so a swap hands over both at once.
+ *
+ * Copying the simulation every tick would be wasted work when it is only
+ * painted 60 times a second, so publish() skips the copy while the last frame
+ * it published has not been picked up yet. The frame the reader gets is then
+ * at most one of its own frames old.
+ *
+ * There must be only one writer and one reader.
+ *
+ * @author Ryan Kenney
+ */
+public class SnapshotExchange {
+
+    // Attributes
+    private final static int FRESH = 4;
+    private final static int INDEX = 3;
+    private final ParticleStore[] buffers;
+    private final AtomicInteger middle;
+    private int back;
+    private int front;
+
+    // Constructors
+    /**
+     * Create a SnapshotExchange with three empty buffers
+     */
+    public SnapshotExchange() {
+	buffers = new ParticleStore[]{new ParticleStore(), new ParticleStore(), new ParticleStore()};
+	front = 0;
+	middle = new AtomicInteger(1);
+	back = 2;
+    }
+
+    // Methods
+    /**
+     * Get the most recently published frame. The frame belongs to the reader
+     * until the next call, and must not be changed. Only the reader may call
+     * this.
+     *
+     * @return The latest frame
+     */
+    public ParticleStore latest() {
+	if ((middle.get() & FRESH) != 0) {
+	    front = middle.getAndSet(front) & INDEX;
+	}
+	return buffers[front];
+    }
+
+    /**
+     * Publish a copy of <i>source</i>, unless the reader has not picked up the
+     * previous frame yet. Only the writer may call this.
+     *
+     * @param source The simulation to copy
+     * @return True if a frame was published, false if it was skipped
+     */
+    public boolean publish(ParticleStore source) {
+	if ((middle.get() & FRESH) != 0) {
+	    return false;
+	}
+	buffers[back].copyFrom(source);
+	back = middle.getAndSet(back | FRESH) & INDEX;
+	return true;
+    }
+}
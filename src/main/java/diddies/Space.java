@@ -6,29 +6,71 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.geom.Point2D;
-import java.util.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.swing.JPanel;
 
 /**
  * The Space class handles the inner logic and organization of the Particles and
- * all necessary subcomponents. It uses a timer to control the movement of
- * Particles and listens to both MouseEvents and KeyboardEvents for control.
+ * all necessary subcomponents. It uses a SimulationScheduler to control the
+ * movement of Particles and listens to both MouseEvents and KeyboardEvents for
+ * control. The scheduler paces itself with parkNanos unless the
+ * simplespace.pacing system property says SPIN or SLEEP.
+ *
+ * A second, Swing timer repaints the Space at the display rate, drawing
+ * whatever snapshot the Updater last published, so painting and physics never
+ * wait on each other. If the simplespace.active system property is true, an
+ * ActiveCanvas draws the same thing on a thread of its own instead, taking
+ * the painting off of the event dispatch thread entirely. Swing can not paint
+ * over a Canvas, so the menu then sits beside it rather than on top of it,
+ * and the Particles bounce around inside of the canvas rather than the whole
+ * Space.
+ *
+ * Typing H shows or hides a heads-up display of the Simulation's and the
+ * scheduler's metrics, which starts out shown if the simplespace.hud system
+ * property is true. The same metrics are published over JMX.
+ *
+ * If the simplespace.checkpoint system property names a file, the Space starts
+ * from the Checkpoint in it (if there is one) and saves a new one there every
+ * simplespace.checkpoint.interval seconds (60 by default).
+ *
+ * If the simplespace.record system property names a file, every tick is
+ * recorded to it with a TrajectoryRecorder.
  *
  * @author Ryan Kenney
  */
-public class Space extends JPanel implements MouseListener, KeyListener {
+public class Space extends JPanel implements Bounds, MouseListener, KeyListener {
     // Attributes
 
-    private Timer time;
+    private SimulationScheduler scheduler;
     private static final int SIM_SPEED = 1;
+    private static final int MAX_SUBSTEPS = 5;
+    private static final String PACING_PROPERTY = "simplespace.pacing";
+    public static final String CHECKPOINT_PROPERTY = "simplespace.checkpoint";
+    private static final String CHECKPOINT_INTERVAL_PROPERTY = "simplespace.checkpoint.interval";
+    private Checkpointer checkpointer;
+    public static final String RECORD_PROPERTY = "simplespace.record";
+    private TrajectoryRecorder recorder;
+    private static final int FRAME_DELAY = 16;
+    private javax.swing.Timer refresh;
+    public static final String ACTIVE_PROPERTY = "simplespace.active";
+    private ActiveCanvas canvas;
+    public static final String HUD_PROPERTY = "simplespace.hud";
+    private static final int HUD_LINE_HEIGHT = 14;
+    private volatile boolean hud = Boolean.getBoolean(HUD_PROPERTY);
     private static final int AIM_DIAMETER = 100;
     private Updater data;
-    private Point start;
+    private volatile Point start;
     private SettingsMenu menu;
 
     // Constructors
@@ -42,16 +84,143 @@ public class Space extends JPanel implements MouseListener, KeyListener {
 
     // Methods
     /**
-     * Initializes the Timer and menu
+     * Draw the metrics of the Simulation and the scheduler, and of the canvas
+     * if there is one, in the top left corner
+     *
+     * @param g2 The Graphics object to use
+     */
+    private void drawHud(Graphics2D g2) {
+	SimulationMetrics metrics = data.getSimulation().getMetrics();
+	List<String> lines = new ArrayList<>();
+	lines.add(String.format("%.0f steps/s, %d particles", metrics.getStepsPerSecond(),
+		metrics.getParticleCount()));
+	for (SimulationMetrics.Phase phase : SimulationMetrics.Phase.values()) {
+	    LatencyHistogram histogram = metrics.getPhase(phase);
+	    lines.add(String.format("%s: p50 %.2f ms, p99 %.2f ms", phase.getLabel(),
+		    histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6));
+	}
+	lines.add(String.format("%d pairs, %d collisions, %d merges", metrics.getPairTestsLastTick(),
+		metrics.getCollisionsLastTick(), metrics.getMergesLastTick()));
+	lines.add(String.format("%d overruns, %d dropped steps, max step %.2f ms", scheduler.getOverruns(),
+		scheduler.getDroppedSteps(), scheduler.getMaxStepNanos() / 1e6));
+	if (metrics.getAllocatedBytes() >= 0) {
+	    lines.add(String.format("%.1f MB/s allocated", metrics.getAllocationRate() / 1e6));
+	}
+	if (canvas != null) {
+	    lines.add(String.format("%.0f fps, %.2f ms/frame", canvas.getFramesPerSecond(),
+		    canvas.getLastFrameNanos() / 1e6));
+	}
+
+	g2.setColor(Color.GRAY);
+	for (int i = 0; i < lines.size(); i++) {
+	    g2.drawString(lines.get(i), 4, (i + 1) * HUD_LINE_HEIGHT);
+	}
+    }
+
+    /**
+     * Draw the background, aiming graphics and particles
+     *
+     * @param g2 The Graphics object to use
+     * @param width The width of the area to draw
+     * @param height The height of the area to draw
+     * @param mouse Where the mouse pointer is, or null if it is not over
+     * the Space
+     */
+    private void drawScene(Graphics2D g2, int width, int height, Point mouse) {
+	// Draw background
+	g2.setColor(Color.BLACK);
+	g2.fillRect(0, 0, width, height);
+
+	// Draw aiming graphics, if applicable
+	g2.setColor(Color.RED);
+	Point start = this.start;
+	if (start != null) {
+	    g2.drawOval((int) start.getX() - (AIM_DIAMETER / 2), (int) start.getY() - (AIM_DIAMETER / 2),
+		    AIM_DIAMETER, AIM_DIAMETER);
+	    if (mouse != null) {
+		g2.drawLine((int) start.getX(), (int) start.getY(),
+			(int) mouse.getX(), (int) mouse.getY());
+	    }
+	}
+
+	// Draw particles
+	data.drawAll(g2);
+
+	// Draw metrics, if applicable
+	if (hud) {
+	    drawHud(g2);
+	}
+    }
+
+    /**
+     * Get the canvas the Space is drawn on in active rendering mode, for its
+     * metrics
+     *
+     * @return The ActiveCanvas, or null when Swing paints the Space
+     */
+    public ActiveCanvas getCanvas() {
+	return canvas;
+    }
+
+    /**
+     * Get the scheduler that runs the simulation, for its metrics
+     *
+     * @return The SimulationScheduler
+     */
+    public SimulationScheduler getScheduler() {
+	return scheduler;
+    }
+
+    /**
+     * Initializes the scheduler, Timer and menu
      */
     private void initComponents() {
 	super.addMouseListener(this);
 	this.setLayout(new BorderLayout());
 
-	data = new Updater(this);
+	// In active mode the canvas is the area that is seen, which the menu
+	// takes a strip off of when it is shown
+	if (Boolean.getBoolean(ACTIVE_PROPERTY)) {
+	    canvas = new ActiveCanvas(new ActiveCanvas.Scene() {
+		@Override
+		public void draw(Graphics2D g, int width, int height) {
+		    drawScene(g, width, height, canvas.getMousePosition());
+		}
+	    });
+	    data = new Updater(canvas);
+	} else {
+	    data = new Updater(this);
+	}
+	String checkpoint = System.getProperty(CHECKPOINT_PROPERTY);
+	if (checkpoint != null) {
+	    startCheckpoints(new File(checkpoint));
+	}
+	String record = System.getProperty(RECORD_PROPERTY);
+	if (record != null) {
+	    startRecording(new File(record));
+	}
+
+	scheduler = new SimulationScheduler(data, TimeUnit.MILLISECONDS.toNanos(SIM_SPEED), MAX_SUBSTEPS,
+		SimulationScheduler.Pacing.valueOf(System.getProperty(PACING_PROPERTY, "PARK")));
+	scheduler.start();
+	scheduler.register();
+	data.getSimulation().getMetrics().register();
 
-	time = new Timer(true);
-	time.scheduleAtFixedRate(data, 0, SIM_SPEED);
+	if (canvas != null) {
+	    // Keys go to the frame, as they do without the canvas
+	    canvas.setFocusable(false);
+	    canvas.addMouseListener(this);
+	    this.add(canvas, BorderLayout.CENTER);
+	    canvas.start();
+	} else {
+	    refresh = new javax.swing.Timer(FRAME_DELAY, new ActionListener() {
+		@Override
+		public void actionPerformed(ActionEvent e) {
+		    repaint();
+		}
+	    });
+	    refresh.start();
+	}
 
 	menu = new SettingsMenu(data);
 	menu.setPreferredSize(new Dimension(200, getHeight()));
@@ -81,7 +250,8 @@ public class Space extends JPanel implements MouseListener, KeyListener {
     }
 
     /**
-     * Listens for the ESC key and toggles the menu when it is typed
+     * Listens for the ESC key and toggles the menu when it is typed, and for
+     * the H key and toggles the heads-up display
      *
      * @param e The KeyEvent
      */
@@ -89,6 +259,8 @@ public class Space extends JPanel implements MouseListener, KeyListener {
     public void keyTyped(KeyEvent e) {
 	if (e.getKeyChar() == (char) KeyEvent.VK_ESCAPE) {
 	    menu.setVisible(!menu.isVisible());
+	} else if (Character.toLowerCase(e.getKeyChar()) == 'h') {
+	    hud = !hud;
 	}
     }
 
@@ -150,9 +322,8 @@ public class Space extends JPanel implements MouseListener, KeyListener {
 	    Point2D end = new Point2D.Double(e.getX(), e.getY());
 	    Particle p = new Particle(new Point2D.Double(start.getX() - menu.getRadius(), start.getY() - menu.getRadius()),
 		    menu.getMass(), menu.getRadius());
-	    Velocity init = new Velocity((end.getX() - start.getX()) / (getWidth() + getHeight()),
+	    p.addVelocity((end.getX() - start.getX()) / (getWidth() + getHeight()),
 		    (end.getY() - start.getY()) / (getWidth() + getHeight()));
-	    p.applyForce(init);
 	    data.addParticle(p);
 	}
 
@@ -178,36 +349,66 @@ public class Space extends JPanel implements MouseListener, KeyListener {
     }
 
     /**
-     * Responsible for drawing the background, aiming graphics, particles, and
-     * menus.
+     * Responsible for drawing the background, aiming graphics and particles,
+     * unless an ActiveCanvas is drawing them. The background covers the whole
+     * panel, so nothing underneath it is painted first, and Swing paints the
+     * menu on top afterwards.
      *
      * @param g The Graphics object to use
      */
     @Override
-    public void paint(Graphics g) {// Init
-	Graphics2D g2 = (Graphics2D) g;
-	g2.setColor(Color.RED);
-
-	// Draw background
-	g2.setColor(Color.BLACK);
-	g2.fillRect(0, 0, getWidth(), getHeight());
+    protected void paintComponent(Graphics g) {
+	if (canvas == null) {
+	    drawScene((Graphics2D) g, getWidth(), getHeight(), getMousePosition());
+	}
+    }
 
-	// Draw aiming graphics, if applicable
-	g2.setColor(Color.RED);
-	if (start != null) {
-	    g2.drawOval((int) start.getX() - (AIM_DIAMETER / 2), (int) start.getY() - (AIM_DIAMETER / 2),
-		    AIM_DIAMETER, AIM_DIAMETER);
-	    Point p = getMousePosition();
-	    if (p != null) {
-		g2.drawLine((int) start.getX(), (int) start.getY(),
-			(int) p.getX(), (int) p.getY());
+    /**
+     * Restore the Simulation from the Checkpoint in <i>file</i>, if there is
+     * one, and start saving it there periodically
+     *
+     * @param file The Checkpoint file
+     */
+    private void startCheckpoints(File file) {
+	Simulation simulation = data.getSimulation();
+	if (file.exists()) {
+	    Checkpoint state = new Checkpoint();
+	    try {
+		state.read(file);
+		simulation.restore(state);
+	    } catch (IOException e) {
+		System.err.println("could not restore checkpoint: " + e.getMessage());
 	    }
 	}
+	checkpointer = new Checkpointer(simulation, file, Long.getLong(CHECKPOINT_INTERVAL_PROPERTY, 60),
+		TimeUnit.SECONDS);
+	checkpointer.start();
+    }
 
-	// Draw particles
-	data.drawAll(g);
-
-	// Draw Menus
-	super.paint(g);
+    /**
+     * Record every tick to <i>file</i>, and finish the file when the
+     * application exits
+     *
+     * @param file The file to record to
+     */
+    private void startRecording(File file) {
+	try {
+	    recorder = new TrajectoryRecorder(file);
+	} catch (IOException e) {
+	    System.err.println("could not record: " + e.getMessage());
+	    return;
+	}
+	data.getSimulation().setTickListener(recorder);
+	Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		data.getSimulation().setTickListener(null);
+		try {
+		    recorder.close();
+		} catch (IOException e) {
+		    System.err.println("recording failed: " + e.getMessage());
+		}
+	    }
+	}));
     }
 }
@@ -0,0 +1,214 @@
+package diddies;
+
+import java.util.Arrays;
+
+/**
+ * SpatialGrid is the broad phase of collision detection. It divides the Space
+ * into square cells at least as wide as the largest Particle and sorts the
+ * Particles into cells by their centers. Two Particles can only overlap if
+ * their centers are less than one cell width apart, which puts them in the
+ * same cell or in neighboring cells, so only those pairs are handed on to the
+ * narrow phase (an exact overlap test). For scenes where Particles are spread
+ * out, that brings the cost of finding collisions close to O(n).
+ *
+ * The grid is rebuilt from scratch each tick with a counting sort, which is
+ * O(n + cells) and reuses its arrays, so it does not allocate once it has grown
+ * to fit the simulation. Particles outside of the Space are treated as being
+ * in the nearest edge cell. If the Particles are very small, the cells are
+ * made wider than needed so that there are never many more cells than
+ * Particles.
+ *
+ * @author Ryan Kenney
+ */
+public class SpatialGrid {
+
+    // Attributes
+    private final static int MIN_CELLS = 1024;
+    private final static int CELLS_PER_PARTICLE = 4;
+    // Shape of the grid
+    private double cellSize = 1;
+    private int columns;
+    private int rows;
+    // Contents, sorted by cell. The Particles in cell c are
+    // sorted[cellStart[c]..cellStart[c + 1] - 1].
+    private int[] cellStart = new int[0];
+    private int[] cellOf = new int[0];
+    private int[] sorted = new int[0];
+    private int size;
+
+    // Methods
+    /**
+     * Visit every pair of Particles that share a cell or sit in neighboring
+     * cells. Each pair is visited exactly once, with the smaller index first.
+     *
+     * @param visitor The PairVisitor to hand each pair to
+     */
+    public void forEachCandidatePair(PairVisitor visitor) {
+	for (int row = 0; row < rows; row++) {
+	    for (int column = 0; column < columns; column++) {
+		int cell = row * columns + column;
+		int start = cellStart[cell], end = cellStart[cell + 1];
+		if (start == end) {
+		    continue;
+		}
+
+		// Pairs within the cell
+		for (int a = start; a < end; a++) {
+		    for (int b = a + 1; b < end; b++) {
+			visit(visitor, sorted[a], sorted[b]);
+		    }
+		}
+
+		// Pairs with the neighbors to the east and on the row below,
+		// so that each pair of neighboring cells is only checked once
+		if (column + 1 < columns) {
+		    visitCells(visitor, start, end, cell + 1);
+		}
+		if (row + 1 < rows) {
+		    if (column > 0) {
+			visitCells(visitor, start, end, cell + columns - 1);
+		    }
+		    visitCells(visitor, start, end, cell + columns);
+		    if (column + 1 < columns) {
+			visitCells(visitor, start, end, cell + columns + 1);
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Get the width (and height) of a cell
+     *
+     * @return The cell size
+     */
+    public double getCellSize() {
+	return cellSize;
+    }
+
+    /**
+     * Sort the Particles in <i>particles</i> into cells covering a Space of
+     * <i>width</i> by <i>height</i>.
+     *
+     * @param particles The Particles to sort
+     * @param width The width of the Space
+     * @param height The height of the Space
+     */
+    public void rebuild(ParticleStore particles, double width, double height) {
+	rebuild(particles, width, height, 0);
+    }
+
+    /**
+     * Sort the Particles in <i>particles</i> into cells covering a Space of
+     * <i>width</i> by <i>height</i>, with cells <i>margin</i> wider than they
+     * would otherwise be. Particles that were up to margin / 2 away from their
+     * current positions at some point in the tick will then still be paired,
+     * which is what continuous collision detection needs. A large margin makes
+     * for large cells and many candidate pairs.
+     *
+     * @param particles The Particles to sort
+     * @param width The width of the Space
+     * @param height The height of the Space
+     * @param margin The extra width of each cell
+     */
+    public void rebuild(ParticleStore particles, double width, double height, double margin) {
+	size = particles.size();
+	width = Math.max(width, 1);
+	height = Math.max(height, 1);
+
+	// Cells have to be at least as wide as the widest Particle
+	int maxDiameter = 1;
+	for (int i = 0; i < size; i++) {
+	    maxDiameter = Math.max(maxDiameter, particles.diameter[i]);
+	}
+	cellSize = maxDiameter + margin;
+	int maxCells = Math.max(MIN_CELLS, CELLS_PER_PARTICLE * size);
+	if ((width / cellSize) * (height / cellSize) > maxCells) {
+	    cellSize = Math.sqrt((width * height) / maxCells);
+	}
+	columns = Math.max(1, (int) Math.ceil(width / cellSize));
+	rows = Math.max(1, (int) Math.ceil(height / cellSize));
+	int cells = columns * rows;
+
+	if (cellStart.length < cells + 1) {
+	    cellStart = new int[Math.max(cells + 1, cellStart.length * 2)];
+	}
+	if (cellOf.length < size) {
+	    cellOf = new int[Math.max(size, cellOf.length * 2)];
+	    sorted = new int[cellOf.length];
+	}
+
+	// Count the Particles in each cell...
+	Arrays.fill(cellStart, 0, cells + 1, 0);
+	for (int i = 0; i < size; i++) {
+	    int column = (int) (particles.getCenterX(i) / cellSize);
+	    int row = (int) (particles.getCenterY(i) / cellSize);
+	    column = Math.min(Math.max(column, 0), columns - 1);
+	    row = Math.min(Math.max(row, 0), rows - 1);
+	    cellOf[i] = row * columns + column;
+	    cellStart[cellOf[i] + 1]++;
+	}
+
+	// ...turn the counts into starting points...
+	for (int cell = 0; cell < cells; cell++) {
+	    cellStart[cell + 1] += cellStart[cell];
+	}
+
+	// ...and drop each Particle into place. This uses each start as a
+	// cursor, which leaves it pointing at the start of the next cell...
+	for (int i = 0; i < size; i++) {
+	    sorted[cellStart[cellOf[i]]++] = i;
+	}
+
+	// ...so shift the starts back
+	System.arraycopy(cellStart, 0, cellStart, 1, cells);
+	cellStart[0] = 0;
+    }
+
+    /**
+     * Hand a pair to <i>visitor</i> with the smaller index first
+     *
+     * @param visitor The PairVisitor
+     * @param i The index of one Particle
+     * @param j The index of the other Particle
+     */
+    private static void visit(PairVisitor visitor, int i, int j) {
+	if (i < j) {
+	    visitor.visit(i, j);
+	} else {
+	    visitor.visit(j, i);
+	}
+    }
+
+    /**
+     * Visit every pair made of one Particle from sorted[start..end - 1] and one
+     * Particle from <i>cell</i>
+     *
+     * @param visitor The PairVisitor
+     * @param start The start of the first group of Particles
+     * @param end The end of the first group of Particles
+     * @param cell The cell holding the second group of Particles
+     */
+    private void visitCells(PairVisitor visitor, int start, int end, int cell) {
+	int otherStart = cellStart[cell], otherEnd = cellStart[cell + 1];
+	for (int a = start; a < end; a++) {
+	    for (int b = otherStart; b < otherEnd; b++) {
+		visit(visitor, sorted[a], sorted[b]);
+	    }
+	}
+    }
+
+    /**
+     * A PairVisitor is handed each candidate pair found by a SpatialGrid.
+     */
+    public interface PairVisitor {
+
+	/**
+	 * Called once for each candidate pair
+	 *
+	 * @param i The index of the first Particle, which is the smaller
+	 * @param j The index of the second Particle
+	 */
+	public void visit(int i, int j);
+    }
+}
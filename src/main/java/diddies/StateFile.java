@@ -0,0 +1,109 @@
+package diddies;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * StateFile reads and writes the state of a Simulation as plain text, one
+ * Particle per line:
+ *
+ * <pre>
+ * x y vx vy mass diameter
+ * </pre>
+ *
+ * Blank lines and lines starting with '#' are ignored. Doubles are written
+ * with Double.toString, which reads back to exactly the same value, so a
+ * state can be written out and read back in without drifting.
+ *
+ * @author Ryan Kenney
+ */
+public class StateFile {
+
+    // Attributes
+    private final static int FIELDS = 6;
+
+    // Constructors
+    /**
+     * StateFile only has static methods
+     */
+    private StateFile() {
+    }
+
+    // Methods
+    /**
+     * Read every Particle in <i>file</i> into <i>particles</i>. Reading into a
+     * ParticleStore rather than straight into a Simulation lets the caller add
+     * them all at once with Simulation.addParticles().
+     *
+     * @param file The file to read
+     * @param particles The store to add the Particles to
+     * @return The number of Particles read
+     * @throws IOException If the file can not be read, or a line is not a
+     * Particle
+     */
+    public static int read(File file, ParticleStore particles) throws IOException {
+	int count = 0;
+	try (BufferedReader in = new BufferedReader(new InputStreamReader(
+		new FileInputStream(file), StandardCharsets.UTF_8))) {
+	    String line;
+	    int number = 0;
+	    while ((line = in.readLine()) != null) {
+		number++;
+		line = line.trim();
+		if (line.isEmpty() || line.charAt(0) == '#') {
+		    continue;
+		}
+
+		String[] fields = line.split("\\s+");
+		if (fields.length != FIELDS) {
+		    throw new IOException(file + ":" + number + ": expected " + FIELDS
+			    + " fields but found " + fields.length);
+		}
+		try {
+		    particles.add(Double.parseDouble(fields[0]), Double.parseDouble(fields[1]),
+			    Double.parseDouble(fields[2]), Double.parseDouble(fields[3]),
+			    Double.parseDouble(fields[4]), Integer.parseInt(fields[5]));
+		} catch (NumberFormatException e) {
+		    throw new IOException(file + ":" + number + ": " + e.getMessage(), e);
+		}
+		count++;
+	    }
+	}
+
+	return count;
+    }
+
+    /**
+     * Write every Particle in <i>particles</i> to <i>file</i>, replacing it
+     *
+     * @param file The file to write
+     * @param particles The Particles to write
+     * @throws IOException If the file can not be written
+     */
+    public static void write(File file, ParticleStore particles) throws IOException {
+	try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+		new FileOutputStream(file), StandardCharsets.UTF_8))) {
+	    out.write("# x y vx vy mass diameter");
+	    out.newLine();
+	    StringBuilder line = new StringBuilder();
+	    for (int i = 0; i < particles.size(); i++) {
+		line.setLength(0);
+		line.append(particles.getX(i)).append(' ')
+			.append(particles.getY(i)).append(' ')
+			.append(particles.getVelocityX(i)).append(' ')
+			.append(particles.getVelocityY(i)).append(' ')
+			.append(particles.getMass(i)).append(' ')
+			.append(particles.getDiameter(i));
+		out.write(line.toString());
+		out.newLine();
+	    }
+	}
+    }
+}
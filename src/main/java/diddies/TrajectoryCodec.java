@@ -0,0 +1,240 @@
+package diddies;
+
+import java.util.Arrays;
+
+/**
+ * TrajectoryCodec turns the frames of a trajectory into bytes and back. Every
+ * attribute is quantized to a fixed-point grid: positions to 1/64 of a pixel,
+ * velocities to 1/4096 of a pixel per tick and masses to 1/1024. A keyframe
+ * stores the quantized values as they are; any other frame stores only the
+ * difference from the frame before it, Particle by Particle. From one tick to
+ * the next most Particles barely move, so the differences are small numbers,
+ * and small numbers are written in one or two bytes as zigzag varints.
+ *
+ * Particles are matched up by their index in the store. When a Particle is
+ * removed the last one takes its slot, which makes that slot's difference
+ * large for one frame but never wrong.
+ *
+ * The codec remembers the previous frame, so a single codec has to see every
+ * frame of a file in order, starting from a keyframe.
+ *
+ * @author Ryan Kenney
+ */
+final class TrajectoryCodec {
+
+    // Attributes
+    final static double POSITION_SCALE = 64;
+    final static double VELOCITY_SCALE = 4096;
+    final static double MASS_SCALE = 1024;
+    private final double positionScale;
+    private final double velocityScale;
+    private final double massScale;
+    // The previous frame, quantized
+    private long[] x = new long[0];
+    private long[] y = new long[0];
+    private long[] vx = new long[0];
+    private long[] vy = new long[0];
+    private long[] mass = new long[0];
+    private long[] diameter = new long[0];
+    private int count;
+    // Encoded bytes
+    private byte[] output = new byte[1024];
+    private int length;
+    private byte[] input;
+    private int inputLength;
+    private int position;
+
+    // Constructors
+    /**
+     * Create a codec with the given grid sizes
+     *
+     * @param positionScale The steps per pixel of a position
+     * @param velocityScale The steps per pixel per tick of a velocity
+     * @param massScale The steps per unit of mass
+     */
+    TrajectoryCodec(double positionScale, double velocityScale, double massScale) {
+	this.positionScale = positionScale;
+	this.velocityScale = velocityScale;
+	this.massScale = massScale;
+    }
+
+    // Methods
+    /**
+     * Decode a frame of <i>n</i> Particles from the first <i>length</i> bytes
+     * of <i>source</i> into <i>particles</i>, replacing what was there
+     *
+     * @param source The encoded frame
+     * @param length The number of bytes in the frame
+     * @param n The number of Particles in the frame
+     * @param keyframe True if the frame is a keyframe
+     * @param particles The store to decode into
+     * @throws IllegalArgumentException If the bytes are not a frame of
+     * <i>n</i> Particles
+     */
+    void decode(byte[] source, int length, int n, boolean keyframe, ParticleStore particles) {
+	ensureCapacity(n);
+	int previous = keyframe ? 0 : count;
+	input = source;
+	inputLength = length;
+	position = 0;
+	try {
+	    decode(x, n, previous);
+	    decode(y, n, previous);
+	    decode(vx, n, previous);
+	    decode(vy, n, previous);
+	    decode(mass, n, previous);
+	    decode(diameter, n, previous);
+	} catch (ArrayIndexOutOfBoundsException e) {
+	    throw new IllegalArgumentException("frame is shorter than " + n + " particles");
+	} finally {
+	    input = null;
+	}
+	if (position != length) {
+	    throw new IllegalArgumentException("frame is longer than " + n + " particles");
+	}
+	count = n;
+
+	particles.clear();
+	int first = particles.extend(n);
+	for (int i = 0; i < n; i++) {
+	    particles.x[first + i] = x[i] / positionScale;
+	    particles.y[first + i] = y[i] / positionScale;
+	    particles.vx[first + i] = vx[i] / velocityScale;
+	    particles.vy[first + i] = vy[i] / velocityScale;
+	    particles.mass[first + i] = mass[i] / massScale;
+	    particles.diameter[first + i] = (int) diameter[i];
+	}
+    }
+
+    /**
+     * Decode one attribute of <i>n</i> Particles into <i>values</i>
+     *
+     * @param values The previous values, replaced with the decoded ones
+     * @param n The number of Particles
+     * @param previous The number of Particles in the previous frame
+     */
+    private void decode(long[] values, int n, int previous) {
+	for (int i = 0; i < n; i++) {
+	    long delta = getVarLong();
+	    values[i] = (i < previous) ? values[i] + delta : delta;
+	}
+    }
+
+    /**
+     * Encode <i>particles</i> as the next frame. The bytes are valid until the
+     * next call.
+     *
+     * @param particles The Particles in the frame
+     * @param keyframe True to encode a keyframe, which does not depend on the
+     * frame before it
+     */
+    void encode(ParticleStore particles, boolean keyframe) {
+	int n = particles.size();
+	ensureCapacity(n);
+	int previous = keyframe ? 0 : count;
+	length = 0;
+	encode(x, particles.x, positionScale, n, previous);
+	encode(y, particles.y, positionScale, n, previous);
+	encode(vx, particles.vx, velocityScale, n, previous);
+	encode(vy, particles.vy, velocityScale, n, previous);
+	encode(mass, particles.mass, massScale, n, previous);
+	for (int i = 0; i < n; i++) {
+	    long q = particles.diameter[i];
+	    putVarLong((i < previous) ? q - diameter[i] : q);
+	    diameter[i] = q;
+	}
+	count = n;
+    }
+
+    /**
+     * Encode one attribute of <i>n</i> Particles
+     *
+     * @param quantized The previous quantized values, replaced with the new
+     * ones
+     * @param values The values to encode
+     * @param scale The steps per unit of the attribute
+     * @param n The number of Particles
+     * @param previous The number of Particles in the previous frame
+     */
+    private void encode(long[] quantized, double[] values, double scale, int n, int previous) {
+	for (int i = 0; i < n; i++) {
+	    long q = Math.round(values[i] * scale);
+	    putVarLong((i < previous) ? q - quantized[i] : q);
+	    quantized[i] = q;
+	}
+    }
+
+    /**
+     * Make room to remember a frame of <i>n</i> Particles
+     *
+     * @param n The number of Particles
+     */
+    private void ensureCapacity(int n) {
+	if (x.length < n) {
+	    int capacity = Math.max(n, 2 * x.length);
+	    x = Arrays.copyOf(x, capacity);
+	    y = Arrays.copyOf(y, capacity);
+	    vx = Arrays.copyOf(vx, capacity);
+	    vy = Arrays.copyOf(vy, capacity);
+	    mass = Arrays.copyOf(mass, capacity);
+	    diameter = Arrays.copyOf(diameter, capacity);
+	}
+    }
+
+    /**
+     * Get the bytes of the most recently encoded frame. Only the first
+     * getLength() of them are valid.
+     *
+     * @return The encoded bytes
+     */
+    byte[] getBytes() {
+	return output;
+    }
+
+    /**
+     * Get the number of bytes in the most recently encoded frame
+     *
+     * @return The length
+     */
+    int getLength() {
+	return length;
+    }
+
+    /**
+     * Read a zigzag varint
+     *
+     * @return The value
+     */
+    private long getVarLong() {
+	long zigzag = 0;
+	int shift = 0;
+	byte b;
+	do {
+	    if (position >= inputLength || shift > 63) {
+		throw new ArrayIndexOutOfBoundsException(position);
+	    }
+	    b = input[position++];
+	    zigzag |= (long) (b & 0x7F) << shift;
+	    shift += 7;
+	} while ((b & 0x80) != 0);
+	return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * Write <i>value</i> as a zigzag varint: small magnitudes of either sign
+     * take few bytes
+     *
+     * @param value The value
+     */
+    private void putVarLong(long value) {
+	if (output.length - length < 10) {
+	    output = Arrays.copyOf(output, 2 * output.length);
+	}
+	long zigzag = (value << 1) ^ (value >> 63);
+	while ((zigzag & ~0x7FL) != 0) {
+	    output[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+	    zigzag >>>= 7;
+	}
+	output[length++] = (byte) zigzag;
+    }
+}
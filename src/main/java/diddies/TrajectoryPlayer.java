@@ -0,0 +1,274 @@
+package diddies;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * TrajectoryPlayer plays back a file made by TrajectoryRecorder, one frame at
+ * a time, without running the Simulation again. Opening a file reads only the
+ * record headers to index where every frame starts, so it can then jump to
+ * any keyframe straight away, and to any other frame by decoding forward from
+ * the keyframe before it.
+ *
+ * The current frame is decoded into a ParticleStore, which can be drawn with
+ * a ParticleRenderer exactly the way Updater draws a live Simulation.
+ *
+ * @author Ryan Kenney
+ */
+public class TrajectoryPlayer implements Closeable {
+
+    // Attributes
+    private final RandomAccessFile file;
+    private final TrajectoryCodec codec;
+    private final int keyframeInterval;
+    // Index, by frame
+    private long[] offsets = new long[64];
+    private long[] ticks = new long[64];
+    private int[] counts = new int[64];
+    private int[] lengths = new int[64];
+    private boolean[] keyframes = new boolean[64];
+    private int frames;
+    // The frame most recently decoded
+    private final ParticleStore frame = new ParticleStore();
+    private int current = -1;
+    private byte[] bytes = new byte[1024];
+
+    // Constructors
+    /**
+     * Open <i>file</i> and index its frames. A record cut short at the end of
+     * the file, as a crash leaves it, is ignored.
+     *
+     * @param file The file to play
+     * @throws IOException If the file can not be read or is not a trajectory
+     */
+    public TrajectoryPlayer(File file) throws IOException {
+	this.file = new RandomAccessFile(file, "r");
+	try {
+	    if (this.file.readInt() != TrajectoryRecorder.MAGIC) {
+		throw new IOException(file + ": not a trajectory");
+	    }
+	    int version = this.file.readInt();
+	    if (version < 1 || version > TrajectoryRecorder.VERSION) {
+		throw new IOException(file + ": trajectory version " + version + " is not supported");
+	    }
+	    codec = new TrajectoryCodec(this.file.readDouble(), this.file.readDouble(), this.file.readDouble());
+	    keyframeInterval = this.file.readInt();
+	    index();
+	} catch (EOFException e) {
+	    this.file.close();
+	    throw new IOException(file + ": too short to be a trajectory", e);
+	} catch (IOException e) {
+	    this.file.close();
+	    throw e;
+	}
+	if (frames == 0 || !keyframes[0]) {
+	    this.file.close();
+	    throw new IOException(file + ": has no frames");
+	}
+    }
+
+    // Methods
+    /**
+     * Close the file
+     *
+     * @throws IOException If the file can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+	file.close();
+    }
+
+    /**
+     * Decode frame <i>f</i>, which has to be a keyframe or the frame after
+     * the current one
+     *
+     * @param f The frame
+     * @throws IOException If the frame can not be read
+     */
+    private void decode(int f) throws IOException {
+	if (bytes.length < lengths[f]) {
+	    bytes = new byte[Math.max(lengths[f], 2 * bytes.length)];
+	}
+	file.seek(offsets[f]);
+	file.readFully(bytes, 0, lengths[f]);
+	try {
+	    codec.decode(bytes, lengths[f], counts[f], keyframes[f], frame);
+	} catch (IllegalArgumentException e) {
+	    current = -1;
+	    throw new IOException("frame " + f + " is corrupt: " + e.getMessage(), e);
+	}
+	current = f;
+    }
+
+    /**
+     * Get the index of the current frame
+     *
+     * @return The frame, or -1 before the first one is decoded
+     */
+    public int getFrame() {
+	return current;
+    }
+
+    /**
+     * Get the number of frames in the file
+     *
+     * @return The number of frames
+     */
+    public int getFrameCount() {
+	return frames;
+    }
+
+    /**
+     * Get the number of frames between keyframes the file was recorded with
+     *
+     * @return The keyframe interval
+     */
+    public int getKeyframeInterval() {
+	return keyframeInterval;
+    }
+
+    /**
+     * Get the Particles of the current frame. The store is reused for every
+     * frame.
+     *
+     * @return The ParticleStore
+     */
+    public ParticleStore getParticles() {
+	return frame;
+    }
+
+    /**
+     * Get the tick of the current frame
+     *
+     * @return The tick, or -1 before the first frame is decoded
+     */
+    public long getTick() {
+	return (current < 0) ? -1 : ticks[current];
+    }
+
+    /**
+     * Read the header of every record and note where its frame starts
+     *
+     * @throws IOException If the file can not be read
+     */
+    private void index() throws IOException {
+	long length = file.length();
+	long offset = TrajectoryRecorder.HEADER_BYTES;
+	while (offset + TrajectoryRecorder.RECORD_HEADER_BYTES <= length) {
+	    file.seek(offset);
+	    byte type = file.readByte();
+	    long tick = file.readLong();
+	    int count = file.readInt();
+	    int size = file.readInt();
+	    if ((type != TrajectoryRecorder.KEYFRAME && type != TrajectoryRecorder.DELTA) || count < 0 || size < 0) {
+		throw new IOException("record at byte " + offset + " is corrupt");
+	    }
+	    long start = offset + TrajectoryRecorder.RECORD_HEADER_BYTES;
+	    if (start + size > length) {
+		break;
+	    }
+
+	    if (frames == offsets.length) {
+		int capacity = 2 * frames;
+		offsets = Arrays.copyOf(offsets, capacity);
+		ticks = Arrays.copyOf(ticks, capacity);
+		counts = Arrays.copyOf(counts, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		keyframes = Arrays.copyOf(keyframes, capacity);
+	    }
+	    offsets[frames] = start;
+	    ticks[frames] = tick;
+	    counts[frames] = count;
+	    lengths[frames] = size;
+	    keyframes[frames] = type == TrajectoryRecorder.KEYFRAME;
+	    frames++;
+	    offset = start + size;
+	}
+    }
+
+    /**
+     * Move on to the next frame
+     *
+     * @return True if there was a next frame, false at the end of the file
+     * @throws IOException If the frame can not be read
+     */
+    public boolean next() throws IOException {
+	if (current + 1 >= frames) {
+	    return false;
+	}
+	decode(current + 1);
+	return true;
+    }
+
+    /**
+     * Jump to frame <i>f</i>, decoding forward from the keyframe at or before
+     * it. Going forward from the current frame skips the keyframe when it is
+     * closer.
+     *
+     * @param f The frame, from 0 to getFrameCount() - 1
+     * @throws IOException If a frame can not be read
+     */
+    public void seekFrame(int f) throws IOException {
+	if (f < 0 || f >= frames) {
+	    throw new IndexOutOfBoundsException("frame " + f + " of " + frames);
+	}
+	int key = f;
+	while (!keyframes[key]) {
+	    key--;
+	}
+	int from = (current >= key && current <= f) ? current + 1 : key;
+	for (int i = from; i <= f; i++) {
+	    decode(i);
+	}
+    }
+
+    /**
+     * Jump to the keyframe <i>k</i> keyframes after the current frame's, or
+     * before it if <i>k</i> is negative, stopping at the first and last
+     *
+     * @param k The number of keyframes to move
+     * @throws IOException If the keyframe can not be read
+     */
+    public void seekKeyframe(int k) throws IOException {
+	int f = Math.max(current, 0);
+	while (!keyframes[f]) {
+	    f--;
+	}
+	for (; k > 0; k--) {
+	    int next = f + 1;
+	    while (next < frames && !keyframes[next]) {
+		next++;
+	    }
+	    if (next >= frames) {
+		break;
+	    }
+	    f = next;
+	}
+	for (; k < 0 && f > 0; k++) {
+	    f--;
+	    while (!keyframes[f]) {
+		f--;
+	    }
+	}
+	decode(f);
+    }
+
+    /**
+     * Jump to the last frame recorded at or before <i>tick</i>, or the first
+     * frame if they are all after it
+     *
+     * @param tick The tick
+     * @throws IOException If a frame can not be read
+     */
+    public void seekTick(long tick) throws IOException {
+	int f = Arrays.binarySearch(ticks, 0, frames, tick);
+	if (f < 0) {
+	    f = Math.max(0, -f - 2);
+	}
+	seekFrame(f);
+    }
+}
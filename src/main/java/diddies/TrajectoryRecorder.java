@@ -0,0 +1,255 @@
+package diddies;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TrajectoryRecorder streams the state of a Simulation to a file every tick,
+ * or every few ticks, for TrajectoryPlayer to play back later. Set it as the
+ * Simulation's TickListener.
+ *
+ * The Simulation only copies each frame into a spare buffer and queues it; a
+ * thread of the recorder's own encodes the frames with a TrajectoryCodec and
+ * writes them out. There is a fixed number of buffers, so the recorder never
+ * allocates once it is running, and if the writer falls so far behind that
+ * none are spare, the frame is dropped and counted rather than making the
+ * Simulation wait. Deltas are taken against the last frame written, so a
+ * dropped frame never corrupts the ones after it.
+ *
+ * The file starts with a header, followed by one record per frame:
+ *
+ * <pre>
+ * int    magic ("SSTR")
+ * int    version
+ * double position scale, velocity scale, mass scale
+ * int    keyframe interval
+ *
+ * byte   type (1 = keyframe, 2 = delta)
+ * long   tick
+ * int    count
+ * int    length
+ * byte   frame[length]
+ * </pre>
+ *
+ * Every record is complete in itself apart from its dependence on the frame
+ * before it, so a file cut short by a crash plays back up to the last whole
+ * record.
+ *
+ * @author Ryan Kenney
+ */
+public class TrajectoryRecorder implements Simulation.TickListener, Closeable {
+
+    // Attributes
+    final static int MAGIC = 0x53535452;
+    final static int VERSION = 1;
+    final static byte KEYFRAME = 1;
+    final static byte DELTA = 2;
+    final static int HEADER_BYTES = 2 * Integer.BYTES + 3 * Double.BYTES + Integer.BYTES;
+    final static int RECORD_HEADER_BYTES = 1 + Long.BYTES + 2 * Integer.BYTES;
+    public final static int DEFAULT_KEYFRAME_INTERVAL = 256;
+    private final static int DEFAULT_QUEUE_SIZE = 16;
+    private final static long POLL_MILLIS = 50;
+    // Settings
+    private final int interval;
+    private final int keyframeInterval;
+    // Frames
+    private final BlockingQueue<Frame> spare;
+    private final BlockingQueue<Frame> queued;
+    // Writer
+    private final DataOutputStream out;
+    private final TrajectoryCodec codec;
+    private final Thread writer;
+    private volatile boolean closed;
+    // Metrics
+    private volatile long recorded;
+    private volatile long dropped;
+    private volatile long bytes;
+    private volatile IOException error;
+
+    // Constructors
+    /**
+     * Create a TrajectoryRecorder that records every tick to <i>file</i>,
+     * with the default keyframe interval and queue
+     *
+     * @param file The file to record to, replacing it
+     * @throws IOException If the file can not be created
+     */
+    public TrajectoryRecorder(File file) throws IOException {
+	this(file, 1, DEFAULT_KEYFRAME_INTERVAL, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Create a TrajectoryRecorder
+     *
+     * @param file The file to record to, replacing it
+     * @param interval Record every <i>interval</i>th tick, at least 1
+     * @param keyframeInterval Make every <i>keyframeInterval</i>th frame a
+     * keyframe, at least 1. Smaller intervals seek faster and make larger
+     * files.
+     * @param queueSize The most frames waiting to be written, at least 1
+     * @throws IOException If the file can not be created
+     */
+    public TrajectoryRecorder(File file, int interval, int keyframeInterval, int queueSize) throws IOException {
+	if (interval < 1 || keyframeInterval < 1 || queueSize < 1) {
+	    throw new IllegalArgumentException("interval, keyframeInterval and queueSize must be at least 1");
+	}
+	this.interval = interval;
+	this.keyframeInterval = keyframeInterval;
+	spare = new ArrayBlockingQueue<>(queueSize);
+	queued = new ArrayBlockingQueue<>(queueSize);
+	for (int i = 0; i < queueSize; i++) {
+	    spare.add(new Frame());
+	}
+	codec = new TrajectoryCodec(TrajectoryCodec.POSITION_SCALE, TrajectoryCodec.VELOCITY_SCALE,
+		TrajectoryCodec.MASS_SCALE);
+
+	out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeDouble(TrajectoryCodec.POSITION_SCALE);
+	out.writeDouble(TrajectoryCodec.VELOCITY_SCALE);
+	out.writeDouble(TrajectoryCodec.MASS_SCALE);
+	out.writeInt(keyframeInterval);
+
+	writer = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		write();
+	    }
+	}, "trajectory");
+	writer.setDaemon(true);
+	writer.start();
+    }
+
+    // Methods
+    /**
+     * Write every frame still queued, then close the file. Frames that arrive
+     * afterwards are ignored.
+     *
+     * @throws IOException If the file could not be written, now or earlier
+     */
+    @Override
+    public void close() throws IOException {
+	closed = true;
+	try {
+	    writer.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	out.close();
+	if (error != null) {
+	    throw error;
+	}
+    }
+
+    /**
+     * Get the number of bytes written so far, not counting the header
+     *
+     * @return The number of bytes
+     */
+    public long getBytes() {
+	return bytes;
+    }
+
+    /**
+     * Get the number of frames dropped because the writer was behind
+     *
+     * @return The number of dropped frames
+     */
+    public long getDroppedFrames() {
+	return dropped;
+    }
+
+    /**
+     * Get the number of frames written so far
+     *
+     * @return The number of frames
+     */
+    public long getRecordedFrames() {
+	return recorded;
+    }
+
+    /**
+     * Queue the Particles for writing, unless this tick is skipped or there
+     * is no spare buffer. This never blocks.
+     *
+     * @param tick The number of ticks run so far
+     * @param particles The Particles at the end of the tick
+     */
+    @Override
+    public void ticked(long tick, ParticleStore particles) {
+	if (closed || tick % interval != 0) {
+	    return;
+	}
+	Frame frame = spare.poll();
+	if (frame == null) {
+	    dropped++;
+	    return;
+	}
+	frame.tick = tick;
+	frame.particles.copyFrom(particles);
+	queued.add(frame);
+    }
+
+    /**
+     * Encode and write queued frames until closed, then write whatever is
+     * left. The stream is flushed whenever the queue runs dry, so the file is
+     * never far behind the Simulation.
+     */
+    private void write() {
+	while (true) {
+	    Frame frame;
+	    try {
+		frame = queued.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+	    } catch (InterruptedException e) {
+		frame = null;
+		closed = true;
+	    }
+	    if (frame == null) {
+		if (closed && queued.isEmpty()) {
+		    return;
+		}
+		continue;
+	    }
+
+	    try {
+		if (error == null) {
+		    boolean keyframe = recorded % keyframeInterval == 0;
+		    codec.encode(frame.particles, keyframe);
+		    out.writeByte(keyframe ? KEYFRAME : DELTA);
+		    out.writeLong(frame.tick);
+		    out.writeInt(frame.particles.size());
+		    out.writeInt(codec.getLength());
+		    out.write(codec.getBytes(), 0, codec.getLength());
+		    if (queued.isEmpty()) {
+			out.flush();
+		    }
+		    bytes += RECORD_HEADER_BYTES + codec.getLength();
+		    recorded++;
+		}
+	    } catch (IOException e) {
+		error = e;
+		System.err.println("trajectory recording failed: " + e.getMessage());
+	    } finally {
+		spare.add(frame);
+	    }
+	}
+    }
+
+    /**
+     * A buffer for one frame on its way to the file
+     */
+    private static class Frame {
+
+	// Attributes
+	private final ParticleStore particles = new ParticleStore();
+	private long tick;
+    }
+}
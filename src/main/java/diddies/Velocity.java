@@ -46,6 +46,16 @@ public class Velocity {
     }
 
     // Methods
+    /**
+     * Adds dx and dy to the current value's X and Y components, in place.
+     * This abides by the upper limit of 1 (and lower limit of -1) rule
+     * @param dx The change in the X component
+     * @param dy The change in the Y component
+     */
+    public void add(double dx, double dy) {
+        this.setValues(this.x + dx, this.y + dy);
+    }
+
     /**
      * Adds v's X and Y components to the current value's X and Y components.
      * This abides by the upper limit of 1 (and lower limit of -1) rule
@@ -56,6 +66,32 @@ public class Velocity {
                 this.getY() + v.getY());
     }
     
+    /**
+     * Limits <i>component</i> to the range [-1, 1], per the upper limit of 1
+     * (and lower limit of -1) rule
+     * @param component The X or Y component to limit
+     * @return The limited component
+     */
+    public static double clamp(double component) {
+        return clamp(component, 1);
+    }
+
+    /**
+     * Limits <i>component</i> to the range [-<i>limit</i>, <i>limit</i>]. A
+     * limit of Double.POSITIVE_INFINITY leaves every component alone.
+     * @param component The X or Y component to limit
+     * @param limit The largest magnitude allowed
+     * @return The limited component
+     */
+    public static double clamp(double component, double limit) {
+        if (component > limit) {
+            return limit;
+        } else if (component < -limit) {
+            return -limit;
+        }
+        return component;
+    }
+
     /**
      * Creates a Velocity with identical properties to v
      * @param v The Velocity to copy
@@ -89,6 +125,24 @@ public class Velocity {
         return y;
     }
     
+    /**
+     * Reverses the direction of this Velocity, in place.  Unlike getOpposite(),
+     * this does not create a new Velocity
+     */
+    public void negate() {
+        this.x = -this.x;
+        this.y = -this.y;
+    }
+
+    /**
+     * Copies v's X and Y components into this Velocity, in place.  Unlike
+     * duplicate(), this does not create a new Velocity
+     * @param v The Velocity to copy
+     */
+    public void set(Velocity v) {
+        this.setValues(v.x, v.y);
+    }
+
     /**
      * Directly modifies the X and Y components of this Velocity. This abides by 
      * the upper limit of 1 (and lower limit of -1) rule
@@ -96,10 +150,8 @@ public class Velocity {
      * @param y The Y component to set
      */
     public final void setValues(double x, double y) {
-        this.setX((x > 1) ? 1 : x);
-        this.setX((x < -1) ? -1 : x);
-        this.setY((y > 1) ? 1 : y);
-        this.setY((y < -1) ? -1 : y);
+        this.setX(clamp(x));
+        this.setY(clamp(y));
     }
 
     /**
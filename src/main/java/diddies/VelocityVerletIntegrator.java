@@ -0,0 +1,56 @@
+package diddies;
+
+/**
+ * Velocity Verlet, in its kick-drift-kick form: kick every Particle with its
+ * current acceleration for half a timestep, move it for a whole one, then kick
+ * it with the acceleration at the new position for the other half. Like
+ * leapfrog it is symplectic and second order, but positions and velocities
+ * are both known at the same instant at the end of every step.
+ *
+ * The acceleration at the end of a step is the one the next step starts with,
+ * so it is kept and reused, and a step costs one force calculation. It is
+ * worked out again if Particles were added, removed or absorbed in between,
+ * since those change the forces, and after invalidate(), which the Simulation
+ * calls when a wall or a collision moved a Particle or the gravity changed.
+ * Collisions that only change velocities leave it as it is.
+ *
+ * @author Ryan Kenney
+ */
+public class VelocityVerletIntegrator extends AbstractIntegrator {
+
+    // Attributes
+    private ParticleStore cached;
+    private int cachedModCount;
+
+    // Methods
+    /**
+     * Work out the acceleration again at the start of the next step
+     */
+    @Override
+    public void invalidate() {
+	cached = null;
+    }
+
+    /**
+     * Kick for <i>dt</i>/2, drift for <i>dt</i>, kick for <i>dt</i>/2
+     *
+     * @param particles The Particles to move
+     * @param dt The timestep
+     * @param forces Works out the acceleration of every Particle
+     * @param runner The BlockRunner to split the work with
+     */
+    @Override
+    public void step(ParticleStore particles, double dt, Forces forces, BlockRunner runner) {
+	begin(particles, runner);
+	if (cached != particles || cachedModCount != particles.getModCount()) {
+	    accelerate(forces);
+	}
+	kick(dt / 2);
+	drift(dt);
+	accelerate(forces);
+	kick(dt / 2);
+	cached = particles;
+	cachedModCount = particles.getModCount();
+	end();
+    }
+}
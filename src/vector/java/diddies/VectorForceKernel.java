@@ -0,0 +1,96 @@
+package diddies;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The ForceKernel that uses the SIMD instructions of the processor, through
+ * the Vector API of JDK 16 and later. Each Particle's row is worked out as
+ * many other Particles at a time as the widest vector the processor has holds
+ * (four with AVX2, eight with AVX-512), with a lane-wise square root and
+ * division and a fused multiply-add into per-lane sums, which are only added
+ * across the lanes at the end of the row. The few Particles left over past
+ * the last full vector are done one at a time.
+ *
+ * This is only built with -Pvector, and only used when the JVM runs with
+ * --add-modules jdk.incubator.vector; ForceKernels falls back to
+ * ScalarForceKernel otherwise.
+ *
+ * @author Ryan Kenney
+ */
+public class VectorForceKernel implements ForceKernel {
+
+    // Attributes
+    private final static VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // Methods
+    /**
+     * Check if the kernel works on several Particles at once
+     *
+     * @return True, always
+     */
+    @Override
+    public boolean isVectorized() {
+	return true;
+    }
+
+    /**
+     * Sum the attraction of Particles 0 to <i>n</i> - 1, without G, on each of
+     * Particles <i>start</i> to <i>end</i> - 1, a vector of Particles at a
+     * time
+     *
+     * @param x The X components of the centers
+     * @param y The Y components of the centers
+     * @param mass The masses
+     * @param n The number of Particles
+     * @param start The first Particle to sum for
+     * @param end One past the last Particle to sum for
+     * @param sumX Where to write the X components of the sums
+     * @param sumY Where to write the Y components of the sums
+     */
+    @Override
+    public void sumRows(double[] x, double[] y, double[] mass, int n, int start, int end, double[] sumX,
+	    double[] sumY) {
+	final int bound = SPECIES.loopBound(n);
+	final DoubleVector zero = DoubleVector.zero(SPECIES);
+	for (int i = start; i < end; i++) {
+	    double x1 = x[i], y1 = y[i];
+	    DoubleVector vx1 = DoubleVector.broadcast(SPECIES, x1);
+	    DoubleVector vy1 = DoubleVector.broadcast(SPECIES, y1);
+	    DoubleVector totalX = zero, totalY = zero;
+	    int j = 0;
+	    for (; j < bound; j += SPECIES.length()) {
+		DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(vx1);
+		DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(vy1);
+		DoubleVector distanceSq = dx.mul(dx).add(dy.mul(dy));
+
+		// Coincident centers divide by 0, so their lanes are zeroed
+		VectorMask<Double> coincident = distanceSq.compare(VectorOperators.EQ, 0);
+		DoubleVector scale = DoubleVector.fromArray(SPECIES, mass, j)
+			.div(distanceSq.mul(distanceSq.sqrt()))
+			.blend(zero, coincident);
+		totalX = dx.fma(scale, totalX);
+		totalY = dy.fma(scale, totalY);
+	    }
+
+	    double restX = totalX.reduceLanes(VectorOperators.ADD);
+	    double restY = totalY.reduceLanes(VectorOperators.ADD);
+	    for (; j < n; j++) {
+		double dx = x[j] - x1;
+		double dy = y[j] - y1;
+		double distanceSq = dx * dx + dy * dy;
+		if (distanceSq == 0) {
+		    continue;
+		}
+
+		double scale = mass[j] / (distanceSq * Math.sqrt(distanceSq));
+		restX += dx * scale;
+		restY += dy * scale;
+	    }
+	    sumX[i] = restX;
+	    sumY[i] = restY;
+	}
+    }
+}